@@ -1,5 +1,3 @@
-import java.util.BitSet;
-
 /**
 *   Interface defining the custom compiled QueryModule object
 *   @author Jamie K. Teer
@@ -7,7 +5,11 @@ import java.util.BitSet;
 public interface AbstractQueryModule {
 
     /**
-    *   Execute the QueryModule
+    *   Execute the QueryModule over a range of rows.  Implementations must keep any per-row state local
+    *   to the call, so that several ranges can be executed at once on different threads.
+    *   @param start First row (in VarData.data) to test
+    *   @param end One past the last row to test
+    *   @param out CompressedBitSet where bits corresponding to rows passing the query are set
     */
-    public abstract BitSet executeCustomQuery();
+    public abstract void executeCustomQuery(int start, int end, CompressedBitSet out);
 }
@@ -0,0 +1,380 @@
+import java.util.Arrays;
+
+/**
+*   Annotation data (for each row, one int per annotation column: an index into the column's
+*   AbstractMapper, or the value itself for INTEGER columns), stored by column and bit-packed.  Each
+*   column is split into blocks of BLOCK_ROWS rows, and each block stores its smallest value and the
+*   offset of every row from it, at just enough bits for the block's range (frame-of-reference encoding).
+*   A dictionary column with n entries thus needs at most ceil(log2(n)) bits a row, and sorted positions
+*   (LeftFlank, RightFlank) only enough for the spread of positions within a block.  Any value is decoded
+*   in constant time.
+*   Rows are added in order while loading; a store can also be a view of selected rows of another,
+*   sharing its columns.
+*/
+public class AnnotationStore {
+
+    final static int BLOCK_SHIFT = 7;
+    final static int BLOCK_ROWS = 1 << BLOCK_SHIFT;    //A full block of width w uses exactly 2w words
+    final static int BLOCK_MASK = BLOCK_ROWS - 1;
+
+    private final int rowCount;
+    private final int colCount;
+    private final Column[] columns;
+    private final RowSelection selection;   //Rows of the shared columns, if this is a view (else null)
+    private int[][] pending = null; //Rows of the block being loaded
+    private int rowsAdded = 0;
+
+    /**
+    *   Create an empty store, to be filled with addRow()
+    *
+    *   @param rowCount The number of rows
+    *   @param colCount The number of annotation columns
+    */
+    public AnnotationStore(int rowCount, int colCount) {
+        this.rowCount = rowCount;
+        this.colCount = colCount;
+        columns = new Column[colCount];
+        for (int k=0; k < colCount; k++) {
+            columns[k] = new Column(rowCount);
+        }
+        selection = null;
+        if (rowCount > 0) {
+            pending = new int[BLOCK_ROWS][];
+        }
+    }
+
+
+    /**
+    *   Create a view of some rows of another store
+    */
+    private AnnotationStore(AnnotationStore parent, RowSelection selection) {
+        rowCount = selection.size();
+        colCount = parent.colCount;
+        columns = parent.columns;
+        this.selection = selection;
+        rowsAdded = rowCount;
+    }
+
+
+    /**
+    *   Add the next row while loading.  Each block is packed once its rows are all added.
+    *
+    *   @param row The row's values, one per column.  Kept (not copied) until its block is packed.
+    */
+    public void addRow(int[] row) {
+        pending[rowsAdded & BLOCK_MASK] = row;
+        rowsAdded++;
+        if ((rowsAdded & BLOCK_MASK) == 0 || rowsAdded == rowCount) {
+            int block = (rowsAdded - 1) >>> BLOCK_SHIFT;
+            int n = rowsAdded - (block << BLOCK_SHIFT);
+            int[] values = new int[n];
+            for (int k=0; k < colCount; k++) {
+                for (int r=0; r < n; r++) {
+                    values[r] = pending[r][k];
+                }
+                columns[k].putBlock(block, values, n);
+            }
+            Arrays.fill(pending, null);
+            if (rowsAdded == rowCount) {
+                pending = null;
+                for (Column c : columns) {
+                    c.trim();
+                }
+            }
+        }
+    }
+
+
+    /**
+    *   Return one value
+    *
+    *   @param row The row
+    *   @param col The annotation column
+    *   @return The value
+    */
+    public int get(int row, int col) {
+        if (selection != null) {
+            row = selection.get(row);
+        }
+        return columns[col].get(row);
+    }
+
+
+    /**
+    *   Set one value.  A value outside its block's range repacks the column.
+    *
+    *   @param row The row
+    *   @param col The annotation column
+    *   @param value The value
+    */
+    public void set(int row, int col, int value) {
+        if (selection != null) {
+            row = selection.get(row);
+        }
+        columns[col].set(row, value);
+    }
+
+
+    /**
+    *   Return a copy of one row's values
+    *
+    *   @param row The row
+    *   @return The row's values, one per column
+    */
+    public int[] getRow(int row) {
+        if (selection != null) {
+            row = selection.get(row);
+        }
+        int[] out = new int[colCount];
+        for (int k=0; k < colCount; k++) {
+            out[k] = columns[k].get(row);
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return a copy of all values as nested arrays
+    *
+    *   @return The values: [row][column]
+    */
+    public int[][] toArray() {
+        int[][] out = new int[rowCount][];
+        for (int i=0; i < rowCount; i++) {
+            out[i] = getRow(i);
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return a view of some rows, sharing this store's columns
+    *
+    *   @param rows The rows to include
+    *   @return A store whose row n is the nth set bit of rows
+    */
+    public AnnotationStore select(CompressedBitSet rows) {
+        return view(RowSelection.select(selection, rows));
+    }
+
+
+    /**
+    *   Return a view of selected storage rows, sharing this store's columns (and, with other views made from
+    *   the same selection, the selection)
+    *
+    *   @param sel Rows of the underlying storage, as from RowSelection.select(getSelection(), rows)
+    *   @return A store whose row n is storage row sel.get(n)
+    */
+    public AnnotationStore view(RowSelection sel) {
+        return new AnnotationStore(this, sel);
+    }
+
+
+    /**
+    *   Return the rows of the underlying storage this store shows
+    *
+    *   @return The RowSelection, or null if this store is not a view
+    */
+    public RowSelection getSelection() {
+        return selection;
+    }
+
+
+    /**
+    *   Return the memory used by a column's packed values (shared with any views)
+    *
+    *   @param col The annotation column
+    *   @return Bytes used
+    */
+    public long getColumnBytes(int col) {
+        return columns[col].bytes();
+    }
+
+
+    /**
+    *   Describe the memory used by each column, against one int per row
+    *
+    *   @param names The column names
+    *   @return One line per column, and a total
+    */
+    public String memoryReport(String[] names) {
+        StringBuilder sb = new StringBuilder();
+        long rows = (colCount > 0) ? columns[0].rows : 0;
+        long total = 0;
+        for (int k=0; k < colCount; k++) {
+            long bytes = getColumnBytes(k);
+            total += bytes;
+            sb.append(String.format("  %-24s %6.2f bits/row  %,12d bytes (%,d as ints)%n", names[k],
+                (rows > 0) ? (bytes * 8.0 / rows) : 0.0, bytes, rows * 4));
+        }
+        sb.append(String.format("Annotation data: %,d bytes packed, %,d as ints%n", total, rows * 4 * colCount));
+        return sb.toString();
+    }
+
+
+    /**
+    *   Return the number of rows
+    *
+    *   @return The number of rows
+    */
+    public int size() {
+        return rowCount;
+    }
+
+
+    /**
+    *   Return the number of columns
+    *
+    *   @return The number of columns
+    */
+    public int getColumnCount() {
+        return colCount;
+    }
+
+
+    /**
+    *   One packed column: for each block, its smallest value, its bit width, and the word its offsets start at
+    */
+    private static class Column {
+        final int rows;
+        private int[] base;
+        private byte[] width;
+        private int[] start;
+        private long[] words;
+        private int wordsUsed = 0;
+        private int unused = 0;     //Words of blocks since re-encoded by set()
+
+        Column(int rows) {
+            this.rows = rows;
+            int blocks = (rows + BLOCK_MASK) >>> BLOCK_SHIFT;
+            base = new int[blocks];
+            width = new byte[blocks];
+            start = new int[blocks];
+            words = new long[Math.max(blocks * 2, 1)];  //Grows as wider blocks are packed
+        }
+
+
+        /**
+        *   Pack one block after the words used so far (blocks are first packed in order)
+        */
+        void putBlock(int block, int[] values, int n) {
+            int min = values[0];
+            int max = values[0];
+            for (int r=1; r < n; r++) {
+                if (values[r] < min) {
+                    min = values[r];
+                }
+                else if (values[r] > max) {
+                    max = values[r];
+                }
+            }
+            int w = 64 - Long.numberOfLeadingZeros((long)max - min);
+            int need = (n * w + 63) >>> 6;
+            if (wordsUsed + need > words.length) {
+                words = Arrays.copyOf(words, Math.max(words.length * 2, wordsUsed + need));
+            }
+            base[block] = min;
+            width[block] = (byte)w;
+            start[block] = wordsUsed;
+            wordsUsed += need;
+            if (w > 0) {
+                for (int r=0; r < n; r++) {
+                    write(start[block], r * w, w, (long)values[r] - min);
+                }
+            }
+        }
+
+
+        int get(int row) {
+            int block = row >>> BLOCK_SHIFT;
+            int w = width[block];
+            if (w == 0) {
+                return base[block];
+            }
+            int bit = (row & BLOCK_MASK) * w;
+            int word = start[block] + (bit >>> 6);
+            int shift = bit & 63;
+            long v = words[word] >>> shift;
+            if (shift + w > 64) {
+                v |= words[word + 1] << (64 - shift);
+            }
+            return (int)(base[block] + (v & ((1L << w) - 1)));
+        }
+
+
+        void set(int row, int value) {
+            int block = row >>> BLOCK_SHIFT;
+            int w = width[block];
+            long offset = (long)value - base[block];
+            if (offset >= 0 && offset < (1L << w)) {
+                if (w > 0) {
+                    write(start[block], (row & BLOCK_MASK) * w, w, offset);
+                }
+                return;
+            }
+
+            //Out of the block's range: re-encode the block after the packed words, leaving its old words unused
+            int first = block << BLOCK_SHIFT;
+            int n = Math.min(BLOCK_ROWS, rows - first);
+            int[] blockValues = new int[n];
+            for (int r=0; r < n; r++) {
+                blockValues[r] = get(first + r);
+            }
+            blockValues[row - first] = value;
+            unused += (n * w + 63) >>> 6;
+            if (wordsUsed + BLOCK_ROWS / 2 > words.length) {    //Room for the widest block, with a little to spare
+                words = Arrays.copyOf(words, wordsUsed + Math.max(BLOCK_ROWS / 2, wordsUsed >>> 4));
+            }
+            putBlock(block, blockValues, n);
+            if (unused > wordsUsed / 2) {
+                compact();
+            }
+        }
+
+
+        /**
+        *   Drop the words of re-encoded blocks, moving the blocks together in order
+        */
+        private void compact() {
+            long[] packed = new long[Math.max(wordsUsed - unused, 1)];
+            int used = 0;
+            for (int b=0; b < base.length; b++) {
+                int n = Math.min(BLOCK_ROWS, rows - (b << BLOCK_SHIFT));
+                int need = (n * width[b] + 63) >>> 6;
+                System.arraycopy(words, start[b], packed, used, need);
+                start[b] = used;
+                used += need;
+            }
+            words = packed;
+            wordsUsed = used;
+            unused = 0;
+        }
+
+
+        /**
+        *   Write w bits at a bit offset from a word, replacing what was there
+        */
+        private void write(int firstWord, int bit, int w, long v) {
+            int word = firstWord + (bit >>> 6);
+            int shift = bit & 63;
+            long mask = (w == 64) ? -1L : (1L << w) - 1;
+            words[word] = (words[word] & ~(mask << shift)) | (v << shift);
+            if (shift + w > 64) {
+                int spill = 64 - shift;
+                words[word + 1] = (words[word + 1] & ~(mask >>> spill)) | (v >>> spill);
+            }
+        }
+
+
+        void trim() {
+            if (words.length > wordsUsed) {
+                words = Arrays.copyOf(words, wordsUsed);
+            }
+        }
+
+
+        long bytes() {
+            return words.length * 8L + base.length * 9L;
+        }
+    }
+}
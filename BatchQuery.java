@@ -0,0 +1,247 @@
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+*   Evaluates many saved query graphs together.  Boxes that appear in several queries (the same
+*   comparison, or the same logical combination of the same boxes) are evaluated once.  Comparisons that
+*   can be answered from bitmaps (genotype classes, indexed annotation values) are; the rest are tested
+*   together in a single pass over the rows.
+*/
+public class BatchQuery {
+
+    private final static Pattern bitSetsPat = Pattern.compile("bitSets\\[(\\d+)\\]");
+
+    private VarData vdat;
+    private List<String> names = new ArrayList<String>();
+    private List<Step> roots = new ArrayList<Step>();
+    private Map<String, Step> steps = new HashMap<String, Step>();   //Every distinct box, by canonical query
+    private List<CompressedBitSet> bitSets = new ArrayList<CompressedBitSet>();   //Text search BitSets of all queries
+    private boolean isRun = false;
+
+    /**
+    *   One distinct box: a comparison (leaf), or a logical connector of other boxes
+    */
+    private static class Step {
+        String key;                     //Canonical query, the same for boxes that are the same
+        QueryNode leaf = null;          //Parsed comparison, for leaves
+        String op = null;               //"&&", "||" or "^", for connectors
+        Step[] children = null;
+        CompressedBitSet rows = null;   //Result, once evaluated
+    }
+
+
+    /**
+    *   Prepare to evaluate queries on a VarData object
+    *
+    *   @param vdat The VarData object to query
+    */
+    public BatchQuery(VarData vdat) {
+        this.vdat = vdat;
+    }
+
+
+    /**
+    *   Add a saved query to the batch
+    *
+    *   @param name A name for the query (eg. its file name)
+    *   @param query The saved query
+    *   @throws ParseException if the query is disconnected or a box can't be parsed.  The batch is unchanged.
+    */
+    public void add(String name, SavedQuery query) throws ParseException {
+        if (query.graph.getRoots().size() != 1) {
+            throw new ParseException("The query is disconnected", 0);
+        }
+
+        //Text searches refer to their own query's BitSets: point them at the shared list instead.
+        //Identical BitSets are shared, so identical searches in different queries become the same box.
+        CompressedBitSet[] own = (query.bitSets == null) ? new CompressedBitSet[0] : query.bitSets;
+        List<CompressedBitSet> newBitSets = new ArrayList<CompressedBitSet>(bitSets);
+        int[] sharedIndex = new int[own.length];
+        for (int k=0; k < own.length; k++) {
+            sharedIndex[k] = newBitSets.indexOf(own[k]);
+            if (sharedIndex[k] < 0) {
+                newBitSets.add(own[k]);
+                sharedIndex[k] = newBitSets.size() - 1;
+            }
+        }
+
+        Map<String, Step> newSteps = new HashMap<String, Step>();
+        Step root = buildStep(query, query.graph.getRoots().iterator().next(), sharedIndex, newSteps);
+
+        steps.putAll(newSteps);
+        bitSets = newBitSets;
+        names.add(name);
+        roots.add(root);
+        isRun = false;
+    }
+
+
+    /**
+    *   Return the Step for a box, reusing an existing one if the same box has been seen before
+    *
+    *   @return The Step
+    */
+    private Step buildStep(SavedQuery query, CustomVertex v, int[] sharedIndex, Map<String, Step> newSteps)
+        throws ParseException {
+
+        Step step = new Step();
+        if (query.graph.getChildCount(v) == 0) {
+            Matcher m = bitSetsPat.matcher(v.getQuery());
+            StringBuffer sb = new StringBuffer();
+            while (m.find()) {
+                int k = Integer.parseInt(m.group(1));
+                if (k >= sharedIndex.length) {
+                    throw new ParseException("Text search " + k + " is missing from the query file", m.start());
+                }
+                m.appendReplacement(sb, "bitSets[" + sharedIndex[k] + "]");
+            }
+            m.appendTail(sb);
+            step.key = CompileCustomQuery.normaliseQuery(sb.toString());
+            step.leaf = QueryParser.parse(step.key);
+        }
+        else {
+            step.op = v.getQuery().trim();
+            List<Step> children = new ArrayList<Step>();
+            for (CustomVertex child : query.graph.getChildren(v)) {
+                children.add(buildStep(query, child, sharedIndex, newSteps));
+            }
+            step.children = children.toArray(new Step[children.size()]);
+
+            //AND, OR and XOR don't depend on the order of their operands
+            String[] childKeys = new String[step.children.length];
+            for (int i=0; i < childKeys.length; i++) {
+                childKeys[i] = step.children[i].key;
+            }
+            Arrays.sort(childKeys);
+            step.key = step.op + Arrays.toString(childKeys);
+        }
+
+        Step existing = steps.get(step.key);
+        if (existing == null) {
+            existing = newSteps.get(step.key);
+        }
+        if (existing != null) {
+            return existing;
+        }
+        newSteps.put(step.key, step);
+        return step;
+    }
+
+
+    /**
+    *   Evaluate all queries in the batch
+    */
+    public void run() {
+        QueryContext context = new QueryContext(vdat, bitSets.toArray(new CompressedBitSet[bitSets.size()]));
+        int rows = context.allData.size();
+
+        //Comparisons answered from bitmaps; the others are tested together, row by row
+        List<Step> scanned = new ArrayList<Step>();
+        for (Step step : steps.values()) {
+            step.rows = null;
+            if (step.leaf != null) {
+                step.rows = step.leaf.getIndexedRows(context);
+                if (step.rows == null) {
+                    step.rows = new CompressedBitSet(rows);
+                    scanned.add(step);
+                }
+            }
+        }
+        if (scanned.size() > 0) {
+            Step[] scan = scanned.toArray(new Step[scanned.size()]);
+            for (int i=0; i < rows; i++) {
+                context.setRow(i);
+                for (Step step : scan) {
+                    if (step.leaf.getBoolean(context)) {
+                        step.rows.set(i);
+                    }
+                }
+            }
+        }
+
+        for (Step root : roots) {
+            evaluate(root);
+        }
+        isRun = true;
+    }
+
+
+    /**
+    *   Evaluate a connector from its children's results
+    */
+    private CompressedBitSet evaluate(Step step) {
+        if (step.rows == null) {
+            CompressedBitSet out = (CompressedBitSet)evaluate(step.children[0]).clone();
+            for (int i=1; i < step.children.length; i++) {
+                CompressedBitSet c = evaluate(step.children[i]);
+                if (step.op.equals("&&")) {
+                    out.and(c);
+                }
+                else if (step.op.equals("||")) {
+                    out.or(c);
+                }
+                else {
+                    out.xor(c);
+                }
+            }
+            out.runOptimize();
+            step.rows = out;
+        }
+        return step.rows;
+    }
+
+
+    /**
+    *   Return the number of queries in the batch
+    *
+    *   @return Number of queries
+    */
+    public int size() {
+        return names.size();
+    }
+
+
+    /**
+    *   Return the name a query was added with
+    *
+    *   @param q The query (in the order added)
+    *   @return The name
+    */
+    public String getName(int q) {
+        return names.get(q);
+    }
+
+
+    /**
+    *   Return the rows matching a query.  run() must have been called since the last add().
+    *
+    *   @param q The query (in the order added)
+    *   @return A new CompressedBitSet with the rows (in VarData.data) passing the query
+    */
+    public CompressedBitSet getResult(int q) {
+        if (!isRun) {
+            throw new IllegalStateException("BatchQuery.run() has not been called");
+        }
+        return (CompressedBitSet)roots.get(q).rows.clone();
+    }
+
+
+    /**
+    *   Return the number of rows matching a query.  run() must have been called since the last add().
+    *
+    *   @param q The query (in the order added)
+    *   @return Number of rows passing the query
+    */
+    public int getCount(int q) {
+        if (!isRun) {
+            throw new IllegalStateException("BatchQuery.run() has not been called");
+        }
+        return roots.get(q).rows.cardinality();
+    }
+}
@@ -0,0 +1,168 @@
+import java.util.BitSet;
+
+/**
+*   A bitmap index over one low-cardinality annotation column: one CompressedBitSet of rows for each distinct value.
+*   STRING columns are keyed by dictionary index, INTEGER columns by value, and MULTISTRING columns
+*   by flag (a row is in the set of every flag set in its bitmask).
+*/
+public class BitmapIndex {
+
+    final static int MAX_CARDINALITY = 64;  //Above this, a column is not worth indexing
+
+    private int dataType;
+    private int[] keys;         //Distinct keys, in order of first appearance
+    private CompressedBitSet[] rowsAt;    //Rows for each key (same order as keys)
+    private int keyCount = 0;
+    private int rowCount;
+
+    /**
+    *   Private constructor - use build()
+    */
+    private BitmapIndex(int dataType, int rowCount) {
+        this.dataType = dataType;
+        this.rowCount = rowCount;
+        keys = new int[8];
+        rowsAt = new CompressedBitSet[8];
+    }
+
+
+    /**
+    *   Build a bitmap index over one column
+    *
+    *   @param data The annotation data
+    *   @param col The column to index
+    *   @param mapper The AbstractMapper for this column
+    *   @return The index, or null if the column has too many distinct values to be worth indexing
+    */
+    public static BitmapIndex build(AnnotationStore data, int col, AbstractMapper mapper) {
+        int type = mapper.getDataType();
+        if (type == VarData.FLOAT || (type == VarData.STRING && mapper.getLength() > MAX_CARDINALITY)) {
+            return null;
+        }
+
+        BitmapIndex bi = new BitmapIndex(type, data.size());
+        if (type == VarData.MULTISTRING) {
+            for (int j=0; j < mapper.getLength(); j++) {
+                bi.addKey(j);
+            }
+            for (int i=0; i < data.size(); i++) {
+                int flags = data.get(i, col);
+                while (flags != 0) {
+                    int j = Integer.numberOfTrailingZeros(flags);
+                    bi.rowsAt[j].set(i);
+                    flags &= (flags - 1);
+                }
+            }
+        }
+        else {
+            int lastKey = 0;
+            CompressedBitSet lastRows = null;
+            for (int i=0; i < data.size(); i++) {
+                int key = data.get(i, col);
+                if (lastRows == null || key != lastKey) {
+                    int k = bi.findKey(key);
+                    if (k < 0) {
+                        if (bi.keyCount == MAX_CARDINALITY) {
+                            return null;
+                        }
+                        k = bi.addKey(key);
+                    }
+                    lastKey = key;
+                    lastRows = bi.rowsAt[k];
+                }
+                lastRows.set(i);
+            }
+        }
+        for (int k=0; k < bi.keyCount; k++) {
+            bi.rowsAt[k].runOptimize();
+        }
+        return bi;
+    }
+
+
+    /**
+    *   Return the rows holding a key
+    *
+    *   @param key A dictionary index (STRING), value (INTEGER) or flag index (MULTISTRING)
+    *   @return A new CompressedBitSet with the matching rows set
+    */
+    public CompressedBitSet getRows(int key) {
+        int k = findKey(key);
+        return (k < 0) ? new CompressedBitSet(rowCount) : (CompressedBitSet)rowsAt[k].clone();
+    }
+
+
+    /**
+    *   Return the rows holding any of several keys (an IN test)
+    *
+    *   @param keySet BitSet with the desired keys set
+    *   @return A new CompressedBitSet with the rows matching any key set
+    */
+    public CompressedBitSet getRowsIn(BitSet keySet) {
+        CompressedBitSet out = new CompressedBitSet(rowCount);
+        for (int k=0; k < keyCount; k++) {
+            if (keys[k] >= 0 && keySet.get(keys[k])) {
+                out.or(rowsAt[k]);
+            }
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return the number of rows holding a key, without building a new set
+    *
+    *   @param key A dictionary index (STRING), value (INTEGER) or flag index (MULTISTRING)
+    *   @return Number of rows with this key
+    */
+    public int countRows(int key) {
+        int k = findKey(key);
+        return (k < 0) ? 0 : rowsAt[k].cardinality();
+    }
+
+
+    /**
+    *   Return the number of distinct keys in this index
+    *
+    *   @return Number of keys
+    */
+    public int getCardinality() {
+        return keyCount;
+    }
+
+
+    /**
+    *   Return the type of the indexed column
+    *
+    *   @return Data type, as defined in VarData
+    */
+    public int getDataType() {
+        return dataType;
+    }
+
+
+    private int findKey(int key) {
+        for (int k=0; k < keyCount; k++) {
+            if (keys[k] == key) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+
+    private int addKey(int key) {
+        if (keyCount == keys.length) {
+            int[] kTemp = new int[keys.length * 2];
+            CompressedBitSet[] rTemp = new CompressedBitSet[keys.length * 2];
+            System.arraycopy(keys, 0, kTemp, 0, keyCount);
+            System.arraycopy(rowsAt, 0, rTemp, 0, keyCount);
+            keys = kTemp;
+            rowsAt = rTemp;
+        }
+        keys[keyCount] = key;
+        rowsAt[keyCount] = new CompressedBitSet(rowCount);
+        keyCount++;
+        return keyCount - 1;
+    }
+}
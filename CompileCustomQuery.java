@@ -1,27 +1,66 @@
 import java.net.URI;
+import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
-import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
 import javax.tools.JavaCompiler;
 import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
 import javax.tools.ToolProvider;
 import javax.tools.Diagnostic;
 import javax.tools.DiagnosticCollector;
 
 /**
 *   A class to dynamically compile a custom query object, load it, and execute the query method.
-*   Requires Java 1.6 or higher (full JDK, not just JRE).
+*   Queries built by CustomQueryView are parsed by QueryParser and run directly, without a compiler.
+*   Other queries are compiled with javac in memory, and compiled classes are cached by query, so
+*   re-applying a query does not recompile it.
+*   Compiling with javac requires Java 1.6 or higher (full JDK, not just JRE).
 *   @author Jamie K. Teer
 */
 public class CompileCustomQuery {
     final static String className = "VSQueryModule";
-    final String fullClassName = System.getProperty("user.home") 
-                               + System.getProperty("file.separator")
-                               + className
-                               + ".class";
+    final static int MAX_CACHED = 32;   //Number of compiled queries to keep
+    final static int PARTITION_ROWS = 4 * CompressedBitSet.CHUNK_SIZE; //Rows per task when running on several threads
+    final static int THREADS = Runtime.getRuntime().availableProcessors();
+
+    //sampData[row][sample][field] in a query; sample data is a SampleStore, not a 3d array
+    private final static Pattern SAMP_DATA_PAT = Pattern.compile(
+        "sampData\\s*\\[([^\\[\\]]+)\\]\\s*\\[([^\\[\\]]+)\\]\\s*\\[([^\\[\\]]+)\\]");
+    //allData[row][col] in a query; annotation data is an AnnotationStore, not a 2d array
+    private final static Pattern ALL_DATA_PAT = Pattern.compile(
+        "allData\\s*\\[([^\\[\\]]+)\\]\\s*\\[([^\\[\\]]+)\\]");
+
+    private static ExecutorService pool = null;
+
+    //Compiled query classes, keyed by normalised query string; least recently used dropped first
+    private static Map<String, Class<?>> moduleCache = new LinkedHashMap<String, Class<?>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Class<?>> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private Class<?> moduleClass = null;
+    private QueryNode parsedQuery = null;
 
     public CompileCustomQuery() {
     }
@@ -33,6 +72,28 @@ public class CompileCustomQuery {
     *   @return True if the compilation succeeds, false otherwise.
     */
     public boolean compileCustom(String customQuery) {
+        if (customQuery.equals("")) {
+            VarSifter.showError("No custom query string; did you click \"Apply\" in the Custom Query window?");
+            return false;
+        }
+
+        try {
+            parsedQuery = QueryParser.parse(customQuery);
+            return true;
+        }
+        catch (ParseException pe) {
+            System.out.println("Custom query not handled by the built-in query engine (" + pe.getMessage()
+                + "); compiling with javac");
+        }
+
+        String cacheKey = normaliseQuery(customQuery);
+        synchronized (moduleCache) {
+            moduleClass = moduleCache.get(cacheKey);
+        }
+        if (moduleClass != null) {
+            return true;
+        }
+
         DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
         JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
         if (compiler == null) {
@@ -40,12 +101,6 @@ public class CompileCustomQuery {
                 + "Developement Kit (JDK).  Please ensure you have installed the JDK, not just the JRE.");
             return false;
         }
-            
-
-        if (customQuery.equals("")) {
-            VarSifter.showError("No custom query string; did you click \"Apply\" in the Custom Query window?");
-            return false;
-        }
 
 
         StringBuilder out = new StringBuilder(64);
@@ -53,71 +108,58 @@ public class CompileCustomQuery {
 
         //QueryModule code - wish Java had heredocs!!
         out.append( "import java.util.BitSet;\n" );
-        out.append( "import java.util.regex.Pattern;\n" );
         out.append( "public class " ).append(className).append( " implements AbstractQueryModule {\n" );
-        out.append( "  private static final Pattern hetPat = Pattern.compile(" );
-        out.append(      "\"^([acgtACGT])(?!\\\\1)[acgtACGT]$|^([acgtnACGTN\'*]+):(?!\\\\2$)[acgtnACGTN\'*]+$\");\n ");
-        out.append( "  private static final Pattern homPat = Pattern.compile(" );
-        out.append(      "\"^([acgtnACGTN])\\\\1$|^([acgtnACGTN\'*]+):\\\\2$\");\n ");
-        out.append( "  private int[][] allData;\n" );
-        out.append( "  private int[][][] sampData;\n" );
+        out.append( "  private AnnotationStore allData;\n" );
+        out.append( "  private SampleStore sampData;\n" );
         out.append( "  private AbstractMapper[] sampleMapper;\n" );
         out.append( "  private AbstractMapper[] annotMapper;\n" );
         out.append( "  private int mutTypeIndex;\n" );
-        out.append( "  private int refIndex;\n" );
-        out.append( "  private int nonRefIndex;\n" );
+        out.append( "  private int[][] genotypeCodes;\n" );
         out.append( "  private int indel;\n" );
         out.append( "  private int NA_Allele;\n" );
-        out.append( "  private BitSet[] bitSets;\n" );
+        out.append( "  private CompressedBitSet[] bitSets;\n" );
         out.append( "  private BitSet hetBS;\n" );
         out.append( "  private BitSet homBS;\n" );
-        out.append( "  private int muttype; //Re-assigned for each data row\n" );
         out.append( "                                                           \n" );
         out.append( "  public ").append(className).append( "(VarData vdat) {\n" );
-        out.append( "    allData = vdat.returnData();\n" );
-        out.append( "    sampData = vdat.returnSamples();\n" );
+        out.append( "    allData = vdat.returnAnnotationStore();\n" );
+        out.append( "    sampData = vdat.returnSampleStore();\n" );
         out.append( "    bitSets = vdat.getCustomBitSet();\n" );
         out.append( "    annotMapper = vdat.returnAnnotMap();\n" );
         out.append( "    sampleMapper = vdat.returnSampleMap();\n" );
-        out.append( "    hetBS = sampleMapper[0].filterWithPattern(hetPat);\n" );
-        out.append( "    homBS = sampleMapper[0].filterWithPattern(homPat);\n" );
+        out.append( "    hetBS = sampleMapper[0].filterWithPattern(QueryContext.HET_PAT);\n" );
+        out.append( "    homBS = sampleMapper[0].filterWithPattern(QueryContext.HOM_PAT);\n" );
         //out.append( "    System.out.println(\"Hom: \" + homBS.size() + \" \" + homBS.cardinality());\n" ); //TESTING
         //out.append( "    System.out.println(\"Het: \" + hetBS.size() + \" \" + hetBS.cardinality());\n" ); //TESTING
         out.append( "    mutTypeIndex = vdat.returnDataTypeAt().get(\"muttype\");\n" );
-        out.append( "    refIndex = vdat.returnDataTypeAt().get(\"ref_allele\");\n" );
-        out.append( "    nonRefIndex = vdat.returnDataTypeAt().get(\"var_allele\");\n" );
+        out.append( "    genotypeCodes = vdat.returnGenotypeCodes();\n" );
         out.append( "    indel = annotMapper[mutTypeIndex].getIndexOf(\"INDEL\");\n" );
         out.append( "    NA_Allele = sampleMapper[0].getIndexOf(\"NA\");\n" );
         out.append( "  }\n" );
-        out.append( "  public BitSet executeCustomQuery() {\n" );
-        out.append( "    BitSet bs = new BitSet(allData.length);\n" );
-        out.append( "    for (int i=0;i<allData.length;i++) {\n");
-        out.append( "      muttype = allData[i][mutTypeIndex];\n" );
-        out.append( "      String homRefAllele = annotMapper[refIndex].getString(allData[i][refIndex]);\n");
-        out.append( "      String homNonRefAllele = annotMapper[nonRefIndex].getString(allData[i][nonRefIndex]);\n");
-        out.append( "      int homRefGen;\n");
-        out.append( "      int homNonRefGen;\n");
-        out.append( "      int hemiRefGen = sampleMapper[0].getIndexOf(homRefAllele);\n");
-        out.append( "      int hemiVarGen = sampleMapper[0].getIndexOf(homNonRefAllele);\n");
-        out.append( "      if (muttype == indel || homRefAllele.length() > 1) {\n");
-        out.append( "        homRefGen = sampleMapper[0].getIndexOf(homRefAllele + \":\" + homRefAllele);\n");
-        out.append( "        homNonRefGen = sampleMapper[0].getIndexOf(homNonRefAllele + \":\" + homNonRefAllele);\n");
-        out.append( "      }\n");
-        out.append( "      else {\n");
-        out.append( "        homRefGen = sampleMapper[0].getIndexOf(homRefAllele + homRefAllele);\n");
-        out.append( "        homNonRefGen = sampleMapper[0].getIndexOf(homNonRefAllele + homNonRefAllele);\n");
-        out.append( "      }\n");
+        out.append( "  public void executeCustomQuery(int start, int end, CompressedBitSet bs) {\n" );
+        out.append( "    new RowScan().scan(start, end, bs);\n" );
+        out.append( "  }\n" );
+        //Per-row state lives in a RowScan, one per call, so ranges can be run on several threads at once
+        out.append( "  private class RowScan {\n" );
+        out.append( "   private int muttype; //Re-assigned for each data row\n" );
+        out.append( "   void scan(int start, int end, CompressedBitSet bs) {\n" );
+        out.append( "    for (int i=start;i<end;i++) {\n");
+        out.append( "      muttype = allData.get(i, mutTypeIndex);\n" );
+        out.append( "      int homRefGen = genotypeCodes[0][i];\n");
+        out.append( "      int homNonRefGen = genotypeCodes[1][i];\n");
+        out.append( "      int hemiRefGen = genotypeCodes[2][i];\n");
+        out.append( "      int hemiVarGen = genotypeCodes[3][i];\n");
 
         out.append( "      if " );
-        out.append(            customQuery );
+        String query = SAMP_DATA_PAT.matcher(customQuery).replaceAll("sampData.get($1, $2, $3)");
+        out.append(            ALL_DATA_PAT.matcher(query).replaceAll("allData.get($1, $2)") );
         out.append(                      " {\n" );
         
         out.append( "        bs.set(i);\n" );
         out.append( "      }\n" );
         out.append( "    }\n" );
-        out.append( "    return bs;\n" );
-        out.append( "  }\n" );
-        out.append( "  private boolean isHet(int genoIndex) {\n" );
+        out.append( "   }\n" );
+        out.append( "   private boolean isHet(int genoIndex) {\n" );
         out.append( "    if (hetBS.get(genoIndex)) {\n" );
         out.append( "      if (muttype == indel && !sampleMapper[0].getString(genoIndex).contains(\":\")) {\n" );
         out.append( "        return false;\n") ;
@@ -125,8 +167,8 @@ public class CompileCustomQuery {
         out.append( "      else { return true; }\n");
         out.append( "    }\n" );
         out.append( "    else { return false; }\n" );
-        out.append( "  }\n" );
-        out.append( "  private boolean isHom(int genoIndex) {\n" );
+        out.append( "   }\n" );
+        out.append( "   private boolean isHom(int genoIndex) {\n" );
         out.append( "    if (homBS.get(genoIndex)) {\n" );
         out.append( "      if (muttype == indel && !sampleMapper[0].getString(genoIndex).contains(\":\")) {\n" );
         out.append( "        return false;\n") ;
@@ -134,6 +176,7 @@ public class CompileCustomQuery {
         out.append( "      else { return true; }\n");
         out.append( "    }\n" );
         out.append( "    else { return false; }\n" );
+        out.append( "   }\n" );
         out.append( "  }\n" );
         out.append( "}\n" );
 
@@ -142,23 +185,16 @@ public class CompileCustomQuery {
         //System.out.println(out.toString());  //DEBUG TESTING
 
         boolean success = false;
+        InMemoryFileManager fm = new InMemoryFileManager(compiler.getStandardFileManager(diagnostics, null, null));
         try {
-            File fTest = new File(fullClassName);
-            if (fTest.exists()) {
-                VarSifter.showError("<html>File " + fullClassName + " already exists!<p>Will NOT overwrite, "
-                    + "so cannot apply filter.<p>You will have to manually remove the file!</html>");
-            }
-            else {
-                final Iterable<String> opts = Arrays.asList("-d", System.getProperty("user.home"));
-                CompilationTask task = compiler.getTask(null,null,diagnostics,opts,null,Arrays.asList(file));
-                success = task.call();
-            }
+            CompilationTask task = compiler.getTask(null,fm,diagnostics,null,null,Arrays.asList(file));
+            success = task.call();
         }
         catch (NullPointerException npe) {
             System.out.println(npe.toString());
         }
 
-        for (Diagnostic diagnostic : diagnostics.getDiagnostics()) {
+        for (Diagnostic<?> diagnostic : diagnostics.getDiagnostics()) {
           System.out.println(diagnostic.getCode());
           System.out.println(diagnostic.getKind());
           System.out.println(diagnostic.getPosition());
@@ -171,6 +207,18 @@ public class CompileCustomQuery {
         //System.out.println(System.getProperty("java.class.path")); //TESTING
 
         if (success) {
+            CustomClassLoader ccl = new CustomClassLoader(getClass().getClassLoader(), fm.getClassBytes());
+            try {
+                moduleClass = ccl.loadClass(className);
+                synchronized (moduleCache) {
+                    moduleCache.put(cacheKey, moduleClass);
+                }
+            }
+            catch (ClassNotFoundException cnfe) {
+                VarSifter.showError("Error loading compiled custom query: check console output for details.");
+                System.out.println(cnfe.toString());
+                success = false;
+            }
             return success;
         }
         else {
@@ -181,37 +229,106 @@ public class CompileCustomQuery {
 
     
     /**
-    *   Uses Reflection via CustomClassLoader to reload VSQueryModule, and execute the query.
+    *   Execute the query parsed by compileCustom(), or use Reflection to instantiate the VSQueryModule
+    *   compiled (or found in the cache) by compileCustom(), and execute the query.
     *   @param vdat VarData object containing desired data
-    *   @return BitSet where bits corresponding to rows passing filter are set.
+    *   @return CompressedBitSet where bits corresponding to rows passing filter are set.
     */
-    public BitSet run(VarData vdat) {
+    public CompressedBitSet run(VarData vdat) {
         try {
-
-            ClassLoader parentCL = getClass().getClassLoader();
-            CustomClassLoader ccl = new CustomClassLoader(parentCL, fullClassName);
-            Class myObjectClass = ccl.loadClass(className);
-
-            @SuppressWarnings("unchecked")
-            AbstractQueryModule aqm = 
-                (AbstractQueryModule) myObjectClass.getConstructor(new Class[]{VarData.class}).newInstance(new Object[]{vdat});
-            BitSet out = aqm.executeCustomQuery();
-            File cf = new File(fullClassName);
-            if (!cf.delete()) {
-                VarSifter.showError("Couldn't delete " + fullClassName + ". You may want to delete it.");
+            AbstractQueryModule aqm;
+            if (parsedQuery != null) {
+                aqm = new ParsedQueryModule(parsedQuery, vdat);
             }
+            else {
+                aqm = (AbstractQueryModule) moduleClass.getConstructor(new Class<?>[]{VarData.class}).newInstance(new Object[]{vdat});
+            }
+            CompressedBitSet out = runPartitioned(aqm, vdat.returnAnnotationStore().size());
+            out.runOptimize();
             return out;
         }
         catch (Exception e) {
             VarSifter.showError("Error running custom query: check console output for details.");
             System.out.println("Error: " + e.toString());
-            System.out.println("Cause: " + e.getCause().toString());
+            if (e.getCause() != null) {
+                System.out.println("Cause: " + e.getCause().toString());
+            }
             for (StackTraceElement st:e.getStackTrace()) {
                 System.out.println(st.toString());
             }
             return null;
         }
     }
+
+
+    /**
+    *   Execute a query module over all rows.  Large data sets are split into ranges of whole
+    *   CompressedBitSet chunks, which are run on a shared thread pool; the ranges' results cover
+    *   separate chunks, so they are stitched together cheaply.
+    *   @param aqm The query module
+    *   @param rows Number of rows in VarData.data
+    *   @return CompressedBitSet where bits corresponding to rows passing filter are set.
+    */
+    static CompressedBitSet runPartitioned(final AbstractQueryModule aqm, int rows) throws Exception {
+        CompressedBitSet out = new CompressedBitSet(rows);
+        if (rows <= PARTITION_ROWS || THREADS == 1) {
+            aqm.executeCustomQuery(0, rows, out);
+            return out;
+        }
+
+        List<Future<CompressedBitSet>> parts = new ArrayList<Future<CompressedBitSet>>();
+        for (int start = 0; start < rows; start += PARTITION_ROWS) {
+            final int s = start;
+            final int e = Math.min(start + PARTITION_ROWS, rows);
+            parts.add(getPool().submit(new Callable<CompressedBitSet>() {
+                public CompressedBitSet call() {
+                    CompressedBitSet part = new CompressedBitSet(e - s);
+                    aqm.executeCustomQuery(s, e, part);
+                    return part;
+                }
+            }));
+        }
+        try {
+            for (Future<CompressedBitSet> part : parts) {
+                out.or(part.get());
+            }
+        }
+        catch (ExecutionException ee) {
+            for (Future<CompressedBitSet> part : parts) {
+                part.cancel(true);
+            }
+            throw (ee.getCause() instanceof Exception) ? (Exception)ee.getCause() : ee;
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return the thread pool for running queries, creating it on first use.  Threads are daemons,
+    *   so an idle pool does not keep the program running.
+    */
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "VarSifter-query");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+
+    /**
+    *   Normalise a query for use as a cache key: queries differing only in whitespace are the same query
+    *   @param customQuery The query string
+    *   @return The query with whitespace runs collapsed
+    */
+    static String normaliseQuery(String customQuery) {
+        return customQuery.trim().replaceAll("\\s+", " ");
+    }
 }
 
 /**
@@ -230,3 +347,51 @@ class JavaSourceFromString extends SimpleJavaFileObject {
         return code;
     }
 }
+
+
+/**
+*   A class to hold compiled bytecode in memory.
+*/
+class JavaClassInMemory extends SimpleJavaFileObject {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    JavaClassInMemory(String name) {
+        super(URI.create("bytes:///" + name.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+    }
+
+    @Override
+    public OutputStream openOutputStream() {
+        return bytes;
+    }
+}
+
+
+/**
+*   A file manager that keeps compiler output in memory instead of writing class files.
+*/
+class InMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    private Map<String, JavaClassInMemory> classes = new HashMap<String, JavaClassInMemory>();
+
+    InMemoryFileManager(StandardJavaFileManager fm) {
+        super(fm);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className,
+                                               JavaFileObject.Kind kind, FileObject sibling) {
+        JavaClassInMemory out = new JavaClassInMemory(className);
+        classes.put(className, out);
+        return out;
+    }
+
+    /**
+    *   Return the bytecode of each compiled class (including any inner classes), by class name
+    */
+    Map<String, byte[]> getClassBytes() {
+        Map<String, byte[]> out = new HashMap<String, byte[]>();
+        for (Map.Entry<String, JavaClassInMemory> e : classes.entrySet()) {
+            out.put(e.getKey(), e.getValue().bytes.toByteArray());
+        }
+        return out;
+    }
+}
@@ -0,0 +1,1009 @@
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+*   A compressed bitmap for row selections, organized like a Roaring bitmap.
+*   Indices are split into chunks of 65536 (keyed by the upper 16 bits); each chunk is stored as a
+*   sorted array (sparse), a plain bitmap (dense) or a list of runs (long stretches of set bits),
+*   whichever is smallest.  Supports the subset of java.util.BitSet methods used by VarSifter.
+*/
+public class CompressedBitSet implements Cloneable, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    final static int CHUNK_BITS = 16;
+    final static int CHUNK_SIZE = 1 << CHUNK_BITS;
+    final static int CHUNK_MASK = CHUNK_SIZE - 1;
+    final static int ARRAY_MAX = 4096;      // Above this many entries, a bitmap chunk is smaller than an array
+
+    private int[] keys;                     // Upper 16 bits of the indices in each chunk, sorted
+    private Container[] containers;         // The chunks, in key order
+    private int size = 0;                   // Number of chunks in use
+
+    /**
+    *   Create an empty set
+    */
+    public CompressedBitSet() {
+        keys = new int[4];
+        containers = new Container[4];
+    }
+
+
+    /**
+    *   Create an empty set.  The size hint is accepted for compatibility with java.util.BitSet.
+    *
+    *   @param nbits Expected largest index (ignored)
+    */
+    public CompressedBitSet(int nbits) {
+        this();
+    }
+
+
+    /**
+    *   Create a CompressedBitSet with the same bits set as a BitSet
+    *
+    *   @param bs The BitSet to copy
+    *   @return A new CompressedBitSet
+    */
+    public static CompressedBitSet valueOf(BitSet bs) {
+        CompressedBitSet out = new CompressedBitSet();
+        for (int i = bs.nextSetBit(0); i >= 0; i = bs.nextSetBit(i+1)) {
+            out.set(i);
+        }
+        out.runOptimize();
+        return out;
+    }
+
+
+    /**
+    *   Create a CompressedBitSet from words of bits, as in java.util.BitSet.valueOf(long[])
+    *
+    *   @param words The bits: index n is bit (n % 64) of words[n / 64]
+    *   @return A new CompressedBitSet
+    */
+    public static CompressedBitSet valueOf(long[] words) {
+        CompressedBitSet out = new CompressedBitSet();
+        final int chunkWords = CHUNK_SIZE / 64;
+        for (int w=0; w < words.length; w += chunkWords) {
+            BitmapContainer bm = new BitmapContainer();
+            System.arraycopy(words, w, bm.words, 0, Math.min(chunkWords, words.length - w));
+            Container c = bm.normalize();
+            if (c.card > 0) {
+                out.insertChunk(out.size, w / chunkWords, c);
+            }
+        }
+        out.runOptimize();
+        return out;
+    }
+
+
+    /**
+    *   Return a BitSet with the same bits set
+    *
+    *   @return A new BitSet
+    */
+    public BitSet toBitSet() {
+        BitSet out = new BitSet(length());
+        for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i+1)) {
+            out.set(i);
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return the bit at an index
+    *
+    *   @param index The bit index
+    *   @return True if the bit is set
+    */
+    public boolean get(int index) {
+        int c = findChunk(index >>> CHUNK_BITS);
+        return (c >= 0 && containers[c].contains(index & CHUNK_MASK));
+    }
+
+
+    /**
+    *   Set the bit at an index
+    *
+    *   @param index The bit index
+    */
+    public void set(int index) {
+        int key = index >>> CHUNK_BITS;
+        int c;
+        if (size > 0 && keys[size-1] == key) {  //Fast path: rows are usually set in increasing order
+            c = size - 1;
+        }
+        else {
+            c = findChunk(key);
+            if (c < 0) {
+                c = insertChunk(-c - 1, key, new ArrayContainer());
+            }
+        }
+        containers[c] = containers[c].add(index & CHUNK_MASK);
+    }
+
+
+    /**
+    *   Set a bit to the given value
+    *
+    *   @param index The bit index
+    *   @param value The value to set
+    */
+    public void set(int index, boolean value) {
+        if (value) {
+            set(index);
+        }
+        else {
+            clear(index);
+        }
+    }
+
+
+    /**
+    *   Set all bits from fromIndex (inclusive) to toIndex (exclusive)
+    *
+    *   @param fromIndex First index to set
+    *   @param toIndex One past the last index to set
+    */
+    public void set(int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex) {
+            return;
+        }
+        CompressedBitSet range = range(fromIndex, toIndex);
+        or(range);
+    }
+
+
+    /**
+    *   Clear the bit at an index
+    *
+    *   @param index The bit index
+    */
+    public void clear(int index) {
+        int c = findChunk(index >>> CHUNK_BITS);
+        if (c >= 0) {
+            containers[c] = containers[c].remove(index & CHUNK_MASK);
+            if (containers[c].card == 0) {
+                removeChunk(c);
+            }
+        }
+    }
+
+
+    /**
+    *   Clear all bits
+    */
+    public void clear() {
+        Arrays.fill(containers, 0, size, null);
+        size = 0;
+    }
+
+
+    /**
+    *   Flip all bits from fromIndex (inclusive) to toIndex (exclusive)
+    *
+    *   @param fromIndex First index to flip
+    *   @param toIndex One past the last index to flip
+    */
+    public void flip(int fromIndex, int toIndex) {
+        if (fromIndex < toIndex) {
+            xor(range(fromIndex, toIndex));
+        }
+    }
+
+
+    /**
+    *   Return the number of set bits
+    *
+    *   @return The number of bits set to true
+    */
+    public int cardinality() {
+        int card = 0;
+        for (int c=0; c < size; c++) {
+            card += containers[c].card;
+        }
+        return card;
+    }
+
+
+    /**
+    *   Returns true if no bits are set
+    *
+    *   @return True if empty
+    */
+    public boolean isEmpty() {
+        return (size == 0);
+    }
+
+
+    /**
+    *   Return the index of the highest set bit plus one
+    *
+    *   @return The logical length of this set
+    */
+    public int length() {
+        if (size == 0) {
+            return 0;
+        }
+        return (keys[size-1] << CHUNK_BITS) + containers[size-1].last() + 1;
+    }
+
+
+    /**
+    *   Return the index of the first set bit at or after fromIndex
+    *
+    *   @param fromIndex The index to start searching from
+    *   @return Index of the next set bit, or -1 if there is none
+    */
+    public int nextSetBit(int fromIndex) {
+        int key = fromIndex >>> CHUNK_BITS;
+        int c = findChunk(key);
+        if (c >= 0) {
+            int n = containers[c].nextSetBit(fromIndex & CHUNK_MASK);
+            if (n >= 0) {
+                return (key << CHUNK_BITS) + n;
+            }
+            c++;
+        }
+        else {
+            c = -c - 1;
+        }
+        if (c < size) {
+            return (keys[c] << CHUNK_BITS) + containers[c].nextSetBit(0);
+        }
+        return -1;
+    }
+
+
+    /**
+    *   Return the set bits as an array of indices, in increasing order
+    *
+    *   @return Array of set indices
+    */
+    public int[] toArray() {
+        int[] out = new int[cardinality()];
+        int j = 0;
+        for (int c=0; c < size; c++) {
+            int base = keys[c] << CHUNK_BITS;
+            for (int n = containers[c].nextSetBit(0); n >= 0; n = containers[c].nextSetBit(n+1)) {
+                out[j++] = base + n;
+            }
+        }
+        return out;
+    }
+
+
+    /**
+    *   Intersect with another set (this = this AND other)
+    *
+    *   @param other The other set
+    */
+    public void and(CompressedBitSet other) {
+        int c = 0;
+        int newSize = 0;
+        int o = 0;
+        while (c < size && o < other.size) {
+            if (keys[c] < other.keys[o]) {
+                c++;
+            }
+            else if (keys[c] > other.keys[o]) {
+                o++;
+            }
+            else {
+                Container r = containers[c].and(other.containers[o]);
+                if (r.card > 0) {
+                    keys[newSize] = keys[c];
+                    containers[newSize] = r;
+                    newSize++;
+                }
+                c++;
+                o++;
+            }
+        }
+        Arrays.fill(containers, newSize, size, null);
+        size = newSize;
+    }
+
+
+    /**
+    *   Union with another set (this = this OR other)
+    *
+    *   @param other The other set
+    */
+    public void or(CompressedBitSet other) {
+        merge(other, OR);
+    }
+
+
+    /**
+    *   Symmetric difference with another set (this = this XOR other)
+    *
+    *   @param other The other set
+    */
+    public void xor(CompressedBitSet other) {
+        merge(other, XOR);
+    }
+
+
+    /**
+    *   Remove bits set in another set (this = this AND NOT other)
+    *
+    *   @param other The other set
+    */
+    public void andNot(CompressedBitSet other) {
+        int o = 0;
+        int newSize = 0;
+        for (int c=0; c < size; c++) {
+            while (o < other.size && other.keys[o] < keys[c]) {
+                o++;
+            }
+            Container r = containers[c];
+            if (o < other.size && other.keys[o] == keys[c]) {
+                r = r.andNot(other.containers[o]);
+            }
+            if (r.card > 0) {
+                keys[newSize] = keys[c];
+                containers[newSize] = r;
+                newSize++;
+            }
+        }
+        Arrays.fill(containers, newSize, size, null);
+        size = newSize;
+    }
+
+
+    /**
+    *   Convert chunks to run-length form where that is smaller.
+    *   Worth calling once a large selection has been built.
+    */
+    public void runOptimize() {
+        for (int c=0; c < size; c++) {
+            containers[c] = containers[c].runOptimize();
+        }
+    }
+
+
+    @Override
+    public Object clone() {
+        CompressedBitSet out = new CompressedBitSet();
+        out.keys = new int[Math.max(size, 1)];
+        out.containers = new Container[Math.max(size, 1)];
+        System.arraycopy(keys, 0, out.keys, 0, size);
+        for (int c=0; c < size; c++) {
+            out.containers[c] = containers[c].copy();
+        }
+        out.size = size;
+        return out;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CompressedBitSet)) {
+            return false;
+        }
+        CompressedBitSet other = (CompressedBitSet)obj;
+        if (size != other.size) {
+            return false;
+        }
+        for (int c=0; c < size; c++) {
+            if (keys[c] != other.keys[c] || containers[c].card != other.containers[c].card) {
+                return false;
+            }
+            Container x = containers[c];
+            Container y = other.containers[c];
+            for (int n = x.nextSetBit(0); n >= 0; n = x.nextSetBit(n+1)) {
+                if (!y.contains(n)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i+1)) {
+            h = 31 * h + i;
+        }
+        return h;
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("{");
+        for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i+1)) {
+            if (out.length() > 1) {
+                out.append(", ");
+            }
+            out.append(i);
+        }
+        return out.append("}").toString();
+    }
+
+
+    /* ********
+    *   Chunk bookkeeping
+    *  ********
+    */
+
+    private final static int OR = 0;
+    private final static int XOR = 1;
+
+    /**
+    *   Return a set with bits fromIndex (inclusive) to toIndex (exclusive) set, one run per chunk
+    */
+    private static CompressedBitSet range(int fromIndex, int toIndex) {
+        CompressedBitSet out = new CompressedBitSet();
+        int last = toIndex - 1;
+        for (int key = fromIndex >>> CHUNK_BITS; key <= (last >>> CHUNK_BITS); key++) {
+            int start = (key == (fromIndex >>> CHUNK_BITS)) ? (fromIndex & CHUNK_MASK) : 0;
+            int end = (key == (last >>> CHUNK_BITS)) ? (last & CHUNK_MASK) : CHUNK_MASK;
+            out.insertChunk(out.size, key, new RunContainer(start, end));
+        }
+        return out;
+    }
+
+
+    private void merge(CompressedBitSet other, int op) {
+        int total = size + other.size;
+        int[] newKeys = new int[Math.max(total, 1)];
+        Container[] newContainers = new Container[Math.max(total, 1)];
+        int c = 0;
+        int o = 0;
+        int n = 0;
+        while (c < size || o < other.size) {
+            if (o >= other.size || (c < size && keys[c] < other.keys[o])) {
+                newKeys[n] = keys[c];
+                newContainers[n++] = containers[c++];
+            }
+            else if (c >= size || keys[c] > other.keys[o]) {
+                newKeys[n] = other.keys[o];
+                newContainers[n++] = other.containers[o++].copy();
+            }
+            else {
+                Container r = (op == OR) ? containers[c].or(other.containers[o])
+                                         : containers[c].xor(other.containers[o]);
+                if (r.card > 0) {
+                    newKeys[n] = keys[c];
+                    newContainers[n++] = r;
+                }
+                c++;
+                o++;
+            }
+        }
+        keys = newKeys;
+        containers = newContainers;
+        size = n;
+    }
+
+
+    private int findChunk(int key) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            }
+            else if (keys[mid] > key) {
+                hi = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+
+    private int insertChunk(int pos, int key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+        System.arraycopy(containers, pos, containers, pos + 1, size - pos);
+        keys[pos] = key;
+        containers[pos] = container;
+        size++;
+        return pos;
+    }
+
+
+    private void removeChunk(int pos) {
+        System.arraycopy(keys, pos + 1, keys, pos, size - pos - 1);
+        System.arraycopy(containers, pos + 1, containers, pos, size - pos - 1);
+        size--;
+        containers[size] = null;
+    }
+
+
+    /* ********
+    *   Chunk containers.  Values are the low 16 bits of an index (0 - 65535).
+    *   Operations return the resulting container, which may be of a different kind.
+    *  ********
+    */
+
+    private abstract static class Container implements Serializable {
+        private static final long serialVersionUID = 1L;
+        int card = 0;
+
+        abstract boolean contains(int x);
+        abstract Container add(int x);
+        abstract Container remove(int x);
+        abstract int nextSetBit(int from);
+        abstract int last();
+        abstract BitmapContainer toBitmap();
+        abstract Container copy();
+        abstract int sizeInBytes();
+
+        Container and(Container other) {
+            if (this instanceof ArrayContainer) {
+                return ((ArrayContainer)this).filter(other, true);
+            }
+            if (other instanceof ArrayContainer) {
+                return ((ArrayContainer)other).filter(this, true);
+            }
+            if (isFull()) {
+                return other.copy();
+            }
+            if (other.isFull()) {
+                return copy();
+            }
+            BitmapContainer out = toBitmap();
+            long[] w = (other instanceof BitmapContainer) ? ((BitmapContainer)other).words : other.toBitmap().words;
+            for (int i=0; i < out.words.length; i++) {
+                out.words[i] &= w[i];
+            }
+            return out.normalize();
+        }
+
+        Container or(Container other) {
+            if (isFull() || other.isFull()) {
+                return new RunContainer(0, CHUNK_MASK);
+            }
+            if (this instanceof ArrayContainer && other instanceof ArrayContainer
+                    && card + other.card <= ARRAY_MAX) {
+                return ((ArrayContainer)this).mergeOr((ArrayContainer)other);
+            }
+            BitmapContainer out = toBitmap();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer)other;
+                for (int i=0; i < a.card; i++) {
+                    out.words[a.vals[i] >>> 6] |= (1L << a.vals[i]);
+                }
+            }
+            else {
+                long[] w = (other instanceof BitmapContainer) ? ((BitmapContainer)other).words : other.toBitmap().words;
+                for (int i=0; i < out.words.length; i++) {
+                    out.words[i] |= w[i];
+                }
+            }
+            return out.normalize();
+        }
+
+        Container xor(Container other) {
+            BitmapContainer out = toBitmap();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer)other;
+                for (int i=0; i < a.card; i++) {
+                    out.words[a.vals[i] >>> 6] ^= (1L << a.vals[i]);
+                }
+            }
+            else {
+                long[] w = (other instanceof BitmapContainer) ? ((BitmapContainer)other).words : other.toBitmap().words;
+                for (int i=0; i < out.words.length; i++) {
+                    out.words[i] ^= w[i];
+                }
+            }
+            return out.normalize();
+        }
+
+        Container andNot(Container other) {
+            if (this instanceof ArrayContainer) {
+                return ((ArrayContainer)this).filter(other, false);
+            }
+            if (other.isFull()) {
+                return new ArrayContainer();
+            }
+            BitmapContainer out = toBitmap();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer)other;
+                for (int i=0; i < a.card; i++) {
+                    out.words[a.vals[i] >>> 6] &= ~(1L << a.vals[i]);
+                }
+            }
+            else {
+                long[] w = (other instanceof BitmapContainer) ? ((BitmapContainer)other).words : other.toBitmap().words;
+                for (int i=0; i < out.words.length; i++) {
+                    out.words[i] &= ~w[i];
+                }
+            }
+            return out.normalize();
+        }
+
+        boolean isFull() {
+            return (card == CHUNK_SIZE);
+        }
+
+        /**
+        *   Return the run-length form of this container if it is smaller
+        */
+        Container runOptimize() {
+            int runs = 0;
+            int prev = -2;
+            for (int n = nextSetBit(0); n >= 0; n = nextSetBit(n+1)) {
+                if (n != prev + 1) {
+                    runs++;
+                }
+                prev = n;
+            }
+            if (runs * 4 + 4 >= sizeInBytes()) {
+                return this;
+            }
+            RunContainer out = new RunContainer();
+            for (int n = nextSetBit(0); n >= 0; n = nextSetBit(n+1)) {
+                out.append(n);
+            }
+            return out;
+        }
+    }
+
+
+    /**
+    *   Sparse chunk: sorted array of values
+    */
+    private static class ArrayContainer extends Container {
+        private static final long serialVersionUID = 1L;
+        char[] vals;
+
+        ArrayContainer() {
+            vals = new char[4];
+        }
+
+        ArrayContainer(int capacity) {
+            vals = new char[Math.max(capacity, 4)];
+        }
+
+        boolean contains(int x) {
+            return (Arrays.binarySearch(vals, 0, card, (char)x) >= 0);
+        }
+
+        Container add(int x) {
+            int pos;
+            if (card == 0 || vals[card-1] < x) {
+                pos = card;
+            }
+            else {
+                pos = Arrays.binarySearch(vals, 0, card, (char)x);
+                if (pos >= 0) {
+                    return this;
+                }
+                pos = -pos - 1;
+            }
+            if (card == ARRAY_MAX) {
+                return toBitmap().add(x);
+            }
+            if (card == vals.length) {
+                vals = Arrays.copyOf(vals, Math.min(card * 2, ARRAY_MAX));
+            }
+            System.arraycopy(vals, pos, vals, pos + 1, card - pos);
+            vals[pos] = (char)x;
+            card++;
+            return this;
+        }
+
+        Container remove(int x) {
+            int pos = Arrays.binarySearch(vals, 0, card, (char)x);
+            if (pos >= 0) {
+                System.arraycopy(vals, pos + 1, vals, pos, card - pos - 1);
+                card--;
+            }
+            return this;
+        }
+
+        int nextSetBit(int from) {
+            if (from >= CHUNK_SIZE) {
+                return -1;
+            }
+            int pos = Arrays.binarySearch(vals, 0, card, (char)from);
+            if (pos < 0) {
+                pos = -pos - 1;
+            }
+            return (pos < card) ? vals[pos] : -1;
+        }
+
+        int last() {
+            return vals[card-1];
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer out = new BitmapContainer();
+            for (int i=0; i < card; i++) {
+                out.words[vals[i] >>> 6] |= (1L << vals[i]);
+            }
+            out.card = card;
+            return out;
+        }
+
+        Container copy() {
+            ArrayContainer out = new ArrayContainer(card);
+            System.arraycopy(vals, 0, out.vals, 0, card);
+            out.card = card;
+            return out;
+        }
+
+        int sizeInBytes() {
+            return card * 2;
+        }
+
+        /**
+        *   Keep values that are (keep == true) or are not (keep == false) in the other container
+        */
+        ArrayContainer filter(Container other, boolean keep) {
+            ArrayContainer out = new ArrayContainer(card);
+            for (int i=0; i < card; i++) {
+                if (other.contains(vals[i]) == keep) {
+                    out.vals[out.card++] = vals[i];
+                }
+            }
+            return out;
+        }
+
+        ArrayContainer mergeOr(ArrayContainer other) {
+            ArrayContainer out = new ArrayContainer(card + other.card);
+            int i = 0;
+            int j = 0;
+            while (i < card || j < other.card) {
+                char v;
+                if (j >= other.card || (i < card && vals[i] < other.vals[j])) {
+                    v = vals[i++];
+                }
+                else if (i >= card || vals[i] > other.vals[j]) {
+                    v = other.vals[j++];
+                }
+                else {
+                    v = vals[i++];
+                    j++;
+                }
+                out.vals[out.card++] = v;
+            }
+            return out;
+        }
+    }
+
+
+    /**
+    *   Dense chunk: 65536 bits
+    */
+    private static class BitmapContainer extends Container {
+        private static final long serialVersionUID = 1L;
+        long[] words = new long[CHUNK_SIZE / 64];
+
+        boolean contains(int x) {
+            return ((words[x >>> 6] & (1L << x)) != 0);
+        }
+
+        Container add(int x) {
+            long before = words[x >>> 6];
+            words[x >>> 6] |= (1L << x);
+            if (before != words[x >>> 6]) {
+                card++;
+            }
+            return this;
+        }
+
+        Container remove(int x) {
+            long before = words[x >>> 6];
+            words[x >>> 6] &= ~(1L << x);
+            if (before != words[x >>> 6]) {
+                card--;
+                if (card <= ARRAY_MAX) {
+                    return toArray();
+                }
+            }
+            return this;
+        }
+
+        int nextSetBit(int from) {
+            if (from >= CHUNK_SIZE) {
+                return -1;
+            }
+            int w = from >>> 6;
+            long word = words[w] & (-1L << from);
+            while (true) {
+                if (word != 0) {
+                    return (w * 64) + Long.numberOfTrailingZeros(word);
+                }
+                if (++w == words.length) {
+                    return -1;
+                }
+                word = words[w];
+            }
+        }
+
+        int last() {
+            for (int w = words.length - 1; w >= 0; w--) {
+                if (words[w] != 0) {
+                    return (w * 64) + 63 - Long.numberOfLeadingZeros(words[w]);
+                }
+            }
+            return -1;
+        }
+
+        BitmapContainer toBitmap() {
+            return (BitmapContainer)copy();
+        }
+
+        Container copy() {
+            BitmapContainer out = new BitmapContainer();
+            System.arraycopy(words, 0, out.words, 0, words.length);
+            out.card = card;
+            return out;
+        }
+
+        int sizeInBytes() {
+            return words.length * 8;
+        }
+
+        ArrayContainer toArray() {
+            ArrayContainer out = new ArrayContainer(card);
+            for (int n = nextSetBit(0); n >= 0; n = nextSetBit(n+1)) {
+                out.vals[out.card++] = (char)n;
+            }
+            return out;
+        }
+
+        /**
+        *   Recount after word operations, and convert to an array if sparse enough
+        */
+        Container normalize() {
+            int c = 0;
+            for (long w : words) {
+                c += Long.bitCount(w);
+            }
+            card = c;
+            return (card <= ARRAY_MAX) ? toArray() : this;
+        }
+    }
+
+
+    /**
+    *   Run-length chunk: pairs of (start, last) values
+    */
+    private static class RunContainer extends Container {
+        private static final long serialVersionUID = 1L;
+        char[] runs;    // start0, last0, start1, last1, ...
+        int nRuns = 0;
+
+        RunContainer() {
+            runs = new char[4];
+        }
+
+        RunContainer(int start, int last) {
+            runs = new char[] {(char)start, (char)last};
+            nRuns = 1;
+            card = last - start + 1;
+        }
+
+        /**
+        *   Append a value larger than any already present
+        */
+        void append(int x) {
+            if (nRuns > 0 && runs[2*nRuns - 1] == x - 1) {
+                runs[2*nRuns - 1] = (char)x;
+            }
+            else {
+                if (2*nRuns == runs.length) {
+                    runs = Arrays.copyOf(runs, runs.length * 2);
+                }
+                runs[2*nRuns] = (char)x;
+                runs[2*nRuns + 1] = (char)x;
+                nRuns++;
+            }
+            card++;
+        }
+
+        /**
+        *   Return the index of the last run starting at or before x, or -1
+        */
+        private int findRun(int x) {
+            int lo = 0;
+            int hi = nRuns - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (runs[2*mid] <= x) {
+                    lo = mid + 1;
+                }
+                else {
+                    hi = mid - 1;
+                }
+            }
+            return hi;
+        }
+
+        boolean contains(int x) {
+            int r = findRun(x);
+            return (r >= 0 && x <= runs[2*r + 1]);
+        }
+
+        Container add(int x) {
+            if (contains(x)) {
+                return this;
+            }
+            if (nRuns == 0 || x > runs[2*nRuns - 1]) {
+                append(x);
+                return this;
+            }
+            return toBitmap().add(x);
+        }
+
+        Container remove(int x) {
+            if (!contains(x)) {
+                return this;
+            }
+            Container out = toBitmap().remove(x);
+            return out;
+        }
+
+        int nextSetBit(int from) {
+            if (from >= CHUNK_SIZE) {
+                return -1;
+            }
+            int r = findRun(from);
+            if (r >= 0 && from <= runs[2*r + 1]) {
+                return from;
+            }
+            r++;
+            return (r < nRuns) ? runs[2*r] : -1;
+        }
+
+        int last() {
+            return runs[2*nRuns - 1];
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer out = new BitmapContainer();
+            for (int r=0; r < nRuns; r++) {
+                int start = runs[2*r];
+                int last = runs[2*r + 1];
+                int firstWord = start >>> 6;
+                int lastWord = last >>> 6;
+                if (firstWord == lastWord) {
+                    out.words[firstWord] |= (-1L >>> (63 - (last - start))) << start;
+                }
+                else {
+                    out.words[firstWord] |= (-1L << start);
+                    for (int w = firstWord + 1; w < lastWord; w++) {
+                        out.words[w] = -1L;
+                    }
+                    out.words[lastWord] |= (-1L >>> (63 - (last & 63)));
+                }
+            }
+            out.card = card;
+            return out;
+        }
+
+        Container copy() {
+            RunContainer out = new RunContainer();
+            out.runs = Arrays.copyOf(runs, Math.max(2*nRuns, 2));
+            out.nRuns = nRuns;
+            out.card = card;
+            return out;
+        }
+
+        int sizeInBytes() {
+            return nRuns * 4;
+        }
+
+        Container runOptimize() {
+            return this;
+        }
+    }
+}
@@ -3,6 +3,7 @@ import java.io.*;
 import javax.swing.*;
 import javax.swing.event.*;
 import javax.swing.border.*;
+import java.text.ParseException;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -10,20 +11,19 @@ import java.util.Set;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
 import java.awt.event.*;
 import java.util.regex.*;
 
 import java.util.Collection;
 
 import org.apache.commons.collections15.Transformer;
-import org.apache.commons.collections15.functors.ChainedTransformer;
 
 import edu.uci.ics.jung.graph.DirectedGraph;
 import edu.uci.ics.jung.graph.DelegateForest;
 import edu.uci.ics.jung.graph.Forest;
 import edu.uci.ics.jung.algorithms.layout.TreeLayout;
 import edu.uci.ics.jung.visualization.VisualizationViewer;
-import edu.uci.ics.jung.visualization.decorators.ToStringLabeller;
 import edu.uci.ics.jung.visualization.decorators.EdgeShape;
 import edu.uci.ics.jung.visualization.renderers.Renderer.VertexLabel.Position;
 import edu.uci.ics.jung.visualization.renderers.VertexLabelAsShapeRenderer;
@@ -66,14 +66,14 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
 
     private boolean isAnnotQuery = false;
 
-    String[] fixedSamples = { "Homozygous Reference",
-                              "Homozygous Variant",
-                              "Homozygous",
-                              "Heterozygous",
-                              "Hemizygous Reference",
-                              "Hemizygous Variant",
-                              "NA"
-                            };
+    final static String[] fixedSamples = { "Homozygous Reference",
+                                           "Homozygous Variant",
+                                           "Homozygous",
+                                           "Heterozygous",
+                                           "Hemizygous Reference",
+                                           "Hemizygous Variant",
+                                           "NA"
+                                         };
     private JList sampleList;
     private JList fixedSampleList = new JList(fixedSamples);
     private JList annotList;
@@ -116,6 +116,7 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
     private JButton delete = new JButton("Delete Selected");
     private JButton qSave = new JButton("Save Query");
     private JButton qLoad = new JButton("Load Query");
+    private JButton qType = new JButton("Type Query");
     private JButton clear = new JButton("Clear All");
     private JComboBox modeBox;
     
@@ -127,10 +128,17 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
     private StringBuilder vertexLabel;
     private int vertexLabelCount = 1;   //Use this to know where we are in the query assembly process
     private String outGroup;
-    private List<BitSet> bitSetList = new ArrayList<BitSet>();
+    private List<CompressedBitSet> bitSetList = new ArrayList<CompressedBitSet>();
     
     private TreeLayout<CustomVertex,Integer> layout;
     private VisualizationViewer<CustomVertex,Integer> vv;
+
+    //Live preview: rows matching each vertex's subtree, memoised so an edit only re-evaluates the path to the root.
+    //A null value means the vertex could not be evaluated.  Only used on the event dispatch thread.
+    private Map<CustomVertex, CompressedBitSet> vertexRows = new HashMap<CustomVertex, CompressedBitSet>();
+    private Map<CustomVertex, Integer> vertexCounts = new HashMap<CustomVertex, Integer>();
+    private int graphVersion = 0;           //Incremented when memoised results are invalidated
+    private PreviewWorker previewWorker = null;
     
 
     /**
@@ -161,14 +169,11 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
         VertexLabelAsShapeRenderer<CustomVertex,Integer> vlasr = new 
             VertexLabelAsShapeRenderer<CustomVertex,Integer>(vv.getRenderContext());
         vv.getRenderContext().setVertexLabelTransformer(
-            new ChainedTransformer<CustomVertex,String>(new Transformer[]{
-                new ToStringLabeller<String>(),
-                new Transformer<String,String>() {
-                    public String transform(String input) {
-                        return "<html><center>"+input;
-                    }
+            new Transformer<CustomVertex,String>() {
+                public String transform(CustomVertex v) {
+                    return "<html><center>" + v + "<p><i>" + countLabel(v) + "</i>";
                 }
-            }));
+            });
         vv.getRenderContext().setVertexShapeTransformer(vlasr);
         vv.getRenderContext().setEdgeShapeTransformer(new EdgeShape.Line());
         vv.getRenderer().setVertexLabelRenderer(vlasr);
@@ -326,6 +331,8 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
         runPane.add(Box.createRigidArea(new Dimension(5,0)));
         runPane.add(qLoad);
         runPane.add(Box.createRigidArea(new Dimension(5,0)));
+        runPane.add(qType);
+        runPane.add(Box.createRigidArea(new Dimension(5,0)));
         runPane.add(delete);
         runPane.add(Box.createRigidArea(new Dimension(5,0)));
         runPane.add(clear);
@@ -362,6 +369,7 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
         reset.addActionListener(this);
         qSave.addActionListener(this);
         qLoad.addActionListener(this);
+        qType.addActionListener(this);
         delete.addActionListener(this);
         clear.addActionListener(this);
         andButton.addActionListener(this);
@@ -409,6 +417,8 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
             + "Will only work for THIS data file!");
         qLoad.setToolTipText("<html>Loads a previously saved query.<p>"
             + "Can only load a query that was saved using THIS data file!");
+        qType.setToolTipText("<html>Replaces the query with one typed as text, eg.<p>"
+            + "@child == het AND @mother == homref AND (type ~ stop OR type ~ splice)");
         clear.setToolTipText("Deletes are queries and logical connections.");
         delete.setToolTipText("Deletes the selected query boxes.");
         modeBox.setToolTipText("<html>Defines box selection behavior:<p>"
@@ -501,13 +511,17 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
         else if (es == qLoad) {
             readGraph();
         }
+        else if (es == qType) {
+            typeGraph();
+        }
         else if (es == delete) {
             deletePicked();
         }
         else if (es == clear) {
-            bitSetList = new ArrayList<BitSet>();
+            bitSetList = new ArrayList<CompressedBitSet>();
             initQuery();
             graph = new DelegateForest<CustomVertex,Integer>();
+            clearPreview();
         }
         else if (es == exactMatch) {
             buildQueryVertex("equals","==");
@@ -850,7 +864,7 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
                 tempQuery.append(msBSMask);
                 break;
             case VarData.STRING:
-                bitSetList.add(currentMap.filterWithPattern(pat));
+                bitSetList.add(CompressedBitSet.valueOf(currentMap.filterWithPattern(pat)));
                 if (query.substring( query.length()-2 ).equals("!=")) {
                     tempQuery.append("!");
                 }
@@ -929,6 +943,7 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
         Set<CustomVertex> picked = vv.getPickedVertexState().getPicked();
         if (picked.size() > 0) {
             for (CustomVertex cv: picked) {
+                invalidatePath(cv);
                 Collection<Integer> childEdges = graph.getChildEdges(cv);
                 Integer[] ceArray = childEdges.toArray(new Integer[childEdges.size()]);
                 for (Integer ce: ceArray) {
@@ -955,12 +970,13 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
     /**
     *   Walk the tree, assembling the query parameters at each node
     */
-    private void findLeavesAndWrite(CustomVertex rootVertex, Collection<String> parentStringGroup) {
+    static void findLeavesAndWrite(Forest<CustomVertex,Integer> graph, CustomVertex rootVertex,
+                                   Collection<String> parentStringGroup) {
         if (graph.getChildCount(rootVertex) > 0) {
             List<String> stringGroup = new ArrayList<String>();
             String outGroup = "(";
             for (CustomVertex cv : graph.getChildren(rootVertex)) {
-                findLeavesAndWrite(cv, stringGroup);
+                findLeavesAndWrite(graph, cv, stringGroup);
             }
             for (Iterator<String> sgi = stringGroup.iterator(); sgi.hasNext();) {
                 outGroup += sgi.next();
@@ -992,7 +1008,7 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
         if (roots.size() == 1) {
             List<String> stringGroup = new ArrayList<String>();
             outGroup = "";
-            findLeavesAndWrite(roots.iterator().next(), stringGroup);
+            findLeavesAndWrite(graph, roots.iterator().next(), stringGroup);
             for (Iterator<String> sgi = stringGroup.iterator(); sgi.hasNext(); ) {
                 outGroup += sgi.next();
                 if (sgi.hasNext()) {
@@ -1001,7 +1017,7 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
             }
             outText.setText(outGroup);
             vdat.setCustomQuery(outGroup);
-            vdat.setCustomBitSet(bitSetList.toArray(new BitSet[bitSetList.size()]));
+            vdat.setCustomBitSet(bitSetList.toArray(new CompressedBitSet[bitSetList.size()]));
             if (gui != null) {
                 gui.setCBoxChecked(gui.CUSTOM, true);
                 gui.toFront();
@@ -1013,6 +1029,12 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
     }
 
     private void redrawGraph() {
+        layoutGraph();
+        updatePreview();
+    }
+
+
+    private void layoutGraph() {
         Collection<CustomVertex> cv = graph.getVertices();
         int maxWidth = 0;
         for (CustomVertex s: cv) {
@@ -1026,30 +1048,240 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
     }
 
 
+
+    /* ********
+    *   Live preview of the number of variants matching each box
+    *  ********
+    */
+
+    /**
+    *   Return the count shown under a vertex label
+    */
+    private String countLabel(CustomVertex v) {
+        if (!vertexRows.containsKey(v)) {
+            return "counting...";
+        }
+        Integer count = vertexCounts.get(v);
+        return (count == null) ? "?" : (count + " variants");
+    }
+
+
+    /**
+    *   Forget the result of a vertex and of everything above it, as its subtree is about to change
+    */
+    private void invalidatePath(CustomVertex v) {
+        for (CustomVertex p = v; p != null; p = (graph.containsVertex(p) ? graph.getParent(p) : null)) {
+            vertexRows.remove(p);
+            vertexCounts.remove(p);
+        }
+        graphVersion++;
+    }
+
+
+    /**
+    *   Forget all results (the graph has been replaced)
+    */
+    private void clearPreview() {
+        vertexRows = new HashMap<CustomVertex, CompressedBitSet>();
+        vertexCounts = new HashMap<CustomVertex, Integer>();
+        graphVersion++;
+    }
+
+
+    /**
+    *   Start evaluating, in the background, every vertex without a result.  Vertices are listed children first,
+    *   so a vertex's children are ready when it is evaluated.  Only one evaluation runs at a time; when it
+    *   finishes, this is called again to pick up edits made in the meantime.
+    */
+    private void updatePreview() {
+        if (previewWorker != null) {
+            return;
+        }
+        List<CustomVertex> toEvaluate = new ArrayList<CustomVertex>();
+        Map<CustomVertex, List<CustomVertex>> childrenOf = new HashMap<CustomVertex, List<CustomVertex>>();
+        Map<CustomVertex, CompressedBitSet> known = new HashMap<CustomVertex, CompressedBitSet>();
+        for (CustomVertex root : graph.getRoots()) {
+            listUnevaluated(root, toEvaluate, childrenOf, known);
+        }
+        if (toEvaluate.size() > 0) {
+            previewWorker = new PreviewWorker(toEvaluate, childrenOf, known,
+                bitSetList.toArray(new CompressedBitSet[bitSetList.size()]));
+            previewWorker.execute();
+        }
+    }
+
+
+    /**
+    *   Walk a subtree, listing vertices without a result (children first), and the results they depend on
+    *   @return True if this vertex needs evaluating
+    */
+    private boolean listUnevaluated(CustomVertex v, List<CustomVertex> toEvaluate,
+                                    Map<CustomVertex, List<CustomVertex>> childrenOf,
+                                    Map<CustomVertex, CompressedBitSet> known) {
+        List<CustomVertex> children = new ArrayList<CustomVertex>(graph.getChildren(v));
+        boolean childChanged = false;
+        for (CustomVertex child : children) {
+            childChanged |= listUnevaluated(child, toEvaluate, childrenOf, known);
+        }
+        if (vertexRows.containsKey(v) && !childChanged) {
+            known.put(v, vertexRows.get(v));
+            return false;
+        }
+        childrenOf.put(v, children);
+        toEvaluate.add(v);
+        return true;
+    }
+
+
+    /**
+    *   Evaluates vertices off the event dispatch thread, then stores the results and redraws the graph
+    */
+    private class PreviewWorker extends SwingWorker<Map<CustomVertex, CompressedBitSet>, Object> {
+        private List<CustomVertex> toEvaluate;
+        private Map<CustomVertex, List<CustomVertex>> childrenOf;
+        private Map<CustomVertex, CompressedBitSet> results;
+        private CompressedBitSet[] bitSets;
+        private int startVersion = graphVersion;
+
+        PreviewWorker(List<CustomVertex> toEvaluate, Map<CustomVertex, List<CustomVertex>> childrenOf,
+                      Map<CustomVertex, CompressedBitSet> known, CompressedBitSet[] bitSets) {
+            this.toEvaluate = toEvaluate;
+            this.childrenOf = childrenOf;
+            this.results = known;
+            this.bitSets = bitSets;
+        }
+
+        protected Map<CustomVertex, CompressedBitSet> doInBackground() {
+            QueryContext context = new QueryContext(vdat, bitSets);
+            int rows = context.allData.size();
+            Map<CustomVertex, CompressedBitSet> out = new HashMap<CustomVertex, CompressedBitSet>();
+            for (CustomVertex v : toEvaluate) {
+                List<CustomVertex> children = childrenOf.get(v);
+                CompressedBitSet rowsOfV = null;
+                if (children.size() == 0) {
+                    try {
+                        CompressedBitSet all = new CompressedBitSet(rows);
+                        all.set(0, rows);
+                        rowsOfV = QueryParser.parse(v.getQuery()).getRows(context, all);
+                    }
+                    catch (ParseException pe) {
+                        System.out.println("Can't count matches for " + v.getQuery() + ": " + pe.getMessage());
+                    }
+                }
+                else {
+                    String op = v.getQuery().trim();
+                    for (CustomVertex child : children) {
+                        CompressedBitSet c = results.get(child);
+                        if (c == null) {
+                            rowsOfV = null;
+                            break;
+                        }
+                        if (rowsOfV == null) {
+                            rowsOfV = (CompressedBitSet)c.clone();
+                        }
+                        else if (op.equals("&&")) {
+                            rowsOfV.and(c);
+                        }
+                        else if (op.equals("||")) {
+                            rowsOfV.or(c);
+                        }
+                        else {
+                            rowsOfV.xor(c);
+                        }
+                    }
+                }
+                if (rowsOfV != null) {
+                    rowsOfV.runOptimize();
+                }
+                results.put(v, rowsOfV);
+                out.put(v, rowsOfV);
+            }
+            return out;
+        }
+
+        protected void done() {
+            previewWorker = null;
+            try {
+                Map<CustomVertex, CompressedBitSet> out = get();
+                for (Map.Entry<CustomVertex, CompressedBitSet> e : out.entrySet()) {
+                    CustomVertex v = e.getKey();
+                    //Results of boxes with children are stale if anything was invalidated meanwhile
+                    if (graph.containsVertex(v) && (startVersion == graphVersion || childrenOf.get(v).size() == 0)) {
+                        vertexRows.put(v, e.getValue());
+                        vertexCounts.put(v, (e.getValue() == null) ? null : e.getValue().cardinality());
+                    }
+                }
+            }
+            catch (InterruptedException ie) {
+                System.out.println(ie.toString());
+            }
+            catch (ExecutionException ee) {
+                System.out.println("Error counting query matches: " + ee.getCause());
+            }
+            layoutGraph();
+            updatePreview();
+        }
+    }
+
+
+    /**
+    *   Build the graph from a query typed as text (see TextQuery)
+    */
+    private void typeGraph() {
+        String text = JOptionPane.showInputDialog(this, "<html>Enter a query, for example:<p>"
+            + "@child == het AND @mother == homref AND @father == homref<p>"
+            + "(@child == homvar) AND (type ~ \"stop|splice\" OR CDPred_score &lt; -5)",
+            "Type Query", JOptionPane.PLAIN_MESSAGE);
+        if (text == null || text.trim().length() == 0) {
+            return;
+        }
+        try {
+            SavedQuery typed = TextQuery.parse(text, vdat);
+            useGraph(typed.graph);
+            bitSetList = new ArrayList<CompressedBitSet>(java.util.Arrays.asList(typed.bitSets));
+            resetQuery();
+            redrawGraph();
+        }
+        catch (ParseException pe) {
+            VarSifter.showError("<html>Couldn't read the query:<p>" + pe.getMessage());
+        }
+    }
+
+
+    /**
+    *   Replace the graph with a loaded or typed one
+    */
+    private void useGraph(DelegateForest<CustomVertex,Integer> newGraph) {
+        graph = newGraph;
+        edgeCount = 0;
+        for (Integer edge : graph.getEdges()) {
+            edgeCount = Math.max(edgeCount, edge + 1);    //New links must not reuse an edge number
+        }
+        clearPreview();
+    }
+
+
     /**
     *   Use serialization to read graph object file
     */
     private void readGraph() {
         try {
-            File df = new File(vdat.dataFile);
             File queryFile;
             JFileChooser fc = new JFileChooser(System.getProperty("user.dir"));
             fc.setDialogTitle("Open Query");
             int fcReturnVal = fc.showOpenDialog(this);
             if (fcReturnVal == JFileChooser.APPROVE_OPTION) {
                 queryFile = fc.getSelectedFile();
-                ObjectInputStream ois = new ObjectInputStream(new FileInputStream(queryFile));
-                String queryOfFile = (String)ois.readObject();
-                System.out.println("Read query for data " + queryOfFile);
-                if ( queryOfFile.equals(df.getName()) ) {
+                SavedQuery saved = SavedQuery.read(queryFile);
+                System.out.println("Read query for data " + saved.dataName);
+                if ( saved.isFor(vdat) ) {
                     JOptionPane.showMessageDialog(this, "<html>The loaded query appears to match this data file by name." 
                         + "<p>However, if the query didn't really come from this EXACT data file, you will get incorrect results!!!");
-                    graph = (DelegateForest<CustomVertex,Integer>)ois.readObject();
-                    try {
-                        bitSetList = (ArrayList<BitSet>)ois.readObject();
+                    useGraph(saved.graph);
+                    if (saved.bitSets != null) {
+                        bitSetList = new ArrayList<CompressedBitSet>(java.util.Arrays.asList(saved.bitSets));
                     }
-                    catch (IOException ioe) {
-                        System.err.println(ioe);
+                    else {
                         VarSifter.showError("<html>You have loaded a query object created from a VarSifter version<p>" +
                             "earlier than 1.5. If there was a text search in your query, it will likely fail.<p>" +
                             "It is highly recommended to remake the query to avoid errors!!</html>");
@@ -1059,9 +1291,8 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
                 } 
                 else {
                     VarSifter.showError("<html>It looks like the query you loaded was saved from a different data file: " +
-                        queryOfFile + " <p>Refusing to load, as the query results will be incorrect.");
+                        saved.dataName + " <p>Refusing to load, as the query results will be incorrect.");
                 }
-                ois.close();
             }
             else {
                 System.out.println("No file selected");
@@ -1081,7 +1312,7 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
     */
     private void writeGraph() {
         try {
-            File df = new File(vdat.dataFile);
+            String dataName = vdat.returnDataFileName();
             File queryFile;
             int ovwResult = JOptionPane.YES_OPTION;
             JFileChooser fc = new JFileChooser(System.getProperty("user.dir"));
@@ -1097,12 +1328,9 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
                 }
 
                 if (ovwResult == JOptionPane.YES_OPTION) {
-                    ObjectOutputStream ow = new ObjectOutputStream(new FileOutputStream(queryFile));
-                    ow.writeObject(df.getName());
-                    ow.writeObject(graph);
-                    ow.writeObject(bitSetList);
-                    ow.close();
-                    System.out.println("Saved query for data " + df.getName());
+                    new SavedQuery(dataName, graph, bitSetList.toArray(new CompressedBitSet[bitSetList.size()]))
+                        .write(queryFile);
+                    System.out.println("Saved query for data " + dataName);
                 }
                 else {
                     System.out.println("Query file not written.");
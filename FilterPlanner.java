@@ -0,0 +1,62 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+*   Orders row-by-row FilterStages so that cheap, selective tests run first, and evaluates them
+*   with short-circuiting: a row stops being tested at the first stage it fails.  Expensive
+*   sample-wide tests therefore only see rows that survived everything else.
+*/
+public class FilterPlanner {
+
+    private List<FilterStage> stages = new ArrayList<FilterStage>();
+
+    /**
+    *   Add a stage to the pipeline
+    *
+    *   @param fs The FilterStage to add
+    */
+    public void addStage(FilterStage fs) {
+        stages.add(fs);
+    }
+
+
+    /**
+    *   Return the stages in the order they will be evaluated
+    *
+    *   @return Ordered list of stages
+    */
+    public List<FilterStage> getPlan() {
+        List<FilterStage> plan = new ArrayList<FilterStage>(stages);
+        Collections.sort(plan);
+        return plan;
+    }
+
+
+    /**
+    *   Run all stages over a set of candidate rows
+    *
+    *   @param candidates Rows to test (rows not set here are never tested)
+    *   @return A new CompressedBitSet with the rows passing every stage set
+    */
+    public CompressedBitSet apply(CompressedBitSet candidates) {
+        if (stages.isEmpty()) {
+            return (CompressedBitSet)candidates.clone();
+        }
+        List<FilterStage> planList = getPlan();
+        FilterStage[] plan = planList.toArray(new FilterStage[planList.size()]);
+        CompressedBitSet out = new CompressedBitSet();
+
+        rows:
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i+1)) {
+            for (FilterStage fs : plan) {
+                if (!fs.passes(i)) {
+                    continue rows;
+                }
+            }
+            out.set(i);
+        }
+        out.runOptimize();
+        return out;
+    }
+}
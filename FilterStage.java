@@ -0,0 +1,82 @@
+/**
+*   One row-by-row test in the filter pipeline, with estimates used by FilterPlanner to order the tests.
+*   Cost is in rough units of one array lookup per row; selectivity is the expected fraction of rows passing.
+*/
+public abstract class FilterStage implements Comparable<FilterStage> {
+
+    final static double UNKNOWN_SELECTIVITY = 0.5;   //Used when there are no statistics to estimate from
+
+    private String name;
+    private double cost;
+    private double selectivity;
+
+    /**
+    *   Create a FilterStage
+    *
+    *   @param name Name of the filter, for reporting
+    *   @param cost Estimated cost of testing one row
+    *   @param selectivity Estimated fraction of rows passing (0 - 1)
+    */
+    public FilterStage(String name, double cost, double selectivity) {
+        this.name = name;
+        this.cost = cost;
+        this.selectivity = Math.max(0, Math.min(1, selectivity));
+    }
+
+
+    /**
+    *   Test one row
+    *
+    *   @param row The row (in VarData.data) to test
+    *   @return True if the row passes this filter
+    */
+    public abstract boolean passes(int row);
+
+
+    /**
+    *   Return the rank used to order stages: cost per row removed.  Lower ranks run first.
+    *
+    *   @return The rank of this stage
+    */
+    public double getRank() {
+        return (selectivity >= 1) ? Double.MAX_VALUE : cost / (1 - selectivity);
+    }
+
+
+    /**
+    *   Compare by rank
+    */
+    public int compareTo(FilterStage other) {
+        return Double.compare(getRank(), other.getRank());
+    }
+
+
+    /**
+    *   Return the name of this stage
+    *
+    *   @return The name
+    */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+    *   Return the estimated cost of testing one row
+    *
+    *   @return The estimated cost
+    */
+    public double getCost() {
+        return cost;
+    }
+
+
+    /**
+    *   Return the estimated fraction of rows passing
+    *
+    *   @return The estimated selectivity
+    */
+    public double getSelectivity() {
+        return selectivity;
+    }
+}
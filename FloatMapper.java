@@ -1,3 +1,4 @@
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -9,7 +10,7 @@ import java.util.regex.*;
 */
 public class FloatMapper implements AbstractMapper {
     private Map<Float, Integer> dataMap;
-    private Map<Integer, Float> indexMap;
+    private float[] values;     //Floats by index, unboxed so getFloat() is an array read
     private final static int dataType = VarData.FLOAT;
     private int lastIndex = 0;
 
@@ -19,7 +20,7 @@ public class FloatMapper implements AbstractMapper {
     */
     public FloatMapper() {
         dataMap = new HashMap<Float, Integer>(5000, 0.75f);
-        indexMap = new HashMap<Integer, Float>(5000, 0.75f);
+        values = new float[5000];
     }
 
 
@@ -60,7 +61,10 @@ public class FloatMapper implements AbstractMapper {
         int index = getIndexOf(inF);
         if (index == -1) {
             dataMap.put(inF, Integer.valueOf(lastIndex));
-            indexMap.put(Integer.valueOf(lastIndex), inF);
+            if (lastIndex == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[lastIndex] = inF.floatValue();
             lastIndex++;
             return lastIndex - 1; //remove 1 to get index;
         }
@@ -77,7 +81,7 @@ public class FloatMapper implements AbstractMapper {
     *   @return String form of requested Float
     */
     public String getString(int index) {
-        return indexMap.get(Integer.valueOf(index)).toString();
+        return Float.toString(getFloat(index));
     }
 
 
@@ -88,7 +92,10 @@ public class FloatMapper implements AbstractMapper {
     *   @return primitive form of requested Float
     */
     public float getFloat(int index) {
-        return ((Float)indexMap.get(Integer.valueOf(index))).floatValue();
+        if (index >= lastIndex) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return values[index];
     }
 
     public int getLength() {
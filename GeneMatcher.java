@@ -0,0 +1,254 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+*   Matches Gene_name entries against a gene name query or a gene list.  A query that is only an
+*   alternation of plain gene names ("BRCA1|TP53|...", optionally each as "^name$") is matched with an
+*   Aho-Corasick automaton and a HashSet, in one pass over the entry however many genes are listed;
+*   anything else is compiled as a regex.  Either way, gives the same answer as a case-insensitive
+*   Pattern.find() on the query.
+*/
+public class GeneMatcher {
+
+    private final static String REGEX_META = "\\^$.|?*+()[]{}";
+
+    private Pattern pattern = null;         //Set if the query is a true regex
+    private Set<String> exact = null;       //Whole entries to match (lower case), for "^name$" alternatives
+    private int[][] next = null;            //Aho-Corasick transitions [state][char class], for plain alternatives
+    private boolean[] accept = null;        //States ending a gene name
+    private int[] asciiClass = null;        //Char class of each (lower case) ASCII character; 0 for any other character
+    private Map<Character, Integer> otherClass = null;  //Char class of non-ASCII characters in the query
+
+    private Set<String> geneSet = null;     //Gene list (lower case), for gene file matching
+    private Pattern delimPat = null;        //Splits multi-gene entries
+
+    /**
+    *   Private constructor - use compile() or forGeneSet()
+    */
+    private GeneMatcher() {
+    }
+
+
+    /**
+    *   Prepare a gene name query, as typed in the gene name field
+    *
+    *   @param query The query: a regex, or gene names separated by "|"
+    *   @return The GeneMatcher
+    *   @throws java.util.regex.PatternSyntaxException If the query is not a valid regex
+    */
+    public static GeneMatcher compile(String query) {
+        GeneMatcher gm = new GeneMatcher();
+        List<String> contained = new ArrayList<String>();
+        Set<String> exact = new HashSet<String>();
+        for (String alt : query.split("\\|", -1)) {
+            if (alt.length() > 2 && alt.charAt(0) == '^' && alt.charAt(alt.length() - 1) == '$'
+                && isLiteral(alt.substring(1, alt.length() - 1))) {
+                exact.add(foldCase(alt.substring(1, alt.length() - 1)));
+            }
+            else if (alt.length() > 0 && isLiteral(alt)) {
+                contained.add(foldCase(alt));
+            }
+            else {
+                gm.pattern = Pattern.compile(query, Pattern.CASE_INSENSITIVE);
+                return gm;
+            }
+        }
+        gm.exact = exact;
+        gm.buildAutomaton(contained);
+        return gm;
+    }
+
+
+    /**
+    *   Prepare a gene list, as read from a gene file.  An entry matches if any of its delimited genes
+    *   is in the list.
+    *
+    *   @param geneSet A Set of lower case gene names
+    *   @param geneDelim Internal gene delimiter (a regex, as for String.split())
+    *   @return The GeneMatcher
+    */
+    public static GeneMatcher forGeneSet(Set<String> geneSet, String geneDelim) {
+        GeneMatcher gm = new GeneMatcher();
+        gm.geneSet = geneSet;
+        gm.delimPat = Pattern.compile(geneDelim);
+        return gm;
+    }
+
+
+    /**
+    *   Test one Gene_name entry
+    *
+    *   @param genes The Gene_name entry
+    *   @return True if it matches
+    */
+    public boolean matches(String genes) {
+        if (geneSet != null) {
+            for (String dG : delimPat.split(genes.toLowerCase())) {
+                if (geneSet.contains(dG)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (pattern != null) {
+            return pattern.matcher(genes).find();
+        }
+        if (!exact.isEmpty() && exact.contains(foldCase(genes))) {
+            return true;
+        }
+        int state = 0;
+        for (int i=0; i < genes.length() && next != null; i++) {
+            state = next[state][classOf(genes.charAt(i))];
+            if (accept[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+    *   Test each value of a dictionary column once
+    *
+    *   @param mapper The AbstractMapper of the Gene_name column
+    *   @return A BitSet with the dictionary indices of matching values set
+    */
+    public BitSet filter(AbstractMapper mapper) {
+        if (pattern != null) {
+            return mapper.filterWithPattern(pattern);
+        }
+        BitSet bs = new BitSet(mapper.getLength());
+        for (int i=0; i < mapper.getLength(); i++) {
+            if (matches(mapper.getString(i))) {
+                bs.set(i);
+            }
+        }
+        return bs;
+    }
+
+
+    /**
+    *   Build the Aho-Corasick automaton, as a full transition table (failure links already followed)
+    *
+    *   @param names The gene names to find, case folded
+    */
+    private void buildAutomaton(List<String> names) {
+        if (names.isEmpty()) {
+            return;
+        }
+
+        //Number the characters used, so the table is only as wide as the query's alphabet
+        asciiClass = new int[128];
+        otherClass = new HashMap<Character, Integer>();
+        int classes = 1;
+        for (String name : names) {
+            for (int i=0; i < name.length(); i++) {
+                char ch = name.charAt(i);
+                if (ch < 128) {
+                    if (asciiClass[ch] == 0) {
+                        asciiClass[ch] = classes++;
+                    }
+                }
+                else if (!otherClass.containsKey(ch)) {
+                    otherClass.put(ch, classes++);
+                }
+            }
+        }
+
+        //Trie
+        List<int[]> trie = new ArrayList<int[]>();
+        List<Boolean> ends = new ArrayList<Boolean>();
+        trie.add(new int[classes]);
+        ends.add(false);
+        for (String name : names) {
+            int state = 0;
+            for (int i=0; i < name.length(); i++) {
+                int c = classOf(name.charAt(i));
+                if (trie.get(state)[c] == 0) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(new int[classes]);
+                    ends.add(false);
+                }
+                state = trie.get(state)[c];
+            }
+            ends.set(state, true);
+        }
+
+        //Breadth first: point missing transitions along failure links
+        next = trie.toArray(new int[trie.size()][]);
+        accept = new boolean[next.length];
+        int[] fail = new int[next.length];
+        int[] queue = new int[next.length];
+        int head = 0;
+        int tail = 0;
+        for (int c=0; c < classes; c++) {
+            if (next[0][c] != 0) {
+                queue[tail++] = next[0][c];
+            }
+        }
+        accept[0] = ends.get(0);
+        while (head < tail) {
+            int s = queue[head++];
+            accept[s] = ends.get(s) || accept[fail[s]];
+            for (int c=0; c < classes; c++) {
+                int t = next[s][c];
+                if (t != 0) {
+                    fail[t] = next[fail[s]][c];
+                    queue[tail++] = t;
+                }
+                else {
+                    next[s][c] = next[fail[s]][c];
+                }
+            }
+        }
+    }
+
+
+    /**
+    *   Return the automaton's char class of a character
+    */
+    private int classOf(char ch) {
+        ch = foldCase(ch);
+        if (ch < 128) {
+            return asciiClass[ch];
+        }
+        Integer c = otherClass.get(ch);
+        return (c == null) ? 0 : c.intValue();
+    }
+
+
+    /**
+    *   Returns true if a regex matches only its own text
+    */
+    private static boolean isLiteral(String s) {
+        for (int i=0; i < s.length(); i++) {
+            if (REGEX_META.indexOf(s.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+    *   Lower case ASCII letters only, as Pattern.CASE_INSENSITIVE does
+    */
+    private static char foldCase(char ch) {
+        return (ch >= 'A' && ch <= 'Z') ? (char)(ch + ('a' - 'A')) : ch;
+    }
+
+
+    private static String foldCase(String s) {
+        char[] chars = s.toCharArray();
+        for (int i=0; i < chars.length; i++) {
+            chars[i] = foldCase(chars[i]);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,206 @@
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+*   Genotype codes of all samples packed at 2 bits per call.  Each row has a hom-ref, het and hom-var
+*   genotype code; a call is stored as which of these it is, or as "other" (no-call).  Calls that are
+*   none of these (multi-allelic, hemizygous, unusual notation) are kept in a sparse exception list.
+*   Bits are stored by sample, in two planes of 64-row words, so the rows of a sample in a class can be
+*   found a word at a time.  The planes are kept where SampleStore keeps sample data (in a memory-mapped
+*   temporary file for MAPPED and PAGED stores).
+*/
+public class GenotypeMatrix {
+
+    final static int HOM_REF = 0;
+    final static int HET = 1;
+    final static int HOM_VAR = 2;
+    final static int OTHER = 3;     //No-call, or an exception
+    final static int CLASSES = 4;
+
+    final static int MAX_EXCEPTION_FRACTION = 16;   //Don't pack if more than 1/16 of calls are exceptions
+
+    private final int rowCount;
+    private final int sampleCount;
+    private final int naCode;
+    private final int[][] rowCodes;     //[class][row] genotype code of HOM_REF, HET and HOM_VAR in each row
+    private final LongBuffer[] low;     //[sample].get(word) low bit of each call's class
+    private final LongBuffer[] high;    //[sample].get(word) high bit of each call's class
+    private final int[][] excRows;      //[sample] sorted rows of exceptions (class OTHER, but not a no-call)
+    private final int[][] excCodes;     //[sample] genotype codes of exceptions
+
+    /**
+    *   Private constructor - use pack()
+    */
+    private GenotypeMatrix(int rowCount, int sampleCount, int[][] rowCodes, int naCode) {
+        this.rowCount = rowCount;
+        this.sampleCount = sampleCount;
+        this.rowCodes = rowCodes;
+        this.naCode = naCode;
+        int words = (rowCount + 63) >>> 6;
+        low = SampleStore.allocateLongs(sampleCount, words);
+        high = SampleStore.allocateLongs(sampleCount, words);
+        excRows = new int[sampleCount][];
+        excCodes = new int[sampleCount][];
+    }
+
+
+    /**
+    *   Pack the genotype field of a SampleStore
+    *
+    *   @param samples The sample data (field 0 is the genotype)
+    *   @param homRef The hom-ref genotype code of each row (-1 if none)
+    *   @param het The het genotype code of each row (-1 if none)
+    *   @param homVar The hom-var genotype code of each row (-1 if none)
+    *   @param naCode The genotype code of a no-call
+    *   @return The packed genotypes, or null if too many calls would be exceptions to be worth packing
+    */
+    public static GenotypeMatrix pack(SampleStore samples, int[] homRef, int[] het, int[] homVar, int naCode) {
+        int rows = samples.size();
+        int sampleCount = samples.getSampleCount();
+        long maxExceptions = (long)rows * sampleCount / MAX_EXCEPTION_FRACTION;
+        long exceptions = 0;
+        int[] excCount = new int[sampleCount];
+        int[][] excRows = new int[sampleCount][0];
+        int[][] excCodes = new int[sampleCount][0];
+
+        //Find the exceptions first, so the bit planes are only allocated for genotypes that will be packed
+        for (int i=0; i < rows; i++) {
+            for (int j=0; j < sampleCount; j++) {
+                int g = samples.get(i, j, 0);
+                if (g != naCode && classOf(g, i, homRef, het, homVar) == OTHER) {
+                    if (++exceptions > maxExceptions) {
+                        return null;
+                    }
+                    if (excCount[j] == excRows[j].length) {
+                        excRows[j] = Arrays.copyOf(excRows[j], Math.max(4, excCount[j] * 2));
+                        excCodes[j] = Arrays.copyOf(excCodes[j], excRows[j].length);
+                    }
+                    excRows[j][excCount[j]] = i;
+                    excCodes[j][excCount[j]] = g;
+                    excCount[j]++;
+                }
+            }
+        }
+
+        GenotypeMatrix gm = new GenotypeMatrix(rows, sampleCount, new int[][] {homRef, het, homVar}, naCode);
+        for (int j=0; j < sampleCount; j++) {
+            gm.excRows[j] = Arrays.copyOf(excRows[j], excCount[j]);
+            gm.excCodes[j] = Arrays.copyOf(excCodes[j], excCount[j]);
+        }
+        long[] lowWord = new long[sampleCount];     //Bits of the current word, stored once it is full
+        long[] highWord = new long[sampleCount];
+        for (int i=0; i < rows; i++) {
+            int w = i >>> 6;
+            long bit = 1L << i;
+            for (int j=0; j < sampleCount; j++) {
+                int cls = classOf(samples.get(i, j, 0), i, homRef, het, homVar);
+                if ((cls & 1) != 0) {
+                    lowWord[j] |= bit;
+                }
+                if ((cls & 2) != 0) {
+                    highWord[j] |= bit;
+                }
+            }
+            if ((i & 63) == 63 || i == rows - 1) {
+                for (int j=0; j < sampleCount; j++) {
+                    gm.low[j].put(w, lowWord[j]);
+                    gm.high[j].put(w, highWord[j]);
+                    lowWord[j] = 0;
+                    highWord[j] = 0;
+                }
+            }
+        }
+        return gm;
+    }
+
+
+    /**
+    *   Return the class of a genotype code in a row
+    */
+    private static int classOf(int g, int row, int[] homRef, int[] het, int[] homVar) {
+        if (g == homRef[row]) {
+            return HOM_REF;
+        }
+        else if (g == het[row]) {
+            return HET;
+        }
+        else if (g == homVar[row]) {
+            return HOM_VAR;
+        }
+        return OTHER;
+    }
+
+
+    /**
+    *   Return one genotype code
+    *
+    *   @param row The row
+    *   @param sample The sample index
+    *   @return The genotype code (index in sampleMapper[0])
+    */
+    public int get(int row, int sample) {
+        int w = row >>> 6;
+        int cls = (int)((low[sample].get(w) >>> row) & 1L) | ((int)((high[sample].get(w) >>> row) & 1L) << 1);
+        if (cls != OTHER) {
+            return rowCodes[cls][row];
+        }
+        int e = Arrays.binarySearch(excRows[sample], row);
+        return (e >= 0) ? excCodes[sample][e] : naCode;
+    }
+
+
+    /**
+    *   Return the rows of a sample whose calls are in a class, as words of bits (OTHER includes exceptions)
+    *
+    *   @param sample The sample index
+    *   @param cls HOM_REF, HET, HOM_VAR or OTHER
+    *   @return A new array: row n is bit (n % 64) of word n / 64
+    */
+    public long[] getClassWords(int sample, int cls) {
+        LongBuffer lo = low[sample];
+        LongBuffer hi = high[sample];
+        long[] out = new long[lo.capacity()];
+        for (int w=0; w < out.length; w++) {
+            long l = ((cls & 1) != 0) ? lo.get(w) : ~lo.get(w);
+            long h = ((cls & 2) != 0) ? hi.get(w) : ~hi.get(w);
+            out[w] = l & h;
+        }
+        if (out.length > 0 && (rowCount & 63) != 0) {
+            out[out.length - 1] &= (1L << rowCount) - 1;
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return the rows of a sample's exceptions (calls in class OTHER that are not no-calls)
+    *
+    *   @param sample The sample index
+    *   @return Sorted rows.  Do not modify.
+    */
+    public int[] getExceptionRows(int sample) {
+        return excRows[sample];
+    }
+
+
+    /**
+    *   Return the genotype code a class stands for in a row
+    *
+    *   @param cls HOM_REF, HET, HOM_VAR or OTHER (a no-call)
+    *   @param row The row
+    *   @return The genotype code
+    */
+    public int getClassCode(int cls, int row) {
+        return (cls == OTHER) ? naCode : rowCodes[cls][row];
+    }
+
+
+    /**
+    *   Return the number of rows
+    *
+    *   @return The number of rows
+    */
+    public int size() {
+        return rowCount;
+    }
+}
@@ -12,7 +12,7 @@ import java.util.regex.*;
 */
 public class MultiStringMapper implements AbstractMapper {
     private Map<String, Integer> dataMap;
-    private Map<Integer, String> indexMap;
+    private List<String> entries;  //Strings by index
     private final static int dataType = VarData.MULTISTRING;
     private int lastIndex = 0;
     private String stringSepChar = ";";
@@ -26,7 +26,7 @@ public class MultiStringMapper implements AbstractMapper {
     */
     public MultiStringMapper(String sep) {
         dataMap = new HashMap<String, Integer>(30000, 0.75f);
-        indexMap = new HashMap<Integer, String>(30000, 0.75f);
+        entries = new ArrayList<String>();
         if (sep != null) {
             stringSepChar = sep;
         }
@@ -80,7 +80,7 @@ public class MultiStringMapper implements AbstractMapper {
                     System.exit(1);
                 }
                 dataMap.put(s, Integer.valueOf(lastIndex));
-                indexMap.put(Integer.valueOf(lastIndex), s);
+                entries.add(s);
                 bitMask |= (int)Math.pow(2, lastIndex); 
                 lastIndex++;
             }
@@ -102,7 +102,7 @@ public class MultiStringMapper implements AbstractMapper {
         String out = "";
         for (int i = 0; i<lastIndex; i++) {
             if ( (index & (int)Math.pow(2,i)) > 0) {
-                out += (indexMap.get(Integer.valueOf(i)) + ";");
+                out += (entries.get(i) + ";");
             }
         }
         if (out.length() == 0) {
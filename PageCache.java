@@ -0,0 +1,265 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+*   Pages of ints kept in a temporary page file, with at most a set number of bytes of them in memory.
+*   Pages are read in on demand and the least recently used are dropped (written back first if changed),
+*   so a page is written once while loading, and the data can be much larger than memory.  A miss on
+*   the page after the last one missed reads the next few pages in the same read, for sequential scans.
+*   Pages may be read and written from several threads.  The page file is only open while pages are
+*   read or written back.
+*/
+public class PageCache {
+
+    final static int READ_AHEAD = 4;    //Pages read at once in a sequential scan
+    final static int RECENT = 16;       //Slots for recently used pages, checked without locking
+
+    private final File file;
+    private final long[] offset;        //Position of each page in the file (pages are stored in order)
+    private final int[] cells;          //Ints in each page
+    private final long budget;          //Bytes of pages to keep in memory
+    private final LinkedHashMap<Integer, Page> cached = new LinkedHashMap<Integer, Page>(16, 0.75f, true);
+    private final BitSet written = new BitSet();    //Pages in the file
+    private final Page[] recent = new Page[RECENT];
+    private Page writing = null;        //The page last written
+    private FileChannel fc = null;      //Open only during load()
+    private long bytesCached = 0;
+    private int lastMiss = -2;
+
+    /**
+    *   Create a cache over a new temporary page file
+    *
+    *   @param cells The number of ints in each page
+    *   @param budget The number of bytes of pages to keep in memory (at least READ_AHEAD + minPages pages are kept)
+    *   @param minPages The number of pages used together, which are always kept
+    *   @param dir Directory for the page file, or null for the system temporary directory
+    *   @throws IOException If the page file can't be created
+    */
+    public PageCache(int[] cells, long budget, int minPages, File dir) throws IOException {
+        this.cells = cells;
+        offset = new long[cells.length];
+        long pos = 0;
+        long largest = 0;
+        for (int p=0; p < cells.length; p++) {
+            offset[p] = pos;
+            pos += cells[p] * 4L;
+            largest = Math.max(largest, cells[p] * 4L);
+        }
+        this.budget = Math.max(budget, largest * (READ_AHEAD + minPages));
+
+        file = File.createTempFile("VarSifter", ".pages", dir);
+        file.deleteOnExit();
+    }
+
+
+    /**
+    *   Return a page to read
+    *
+    *   @param page The page
+    *   @return The page's values.  Only valid until the page is next changed.
+    */
+    public IntBuffer get(int page) {
+        Page p = recent[page & (RECENT - 1)];
+        if (p != null && p.page == page) {
+            if (!p.used) {
+                p.used = true;      //Not moved in the LRU order here, so trim() gives it another chance
+            }
+            return p.values;
+        }
+        return load(page).values;
+    }
+
+
+    /**
+    *   Change one value
+    *
+    *   @param page The page
+    *   @param index The value's index in the page
+    *   @param value The new value
+    */
+    public synchronized void put(int page, int index, int value) {
+        Page p = writing;
+        if (p == null || p.page != page) {
+            p = load(page);
+            p.dirty = true;
+            writing = p;
+        }
+        else if (!p.used) {
+            p.used = true;
+        }
+        p.values.put(index, value);
+    }
+
+
+    /**
+    *   Drop a page that won't be used again, without writing it back
+    *
+    *   @param page The page
+    */
+    public synchronized void discard(int page) {
+        Page p = cached.remove(page);
+        if (p != null) {
+            forget(p);
+        }
+        written.clear(page);
+    }
+
+
+    private synchronized Page load(int page) {
+        Page p = cached.get(page);
+        if (p == null) {
+            try {
+                fc = new RandomAccessFile(file, "rw").getChannel();
+                try {
+                    if (written.get(page) && page == lastMiss + 1) {
+                        readAhead(page);
+                        p = cached.get(page);
+                    }
+                    else {
+                        p = read(page);
+                        add(p);
+                    }
+                    lastMiss = page;
+                    trim(p);
+                }
+                finally {
+                    fc.close();
+                    fc = null;
+                }
+            }
+            catch (IOException ioe) {
+                throw new RuntimeException("Can't read the sample data page file", ioe);
+            }
+        }
+        recent[page & (RECENT - 1)] = p;
+        return p;
+    }
+
+
+    /**
+    *   Read a page and the uncached pages after it (up to READ_AHEAD in all) with one read
+    */
+    private void readAhead(int page) throws IOException {
+        int n = 1;
+        while (n < READ_AHEAD && page + n < cells.length && written.get(page + n) && !cached.containsKey(page + n)) {
+            n++;
+        }
+        ByteBuffer[] bufs = new ByteBuffer[n];
+        for (int k=0; k < n; k++) {
+            bufs[k] = ByteBuffer.allocate(cells[page + k] * 4).order(ByteOrder.nativeOrder());
+        }
+        fc.position(offset[page]);
+        long want = offset[page + n - 1] + cells[page + n - 1] * 4L - offset[page];
+        long got = 0;
+        while (got < want) {
+            long r = fc.read(bufs);
+            if (r < 0) {
+                throw new IOException("Unexpected end of page file");
+            }
+            got += r;
+        }
+        for (int k=0; k < n; k++) {
+            bufs[k].clear();
+            add(new Page(page + k, bufs[k]));
+        }
+    }
+
+
+    private Page read(int page) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(cells[page] * 4).order(ByteOrder.nativeOrder());
+        if (written.get(page)) {
+            long pos = offset[page];
+            while (buf.hasRemaining()) {
+                if (fc.read(buf, pos + buf.position()) < 0) {
+                    throw new IOException("Unexpected end of page file");
+                }
+            }
+            buf.clear();
+        }
+        return new Page(page, buf);
+    }
+
+
+    private void add(Page p) {
+        cached.put(p.page, p);
+        bytesCached += p.bytes.capacity();
+    }
+
+
+    /**
+    *   Drop least recently used pages until within budget, writing back changed ones.  A page used through
+    *   a fast path since it was last moved is moved to the most recently used end instead, once.
+    *
+    *   @param keep The page just loaded, which is kept
+    */
+    private void trim(Page keep) throws IOException {
+        int chances = cached.size();
+        Iterator<Map.Entry<Integer, Page>> it = cached.entrySet().iterator();
+        while (bytesCached > budget && it.hasNext()) {
+            Page p = it.next().getValue();
+            if (p == keep) {
+                continue;
+            }
+            if (p.used && chances > 0) {
+                p.used = false;
+                chances--;
+                cached.get(p.page);     //Moves it to the end
+                it = cached.entrySet().iterator();
+                continue;
+            }
+            if (p.dirty) {
+                ByteBuffer buf = p.bytes.duplicate();
+                buf.clear();
+                long pos = offset[p.page];
+                while (buf.hasRemaining()) {
+                    fc.write(buf, pos + buf.position());
+                }
+                written.set(p.page);
+            }
+            it.remove();
+            forget(p);
+        }
+    }
+
+
+    /**
+    *   Account for a page no longer cached
+    */
+    private void forget(Page p) {
+        bytesCached -= p.bytes.capacity();
+        int slot = p.page & (RECENT - 1);
+        if (recent[slot] == p) {
+            recent[slot] = null;
+        }
+        if (writing == p) {
+            writing = null;
+        }
+    }
+
+
+    /**
+    *   One page in memory
+    */
+    private static class Page {
+        final int page;
+        final ByteBuffer bytes;
+        final IntBuffer values;
+        boolean dirty = false;
+        volatile boolean used = false;  //Used through a fast path since last moved in the LRU order
+
+        Page(int page, ByteBuffer bytes) {
+            this.page = page;
+            this.bytes = bytes;
+            values = bytes.asIntBuffer();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/**
+*   Runs a custom query parsed by QueryParser.  Gives the same result as the VSQueryModule that
+*   CompileCustomQuery builds with javac for the same query, but needs no compiler (works on a plain JRE).
+*/
+public class ParsedQueryModule implements AbstractQueryModule {
+
+    private QueryNode root;
+    private QueryContext context;
+
+    /**
+    *   Prepare a parsed query for running against a VarData object
+    *
+    *   @param root The parsed query
+    *   @param vdat The VarData object to query
+    */
+    public ParsedQueryModule(QueryNode root, VarData vdat) {
+        this.root = root;
+        context = new QueryContext(vdat);
+    }
+
+
+    /**
+    *   Execute the query over a range of rows.  Parts of the query that can be answered from bitmaps
+    *   (genotype classes, indexed annotation values) are evaluated once over the whole table, and shared
+    *   by all ranges; the rest are tested row by row, only on rows of the range still in question.  Each
+    *   call uses its own copy of the row state.
+    *   @param start First row (in VarData.data) to test
+    *   @param end One past the last row to test
+    *   @param out CompressedBitSet where bits corresponding to rows passing the query are set
+    */
+    public void executeCustomQuery(int start, int end, CompressedBitSet out) {
+        CompressedBitSet range = new CompressedBitSet(end - start);
+        range.set(start, end);
+        out.or(root.getRows(new QueryContext(context), range));
+    }
+}
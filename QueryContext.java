@@ -0,0 +1,142 @@
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+*   The data and per-row state a custom query is evaluated against: the same variables that the
+*   javac-compiled VSQueryModule declares (allData, sampData, homRefGen, isHet(), ...).
+*/
+public class QueryContext {
+
+    public final static Pattern HET_PAT = Pattern.compile(
+        "^([acgtACGT])(?!\\1)[acgtACGT]$|^([acgtnACGTN'*]+):(?!\\2$)[acgtnACGTN'*]+$");
+    public final static Pattern HOM_PAT = Pattern.compile(
+        "^([acgtnACGTN])\\1$|^([acgtnACGTN'*]+):\\2$");
+
+    final VarData vdat;
+    final AnnotationStore allData;
+    final SampleStore sampData;
+    final AbstractMapper[] annotMapper;
+    final AbstractMapper[] sampleMapper;
+    final CompressedBitSet[] bitSets;
+    final BitSet hetBS;
+    final BitSet homBS;
+    final int mutTypeIndex;
+    final int indel;
+    final int NA_Allele;
+    private final Map<QueryNode, CompressedBitSet> indexed;    //Bitmaps of indexed nodes, shared by copies
+
+    int i;              //Current row
+    int muttype;        //Re-assigned for each data row
+    private int[][] genotypeCodes = null;       //homRefGen, homNonRefGen, hemiRefGen, hemiVarGen of each row
+
+    /**
+    *   Create a context for querying a VarData object
+    *
+    *   @param vdat The VarData object to query
+    */
+    public QueryContext(VarData vdat) {
+        this(vdat, vdat.getCustomBitSet());
+    }
+
+
+    /**
+    *   Create a context for querying a VarData object, with search BitSets not (yet) set in the VarData object
+    *
+    *   @param vdat The VarData object to query
+    *   @param bitSets The BitSets of matching dictionary values used by bitSets[k].get() in the query
+    */
+    public QueryContext(VarData vdat, CompressedBitSet[] bitSets) {
+        this.vdat = vdat;
+        allData = vdat.returnAnnotationStore();
+        sampData = vdat.returnSampleStore();
+        this.bitSets = bitSets;
+        annotMapper = vdat.returnAnnotMap();
+        sampleMapper = vdat.returnSampleMap();
+        hetBS = sampleMapper[0].filterWithPattern(HET_PAT);
+        homBS = sampleMapper[0].filterWithPattern(HOM_PAT);
+        mutTypeIndex = vdat.returnDataTypeAt().get("muttype");
+        indel = annotMapper[mutTypeIndex].getIndexOf("INDEL");
+        NA_Allele = sampleMapper[0].getIndexOf("NA");
+        indexed = new IdentityHashMap<QueryNode, CompressedBitSet>();
+    }
+
+
+    /**
+    *   Create a context sharing another's data, with its own row state (for use on another thread)
+    *
+    *   @param other The context to copy
+    */
+    public QueryContext(QueryContext other) {
+        vdat = other.vdat;
+        allData = other.allData;
+        sampData = other.sampData;
+        bitSets = other.bitSets;
+        annotMapper = other.annotMapper;
+        sampleMapper = other.sampleMapper;
+        hetBS = other.hetBS;
+        homBS = other.homBS;
+        mutTypeIndex = other.mutTypeIndex;
+        indel = other.indel;
+        NA_Allele = other.NA_Allele;
+        indexed = other.indexed;
+    }
+
+
+    /**
+    *   Return a node's rows over the whole table from bitmaps, evaluated once for this context and its copies
+    *
+    *   @param node A node with an index
+    *   @return The rows for which the node is true (not to be changed), or null if it can't be answered from bitmaps
+    */
+    CompressedBitSet indexedRows(QueryNode node) {
+        synchronized (indexed) {
+            if (!indexed.containsKey(node)) {
+                indexed.put(node, node.getIndexedRows(this));
+            }
+            return indexed.get(node);
+        }
+    }
+
+
+    /**
+    *   Move to a new row
+    *
+    *   @param row The row (in VarData.data) to evaluate next
+    */
+    void setRow(int row) {
+        i = row;
+        muttype = allData.get(i, mutTypeIndex);
+    }
+
+
+    /**
+    *   Return one of this row's genotype codes.  Codes are only fetched if the query uses them.
+    *
+    *   @param genClass VarData.HOM_REF_GEN, HOM_NON_REF_GEN, HEMI_REF_GEN or HEMI_VAR_GEN
+    *   @return The genotype code (index in sampleMapper[0]), or -1 if not present
+    */
+    int genotypeCode(int genClass) {
+        if (genotypeCodes == null) {
+            genotypeCodes = vdat.returnGenotypeCodes();
+        }
+        return genotypeCodes[genClass][i];
+    }
+
+
+    boolean isHet(int genoIndex) {
+        if (hetBS.get(genoIndex)) {
+            return !(muttype == indel && !sampleMapper[0].getString(genoIndex).contains(":"));
+        }
+        return false;
+    }
+
+
+    boolean isHom(int genoIndex) {
+        if (homBS.get(genoIndex)) {
+            return !(muttype == indel && !sampleMapper[0].getString(genoIndex).contains(":"));
+        }
+        return false;
+    }
+}
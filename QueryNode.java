@@ -0,0 +1,137 @@
+/**
+*   A node in a parsed custom query.  Each node evaluates to a boolean, an int, a float or a double
+*   for the row currently set in a QueryContext, following Java's rules for the same expression.
+*   Float values are carried as doubles, rounded to float precision.
+*/
+public abstract class QueryNode {
+
+    final static int BOOLEAN = 0;
+    final static int INT = 1;
+    final static int FLOAT = 2;
+    final static int DOUBLE = 3;
+
+    final static int FEW_CANDIDATES = 32;   //Candidates are tested one by one if under 1 in this many rows of their span
+
+    final int type;
+    boolean constant = false;   //True if the value does not depend on the row
+
+    /**
+    *   Create a node
+    *
+    *   @param type BOOLEAN, INT, FLOAT or DOUBLE
+    */
+    QueryNode(int type) {
+        this.type = type;
+    }
+
+
+    /**
+    *   Evaluate a BOOLEAN node
+    *
+    *   @param c The context, set to the row to evaluate
+    *   @return The value for this row
+    */
+    boolean getBoolean(QueryContext c) {
+        throw new UnsupportedOperationException("Not a boolean expression");
+    }
+
+
+    /**
+    *   Evaluate an INT node
+    *
+    *   @param c The context, set to the row to evaluate
+    *   @return The value for this row
+    */
+    int getInt(QueryContext c) {
+        throw new UnsupportedOperationException("Not an int expression");
+    }
+
+
+    /**
+    *   Evaluate an INT, FLOAT or DOUBLE node as a number
+    *
+    *   @param c The context, set to the row to evaluate
+    *   @return The value for this row
+    */
+    double getNumber(QueryContext c) {
+        return getInt(c);
+    }
+
+
+    /**
+    *   Evaluate a BOOLEAN node over many rows at once.  Nodes that can be answered from existing bitmaps
+    *   are, unless there are few candidates: the bitmap is built once over all rows (and shared by all
+    *   copies of the context), then restricted to the candidates.  Otherwise the candidates are tested.
+    *
+    *   @param c The context
+    *   @param candidates Rows to evaluate
+    *   @return A new CompressedBitSet with the candidate rows for which this node is true
+    */
+    final CompressedBitSet getRows(QueryContext c, CompressedBitSet candidates) {
+        if (hasIndex(c) && !isSparse(candidates)) {
+            CompressedBitSet rows = c.indexedRows(this);
+            if (rows != null) {
+                CompressedBitSet out = (CompressedBitSet)candidates.clone();
+                out.and(rows);
+                return out;
+            }
+        }
+        return testRows(c, candidates);
+    }
+
+
+    /**
+    *   Evaluate a BOOLEAN node over many rows by testing each in turn.  Logical operators override this
+    *   to pass on only the rows still in question.
+    *
+    *   @param c The context
+    *   @param candidates Rows to evaluate
+    *   @return A new CompressedBitSet with the candidate rows for which this node is true
+    */
+    CompressedBitSet testRows(QueryContext c, CompressedBitSet candidates) {
+        CompressedBitSet out = new CompressedBitSet();
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i+1)) {
+            c.setRow(i);
+            if (getBoolean(c)) {
+                out.set(i);
+            }
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return whether getIndexedRows() can answer this node from bitmaps (genotype classes, bitmap indexes)
+    *
+    *   @param c The context
+    *   @return True if the node has an index
+    */
+    boolean hasIndex(QueryContext c) {
+        return false;
+    }
+
+
+    /**
+    *   Evaluate a BOOLEAN node over all rows using only bitmaps (genotype classes, indexed annotation
+    *   values), without testing rows one by one
+    *
+    *   @param c The context
+    *   @return A new CompressedBitSet with the rows for which this node is true, or null if this node
+    *           can't be answered from bitmaps
+    */
+    CompressedBitSet getIndexedRows(QueryContext c) {
+        return null;
+    }
+
+
+    /**
+    *   Return true if candidates are few for the rows they span, so testing them beats a whole-table bitmap
+    */
+    private static boolean isSparse(CompressedBitSet candidates) {
+        int first = candidates.nextSetBit(0);
+        if (first < 0) {
+            return true;
+        }
+        return (long)candidates.cardinality() * FEW_CANDIDATES < candidates.length() - first;
+    }
+}
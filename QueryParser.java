@@ -0,0 +1,1009 @@
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+*   Parses a custom query, as built by CustomQueryView (a Java boolean expression over allData, sampData,
+*   bitSets, isHet(), ...), into a tree of QueryNodes that can be evaluated without compiling any code.
+*   Operator precedence and numeric promotion follow Java.  Anything outside the subset understood here
+*   throws a ParseException, so the caller can fall back to compiling the query with javac.
+*/
+public class QueryParser {
+
+    private List<String> tokens = new ArrayList<String>();
+    private List<Integer> tokenStart = new ArrayList<Integer>();
+    private int pos = 0;
+
+    /**
+    *   Parse a query
+    *
+    *   @param query The query (an if-statement condition)
+    *   @return The root of the parsed query
+    *   @throws ParseException if the query is not in the supported subset
+    */
+    public static QueryNode parse(String query) throws ParseException {
+        QueryParser p = new QueryParser(query);
+        QueryNode root = p.parseOr();
+        if (p.pos < p.tokens.size()) {
+            throw p.error("Unexpected \"" + p.peek() + "\"");
+        }
+        if (root.type != QueryNode.BOOLEAN) {
+            throw new ParseException("Query is not a true/false expression", 0);
+        }
+        return root;
+    }
+
+
+    private QueryParser(String query) throws ParseException {
+        tokenize(query);
+    }
+
+
+    /* ********
+    *   Tokens
+    *  ********
+    */
+
+    private void tokenize(String q) throws ParseException {
+        int i = 0;
+        while (i < q.length()) {
+            char ch = q.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(ch)) {
+                i++;
+                continue;
+            }
+            else if (Character.isLetter(ch) || ch == '_') {
+                while (i < q.length() && (Character.isLetterOrDigit(q.charAt(i)) || q.charAt(i) == '_')) {
+                    i++;
+                }
+            }
+            else if (Character.isDigit(ch) || (ch == '.' && i+1 < q.length() && Character.isDigit(q.charAt(i+1)))) {
+                while (i < q.length() && (Character.isDigit(q.charAt(i)) || q.charAt(i) == '.')) {
+                    i++;
+                }
+                if (i < q.length() && (q.charAt(i) == 'e' || q.charAt(i) == 'E')) {
+                    i++;
+                    if (i < q.length() && (q.charAt(i) == '+' || q.charAt(i) == '-')) {
+                        i++;
+                    }
+                    while (i < q.length() && Character.isDigit(q.charAt(i))) {
+                        i++;
+                    }
+                }
+                if (i < q.length() && "fFdD".indexOf(q.charAt(i)) >= 0) {
+                    i++;
+                }
+            }
+            else if (i+1 < q.length() && isTwoCharOp(q.substring(i, i+2))) {
+                i += 2;
+            }
+            else if ("()[].,!~&|^<>+-*/%".indexOf(ch) >= 0) {
+                i++;
+            }
+            else {
+                throw new ParseException("Unexpected character '" + ch + "'", i);
+            }
+            tokens.add(q.substring(start, i));
+            tokenStart.add(start);
+        }
+    }
+
+
+    private static boolean isTwoCharOp(String s) {
+        return (s.equals("&&") || s.equals("||") || s.equals("==") || s.equals("!=")
+                || s.equals("<=") || s.equals(">="));
+    }
+
+
+    private String peek() {
+        return (pos < tokens.size()) ? tokens.get(pos) : "";
+    }
+
+
+    private String peek(int ahead) {
+        return (pos + ahead < tokens.size()) ? tokens.get(pos + ahead) : "";
+    }
+
+
+    private boolean accept(String t) {
+        if (peek().equals(t)) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+
+    private void expect(String t) throws ParseException {
+        if (!accept(t)) {
+            throw error("Expected \"" + t + "\" but found \"" + peek() + "\"");
+        }
+    }
+
+
+    private ParseException error(String message) {
+        int offset = (pos < tokenStart.size()) ? tokenStart.get(pos) : 0;
+        return new ParseException(message, offset);
+    }
+
+
+    /**
+    *   Parse "[ N ]", where N is an integer literal
+    */
+    private int parseIndex() throws ParseException {
+        expect("[");
+        String t = peek();
+        int index;
+        try {
+            index = Integer.parseInt(t);
+        }
+        catch (NumberFormatException nfe) {
+            throw error("Expected a number but found \"" + t + "\"");
+        }
+        pos++;
+        expect("]");
+        return index;
+    }
+
+
+    /* ********
+    *   Expressions, lowest precedence first
+    *  ********
+    */
+
+    private QueryNode parseOr() throws ParseException {
+        QueryNode left = parseAnd();
+        while (accept("||")) {
+            left = conditional("||", left, parseAnd());
+        }
+        return left;
+    }
+
+
+    private QueryNode parseAnd() throws ParseException {
+        QueryNode left = parseBitOr();
+        while (accept("&&")) {
+            left = conditional("&&", left, parseBitOr());
+        }
+        return left;
+    }
+
+
+    private QueryNode parseBitOr() throws ParseException {
+        QueryNode left = parseBitXor();
+        while (accept("|")) {
+            left = bitwise("|", left, parseBitXor());
+        }
+        return left;
+    }
+
+
+    private QueryNode parseBitXor() throws ParseException {
+        QueryNode left = parseBitAnd();
+        while (accept("^")) {
+            left = bitwise("^", left, parseBitAnd());
+        }
+        return left;
+    }
+
+
+    private QueryNode parseBitAnd() throws ParseException {
+        QueryNode left = parseEquality();
+        while (accept("&")) {
+            left = bitwise("&", left, parseEquality());
+        }
+        return left;
+    }
+
+
+    private QueryNode parseEquality() throws ParseException {
+        QueryNode left = parseRelational();
+        while (peek().equals("==") || peek().equals("!=")) {
+            String op = tokens.get(pos++);
+            left = compare(op, left, parseRelational());
+        }
+        return left;
+    }
+
+
+    private QueryNode parseRelational() throws ParseException {
+        QueryNode left = parseAdditive();
+        while (peek().equals("<") || peek().equals(">") || peek().equals("<=") || peek().equals(">=")) {
+            String op = tokens.get(pos++);
+            left = compare(op, left, parseAdditive());
+        }
+        return left;
+    }
+
+
+    private QueryNode parseAdditive() throws ParseException {
+        QueryNode left = parseMultiplicative();
+        while (peek().equals("+") || peek().equals("-")) {
+            String op = tokens.get(pos++);
+            left = arithmetic(op.charAt(0), left, parseMultiplicative());
+        }
+        return left;
+    }
+
+
+    private QueryNode parseMultiplicative() throws ParseException {
+        QueryNode left = parseUnary();
+        while (peek().equals("*") || peek().equals("/") || peek().equals("%")) {
+            String op = tokens.get(pos++);
+            left = arithmetic(op.charAt(0), left, parseUnary());
+        }
+        return left;
+    }
+
+
+    private QueryNode parseUnary() throws ParseException {
+        if (accept("!")) {
+            return new NotNode(requireType(parseUnary(), QueryNode.BOOLEAN, "!"));
+        }
+        else if (accept("~")) {
+            return new ComplementNode(requireType(parseUnary(), QueryNode.INT, "~"));
+        }
+        else if (accept("-")) {
+            final QueryNode n = requireNumeric(parseUnary(), "-");
+            QueryNode out;
+            if (n.type == QueryNode.INT) {
+                out = new QueryNode(QueryNode.INT) {
+                    int getInt(QueryContext c) { return -n.getInt(c); }
+                };
+            }
+            else {
+                out = new QueryNode(n.type) {
+                    double getNumber(QueryContext c) { return -n.getNumber(c); }
+                };
+            }
+            out.constant = n.constant;
+            return out;
+        }
+        else if (accept("+")) {
+            return requireNumeric(parseUnary(), "+");
+        }
+        else if (peek().equals("(") && peek(2).equals(")")
+                 && (peek(1).equals("int") || peek(1).equals("float") || peek(1).equals("double"))) {
+            pos++;
+            String castType = tokens.get(pos++);
+            pos++;
+            return cast(castType, requireNumeric(parseUnary(), "(" + castType + ")"));
+        }
+        return parsePrimary();
+    }
+
+
+    private QueryNode parsePrimary() throws ParseException {
+        String t = peek();
+        if (t.length() == 0) {
+            throw error("Unexpected end of query");
+        }
+        if (Character.isDigit(t.charAt(0)) || t.charAt(0) == '.') {
+            pos++;
+            return literal(t);
+        }
+        if (accept("(")) {
+            QueryNode n = parseOr();
+            expect(")");
+            return n;
+        }
+        pos++;
+        if (t.equals("allData")) {
+            expect("[");
+            expect("i");
+            expect("]");
+            return new ColumnNode(parseIndex());
+        }
+        else if (t.equals("sampData")) {
+            expect("[");
+            expect("i");
+            expect("]");
+            int sample = parseIndex();
+            return new SampleFieldNode(sample, parseIndex());
+        }
+        else if (t.equals("bitSets")) {
+            int index = parseIndex();
+            expect(".");
+            expect("get");
+            return new BitSetLookupNode(index, parseIntArgument("bitSets.get"));
+        }
+        else if (t.equals("annotMapper")) {
+            final int col = parseIndex();
+            expect(".");
+            expect("getFloat");
+            final QueryNode arg = parseIntArgument("getFloat");
+            return new QueryNode(QueryNode.FLOAT) {
+                double getNumber(QueryContext c) { return c.annotMapper[col].getFloat(arg.getInt(c)); }
+            };
+        }
+        else if (t.equals("Math")) {
+            expect(".");
+            expect("pow");
+            expect("(");
+            final QueryNode a = requireNumeric(parseOr(), "Math.pow");
+            expect(",");
+            final QueryNode b = requireNumeric(parseOr(), "Math.pow");
+            expect(")");
+            QueryNode out = new QueryNode(QueryNode.DOUBLE) {
+                double getNumber(QueryContext c) { return Math.pow(a.getNumber(c), b.getNumber(c)); }
+            };
+            out.constant = (a.constant && b.constant);
+            return out;
+        }
+        else if (t.equals("isHet")) {
+            return new ZygosityNode(VarData.HET_GEN, parseIntArgument(t));
+        }
+        else if (t.equals("isHom")) {
+            return new ZygosityNode(VarData.HOM_GEN, parseIntArgument(t));
+        }
+        else if (t.equals("homRefGen")) {
+            return new GenotypeNode(VarData.HOM_REF_GEN);
+        }
+        else if (t.equals("homNonRefGen")) {
+            return new GenotypeNode(VarData.HOM_NON_REF_GEN);
+        }
+        else if (t.equals("hemiRefGen")) {
+            return new GenotypeNode(VarData.HEMI_REF_GEN);
+        }
+        else if (t.equals("hemiVarGen")) {
+            return new GenotypeNode(VarData.HEMI_VAR_GEN);
+        }
+        else if (t.equals("NA_Allele")) {
+            return new GenotypeNode(VarData.NA_GEN);
+        }
+        else if (t.equals("indel")) {
+            return new QueryNode(QueryNode.INT) {
+                int getInt(QueryContext c) { return c.indel; }
+            };
+        }
+        else if (t.equals("muttype")) {
+            return new QueryNode(QueryNode.INT) {
+                int getInt(QueryContext c) { return c.muttype; }
+            };
+        }
+        else if (t.equals("i")) {
+            return new QueryNode(QueryNode.INT) {
+                int getInt(QueryContext c) { return c.i; }
+            };
+        }
+        else if (t.equals("true") || t.equals("false")) {
+            final boolean value = t.equals("true");
+            QueryNode out = new QueryNode(QueryNode.BOOLEAN) {
+                boolean getBoolean(QueryContext c) { return value; }
+            };
+            out.constant = true;
+            return out;
+        }
+        pos--;
+        throw error("Unknown name \"" + t + "\"");
+    }
+
+
+    /**
+    *   Parse "( expr )", where expr is an int
+    */
+    private QueryNode parseIntArgument(String name) throws ParseException {
+        expect("(");
+        QueryNode arg = requireType(parseOr(), QueryNode.INT, name);
+        expect(")");
+        return arg;
+    }
+
+
+    /* ********
+    *   Node construction
+    *  ********
+    */
+
+    private QueryNode literal(String t) throws ParseException {
+        QueryNode out;
+        try {
+            char last = t.charAt(t.length() - 1);
+            if (last == 'f' || last == 'F') {
+                final double value = Float.parseFloat(t);
+                out = new QueryNode(QueryNode.FLOAT) {
+                    double getNumber(QueryContext c) { return value; }
+                };
+            }
+            else if (last == 'd' || last == 'D' || t.indexOf('.') >= 0 || t.indexOf('e') >= 0 || t.indexOf('E') >= 0) {
+                final double value = Double.parseDouble(t);
+                out = new QueryNode(QueryNode.DOUBLE) {
+                    double getNumber(QueryContext c) { return value; }
+                };
+            }
+            else {
+                final int value = Integer.parseInt(t);
+                out = new QueryNode(QueryNode.INT) {
+                    int getInt(QueryContext c) { return value; }
+                };
+            }
+        }
+        catch (NumberFormatException nfe) {
+            pos--;
+            throw error("Bad number \"" + t + "\"");
+        }
+        out.constant = true;
+        return out;
+    }
+
+
+    private QueryNode requireType(QueryNode n, int type, String op) throws ParseException {
+        if (n.type != type) {
+            throw error("Wrong type of value for " + op);
+        }
+        return n;
+    }
+
+
+    private QueryNode requireNumeric(QueryNode n, String op) throws ParseException {
+        if (n.type == QueryNode.BOOLEAN) {
+            throw error("Expected a number for " + op);
+        }
+        return n;
+    }
+
+
+    /**
+    *   Return the type both operands are promoted to (Java binary numeric promotion)
+    */
+    private static int promotedType(QueryNode a, QueryNode b) {
+        return Math.max(a.type, b.type);
+    }
+
+
+    /**
+    *   Evaluate a numeric node, promoted to type
+    */
+    private static double promote(QueryNode n, int type, QueryContext c) {
+        if (n.type == QueryNode.INT) {
+            int v = n.getInt(c);
+            return (type == QueryNode.FLOAT) ? (double)(float)v : (double)v;
+        }
+        return n.getNumber(c);
+    }
+
+
+    /**
+    *   Return the bitmap index of a non-MULTISTRING annotation column, or null if it has none
+    */
+    private static BitmapIndex valueIndex(QueryContext c, int col) {
+        BitmapIndex bi = c.vdat.returnBitmapIndex(col);
+        return (bi != null && bi.getDataType() != VarData.MULTISTRING) ? bi : null;
+    }
+
+
+    /**
+    *   Return the bitmap index of a MULTISTRING annotation column, or null if it has none
+    */
+    private static BitmapIndex flagIndex(QueryContext c, int col) {
+        BitmapIndex bi = c.vdat.returnBitmapIndex(col);
+        return (bi != null && bi.getDataType() == VarData.MULTISTRING) ? bi : null;
+    }
+
+
+    /**
+    *   Return all rows not in rows
+    */
+    private static CompressedBitSet complement(QueryContext c, CompressedBitSet rows) {
+        CompressedBitSet out = new CompressedBitSet(c.allData.size());
+        out.set(0, c.allData.size());
+        out.andNot(rows);
+        return out;
+    }
+
+
+    private QueryNode conditional(String op, QueryNode a, QueryNode b) throws ParseException {
+        requireType(a, QueryNode.BOOLEAN, op);
+        requireType(b, QueryNode.BOOLEAN, op);
+        return new LogicalNode(op.equals("&&") ? '&' : '|', a, b);
+    }
+
+
+    private QueryNode bitwise(String op, QueryNode a, QueryNode b) throws ParseException {
+        if (a.type == QueryNode.BOOLEAN && b.type == QueryNode.BOOLEAN) {
+            return new LogicalNode(op.charAt(0), a, b);
+        }
+        requireType(a, QueryNode.INT, op);
+        requireType(b, QueryNode.INT, op);
+        return new BitwiseNode(op.charAt(0), a, b);
+    }
+
+
+    private QueryNode compare(String op, QueryNode a, QueryNode b) throws ParseException {
+        boolean equality = (op.equals("==") || op.equals("!="));
+        if (!(equality && a.type == QueryNode.BOOLEAN && b.type == QueryNode.BOOLEAN)) {
+            requireNumeric(a, op);
+            requireNumeric(b, op);
+        }
+        return new CompareNode(op, a, b);
+    }
+
+
+    private QueryNode arithmetic(final char o, final QueryNode a, final QueryNode b) throws ParseException {
+        requireNumeric(a, String.valueOf(o));
+        requireNumeric(b, String.valueOf(o));
+        final int type = promotedType(a, b);
+        QueryNode out;
+        if (type == QueryNode.INT) {
+            out = new QueryNode(QueryNode.INT) {
+                int getInt(QueryContext c) {
+                    int x = a.getInt(c);
+                    int y = b.getInt(c);
+                    switch (o) {
+                        case '+': return x + y;
+                        case '-': return x - y;
+                        case '*': return x * y;
+                        case '/': return x / y;
+                        default:  return x % y;
+                    }
+                }
+            };
+        }
+        else {
+            out = new QueryNode(type) {
+                double getNumber(QueryContext c) {
+                    double x = promote(a, type, c);
+                    double y = promote(b, type, c);
+                    double r;
+                    switch (o) {
+                        case '+': r = x + y; break;
+                        case '-': r = x - y; break;
+                        case '*': r = x * y; break;
+                        case '/': r = x / y; break;
+                        default:  r = x % y; break;
+                    }
+                    return (type == QueryNode.FLOAT) ? (double)(float)r : r;
+                }
+            };
+        }
+        out.constant = (a.constant && b.constant);
+        return out;
+    }
+
+
+    private QueryNode cast(String castType, final QueryNode n) {
+        QueryNode out;
+        if (castType.equals("int")) {
+            if (n.type == QueryNode.INT) {
+                return n;
+            }
+            out = new QueryNode(QueryNode.INT) {
+                int getInt(QueryContext c) { return (int)n.getNumber(c); }
+            };
+        }
+        else {
+            final boolean toFloat = castType.equals("float");
+            out = new QueryNode(toFloat ? QueryNode.FLOAT : QueryNode.DOUBLE) {
+                double getNumber(QueryContext c) {
+                    double v = (n.type == QueryNode.INT) ? (double)n.getInt(c) : n.getNumber(c);
+                    return toFloat ? (double)(float)v : v;
+                }
+            };
+        }
+        out.constant = n.constant;
+        return out;
+    }
+
+
+    /* ********
+    *   Nodes that can be evaluated as bitmap operations over all rows
+    *  ********
+    */
+
+    /**
+    *   allData[i][col]
+    */
+    static class ColumnNode extends QueryNode {
+        final int col;
+
+        ColumnNode(int col) {
+            super(QueryNode.INT);
+            this.col = col;
+        }
+
+        int getInt(QueryContext c) {
+            return c.allData.get(c.i, col);
+        }
+    }
+
+
+    /**
+    *   sampData[i][sample][field]
+    */
+    static class SampleFieldNode extends QueryNode {
+        final int sample;
+        final int field;
+
+        SampleFieldNode(int sample, int field) {
+            super(QueryNode.INT);
+            this.sample = sample;
+            this.field = field;
+        }
+
+        int getInt(QueryContext c) {
+            return c.sampData.get(c.i, sample, field);
+        }
+
+        boolean isGenotype() {
+            return (field == 0);
+        }
+    }
+
+
+    /**
+    *   homRefGen, homNonRefGen, hemiRefGen, hemiVarGen (per row) and NA_Allele
+    */
+    static class GenotypeNode extends QueryNode {
+        final int genClass;
+
+        GenotypeNode(int genClass) {
+            super(QueryNode.INT);
+            this.genClass = genClass;
+        }
+
+        int getInt(QueryContext c) {
+            return (genClass == VarData.NA_GEN) ? c.NA_Allele : c.genotypeCode(genClass);
+        }
+    }
+
+
+    /**
+    *   isHet(x), isHom(x)
+    */
+    static class ZygosityNode extends QueryNode {
+        final int genClass;
+        final QueryNode arg;
+
+        ZygosityNode(int genClass, QueryNode arg) {
+            super(QueryNode.BOOLEAN);
+            this.genClass = genClass;
+            this.arg = arg;
+        }
+
+        boolean getBoolean(QueryContext c) {
+            int g = arg.getInt(c);
+            return (genClass == VarData.HET_GEN) ? c.isHet(g) : c.isHom(g);
+        }
+
+        boolean hasIndex(QueryContext c) {
+            return (arg instanceof SampleFieldNode && ((SampleFieldNode)arg).isGenotype());
+        }
+
+        CompressedBitSet getIndexedRows(QueryContext c) {
+            if (hasIndex(c)) {
+                return c.vdat.returnGenotypeClassRows(((SampleFieldNode)arg).sample, genClass);
+            }
+            return null;
+        }
+    }
+
+
+    /**
+    *   bitSets[index].get(x)
+    */
+    static class BitSetLookupNode extends QueryNode {
+        final int index;
+        final QueryNode arg;
+
+        BitSetLookupNode(int index, QueryNode arg) {
+            super(QueryNode.BOOLEAN);
+            this.index = index;
+            this.arg = arg;
+        }
+
+        boolean getBoolean(QueryContext c) {
+            return c.bitSets[index].get(arg.getInt(c));
+        }
+
+        boolean hasIndex(QueryContext c) {
+            return (arg instanceof ColumnNode && valueIndex(c, ((ColumnNode)arg).col) != null);
+        }
+
+        CompressedBitSet getIndexedRows(QueryContext c) {
+            if (hasIndex(c)) {
+                return valueIndex(c, ((ColumnNode)arg).col).getRowsIn(c.bitSets[index].toBitSet());
+            }
+            return null;
+        }
+    }
+
+
+    /**
+    *   ~x
+    */
+    static class ComplementNode extends QueryNode {
+        final QueryNode arg;
+
+        ComplementNode(QueryNode arg) {
+            super(QueryNode.INT);
+            this.arg = arg;
+            constant = arg.constant;
+        }
+
+        int getInt(QueryContext c) {
+            return ~arg.getInt(c);
+        }
+    }
+
+
+    /**
+    *   x & y, x | y, x ^ y on ints
+    */
+    static class BitwiseNode extends QueryNode {
+        final char op;
+        final QueryNode a;
+        final QueryNode b;
+
+        BitwiseNode(char op, QueryNode a, QueryNode b) {
+            super(QueryNode.INT);
+            this.op = op;
+            this.a = a;
+            this.b = b;
+            constant = (a.constant && b.constant);
+        }
+
+        int getInt(QueryContext c) {
+            int x = a.getInt(c);
+            int y = b.getInt(c);
+            return (op == '&') ? (x & y) : (op == '|') ? (x | y) : (x ^ y);
+        }
+
+        /**
+        *   If this is (column & mask) or (~column & mask) on a MULTISTRING column with a constant mask,
+        *   return the column; otherwise -1
+        */
+        int maskedColumn(boolean complemented) {
+            if (op != '&') {
+                return -1;
+            }
+            QueryNode col = a.constant ? b : a;
+            QueryNode mask = a.constant ? a : b;
+            if (!mask.constant) {
+                return -1;
+            }
+            if (complemented && col instanceof ComplementNode) {
+                col = ((ComplementNode)col).arg;
+            }
+            else if (complemented) {
+                return -1;
+            }
+            return (col instanceof ColumnNode) ? ((ColumnNode)col).col : -1;
+        }
+
+        int mask() {
+            return a.constant ? a.getInt(null) : b.getInt(null);
+        }
+    }
+
+
+    /**
+    *   Comparisons: == != < > <= >=
+    */
+    static class CompareNode extends QueryNode {
+        final int op;       //Index into OPS
+        final QueryNode a;
+        final QueryNode b;
+        final int operandType;
+
+        final static String OPS = "== != < > <= >=";
+        final static int EQ = 0;
+        final static int NE = 3;
+        final static int LT = 6;
+        final static int GT = 8;
+        final static int LE = 10;
+
+        //How getIndexedRows() answers a comparison
+        final static int NO_INDEX = 0;
+        final static int GENOTYPE_CLASS = 1;    //Sample genotype == genotype code
+        final static int COLUMN_VALUE = 2;      //Indexed annotation == value
+        final static int FLAGS_ABSENT = 3;      //((~allData[i][c] & mask)==mask) on an indexed MULTISTRING
+        final static int FLAGS_PRESENT = 4;     //((allData[i][c] & mask) > 0) on an indexed MULTISTRING
+
+        CompareNode(String op, QueryNode a, QueryNode b) {
+            super(QueryNode.BOOLEAN);
+            this.op = OPS.indexOf(op);
+            this.a = a;
+            this.b = b;
+            operandType = (a.type == QueryNode.BOOLEAN) ? QueryNode.BOOLEAN : promotedType(a, b);
+            constant = (a.constant && b.constant);
+        }
+
+        boolean getBoolean(QueryContext c) {
+            if (operandType == QueryNode.BOOLEAN) {
+                return (a.getBoolean(c) == b.getBoolean(c)) == (op == EQ);
+            }
+            if (operandType == QueryNode.INT) {
+                int x = a.getInt(c);
+                int y = b.getInt(c);
+                switch (op) {
+                    case EQ: return x == y;
+                    case NE: return x != y;
+                    case LT: return x < y;
+                    case GT: return x > y;
+                    case LE: return x <= y;
+                    default: return x >= y;
+                }
+            }
+            double x = promote(a, operandType, c);
+            double y = promote(b, operandType, c);
+            switch (op) {
+                case EQ: return x == y;
+                case NE: return x != y;
+                case LT: return x < y;
+                case GT: return x > y;
+                case LE: return x <= y;
+                default: return x >= y;
+            }
+        }
+
+        boolean hasIndex(QueryContext c) {
+            return indexCase(c) != NO_INDEX;
+        }
+
+        CompressedBitSet getIndexedRows(QueryContext c) {
+            CompressedBitSet rows;  //Rows where the equality (or mask test) holds
+            boolean negate = (op == NE);
+            QueryNode x = (a.constant || a instanceof GenotypeNode) ? b : a;
+            QueryNode y = (x == a) ? b : a;
+            switch (indexCase(c)) {
+                case GENOTYPE_CLASS:
+                    rows = c.vdat.returnGenotypeClassRows(((SampleFieldNode)x).sample, ((GenotypeNode)y).genClass);
+                    break;
+                case COLUMN_VALUE:
+                    rows = valueIndex(c, ((ColumnNode)x).col).getRows(y.getInt(null));
+                    break;
+                case FLAGS_ABSENT:
+                    rows = rowsWithAnyFlag(c, ((BitwiseNode)x).maskedColumn(true), ((BitwiseNode)x).mask());
+                    negate = !negate;
+                    break;
+                case FLAGS_PRESENT:
+                    rows = rowsWithAnyFlag(c, ((BitwiseNode)a).maskedColumn(false), ((BitwiseNode)a).mask());
+                    break;
+                default:
+                    return null;
+            }
+            return (negate) ? complement(c, rows) : rows;
+        }
+
+        /**
+        *   Return which bitmaps, if any, answer this comparison
+        */
+        private int indexCase(QueryContext c) {
+            if ((op == EQ || op == NE) && operandType == QueryNode.INT) {
+                QueryNode x = (a.constant || a instanceof GenotypeNode) ? b : a;
+                QueryNode y = (x == a) ? b : a;
+
+                //Sample genotype compared with a genotype code: genotype class bitmap
+                if (x instanceof SampleFieldNode && ((SampleFieldNode)x).isGenotype() && y instanceof GenotypeNode) {
+                    return GENOTYPE_CLASS;
+                }
+
+                //Annotation compared with a value: bitmap index
+                if (x instanceof ColumnNode && y.constant && valueIndex(c, ((ColumnNode)x).col) != null) {
+                    return COLUMN_VALUE;
+                }
+
+                //Multistring flags all absent: ((~allData[i][c] & mask)==mask)
+                if (x instanceof BitwiseNode && ((BitwiseNode)x).maskedColumn(true) >= 0
+                    && y.constant && y.getInt(null) == ((BitwiseNode)x).mask()
+                    && flagIndex(c, ((BitwiseNode)x).maskedColumn(true)) != null) {
+                    return FLAGS_ABSENT;
+                }
+            }
+
+            //Multistring flag present: ((allData[i][c] & mask) > 0)
+            else if (op == GT && operandType == QueryNode.INT && a instanceof BitwiseNode
+                     && ((BitwiseNode)a).maskedColumn(false) >= 0 && b.constant && b.getInt(null) == 0
+                     && ((BitwiseNode)a).mask() >= 0 && flagIndex(c, ((BitwiseNode)a).maskedColumn(false)) != null) {
+                return FLAGS_PRESENT;
+            }
+            return NO_INDEX;
+        }
+
+        /**
+        *   Rows of an indexed MULTISTRING column with any of the flags in mask set
+        */
+        private static CompressedBitSet rowsWithAnyFlag(QueryContext c, int col, int mask) {
+            BitmapIndex bi = flagIndex(c, col);
+            CompressedBitSet out = new CompressedBitSet();
+            for (int flags = mask; flags != 0; flags &= (flags - 1)) {
+                out.or(bi.getRows(Integer.numberOfTrailingZeros(flags)));
+            }
+            return out;
+        }
+    }
+
+
+    /**
+    *   x && y, x || y, and x & y, x | y, x ^ y on booleans
+    */
+    static class LogicalNode extends QueryNode {
+        final char op;
+        final QueryNode a;
+        final QueryNode b;
+
+        LogicalNode(char op, QueryNode a, QueryNode b) {
+            super(QueryNode.BOOLEAN);
+            this.op = op;
+            this.a = a;
+            this.b = b;
+            constant = (a.constant && b.constant);
+        }
+
+        boolean getBoolean(QueryContext c) {
+            switch (op) {
+                case '&': return a.getBoolean(c) && b.getBoolean(c);
+                case '|': return a.getBoolean(c) || b.getBoolean(c);
+                default:  return a.getBoolean(c) ^ b.getBoolean(c);
+            }
+        }
+
+        CompressedBitSet testRows(QueryContext c, CompressedBitSet candidates) {
+            CompressedBitSet left = a.getRows(c, candidates);
+            switch (op) {
+                case '&':
+                    return b.getRows(c, left);      //Only rows passing the left side need the right side
+                case '|':
+                    CompressedBitSet rest = (CompressedBitSet)candidates.clone();
+                    rest.andNot(left);
+                    left.or(b.getRows(c, rest));    //Only rows failing the left side need the right side
+                    return left;
+                default:
+                    left.xor(b.getRows(c, candidates));
+                    return left;
+            }
+        }
+
+        boolean hasIndex(QueryContext c) {
+            return a.hasIndex(c) && b.hasIndex(c);
+        }
+
+        CompressedBitSet getIndexedRows(QueryContext c) {
+            CompressedBitSet left = a.getIndexedRows(c);
+            CompressedBitSet right = (left == null) ? null : b.getIndexedRows(c);
+            if (right == null) {
+                return null;
+            }
+            switch (op) {
+                case '&': left.and(right); break;
+                case '|': left.or(right); break;
+                default:  left.xor(right); break;
+            }
+            return left;
+        }
+    }
+
+
+    /**
+    *   !x
+    */
+    static class NotNode extends QueryNode {
+        final QueryNode arg;
+
+        NotNode(QueryNode arg) {
+            super(QueryNode.BOOLEAN);
+            this.arg = arg;
+            constant = arg.constant;
+        }
+
+        boolean getBoolean(QueryContext c) {
+            return !arg.getBoolean(c);
+        }
+
+        CompressedBitSet testRows(QueryContext c, CompressedBitSet candidates) {
+            CompressedBitSet out = (CompressedBitSet)candidates.clone();
+            out.andNot(arg.getRows(c, candidates));
+            return out;
+        }
+
+        boolean hasIndex(QueryContext c) {
+            return arg.hasIndex(c);
+        }
+
+        CompressedBitSet getIndexedRows(QueryContext c) {
+            CompressedBitSet rows = arg.getIndexedRows(c);
+            return (rows == null) ? null : complement(c, rows);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+import java.io.*;
+import java.nio.charset.Charset;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+*   Custom query results saved next to the data file (as <data file>.vsqcache), so re-running a query on
+*   the same data restores the result without evaluating it.  Results are keyed by the query and the text
+*   search BitSets it uses; the whole cache belongs to one version of the data file, loaded one way.  Since
+*   queries refer to columns, samples and dictionary values by index, it is identified by a digest of the
+*   file's contents (made while the file is loaded) and of the loaded layout: column and sample names, and
+*   the contents of each AbstractMapper.  It is discarded if either changes.
+*   The file is a header (format and fingerprint) followed by one record per saved result; a new result is
+*   appended, and the file is only rewritten (with just the results kept) once it holds many records.
+*   VarData only uses a cache for data loaded from a file: not for subsets, and not for the rest of the
+*   session once any annotation is edited, since results would then no longer match the file.
+*/
+public class QueryResultCache {
+    final static String SUFFIX = ".vsqcache";
+    final static int MAX_CACHED = 64;   //Number of results to keep
+    final static int MAX_RECORDS = MAX_CACHED * 2;  //Rewrite the file rather than append once it holds this many
+    final static int MAGIC = 0x56535143;            //"VSQC"
+    final static int VERSION = 2;
+
+    private final static Pattern bitSetsPat = Pattern.compile("bitSets\\[(\\d+)\\]");
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private File cacheFile;
+    private String fingerprint;
+    private Map<String, CompressedBitSet> results;
+    private int records = -1;           //Records in the file, or -1 if it must be rewritten before appending
+
+    /**
+    *   Open (or start) the result cache of a data file
+    *
+    *   @param dataFile The data file
+    *   @param fingerprint The file's digest (from fingerprint()) and layout digest (from layoutDigest())
+    */
+    public QueryResultCache(String dataFile, String fingerprint) {
+        cacheFile = new File(dataFile + SUFFIX);
+        this.fingerprint = fingerprint;
+        results = newResultMap();
+
+        if (cacheFile.exists()) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+                try {
+                    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                        System.out.println(cacheFile.getName() + " is from an older VarSifter; it will be replaced");
+                    }
+                    else if (!fingerprint.equals(new String(readBytes(in, in.readInt()), UTF8))) {
+                        System.out.println(cacheFile.getName() + " is from a different version or layout of the data file; "
+                            + "ignoring it");
+                    }
+                    else {
+                        readRecords(in);
+                    }
+                }
+                finally {
+                    in.close();
+                }
+            }
+            catch (Exception e) {
+                //A damaged cache is only a missed shortcut
+                System.out.println("Couldn't read query cache " + cacheFile + ": " + e.toString());
+                results.clear();
+                records = -1;
+            }
+        }
+    }
+
+
+    /**
+    *   Read result records to the end of the file.  A record cut short (by a write that was interrupted) ends
+    *   the results, and the file is rewritten before the next result is saved.
+    */
+    private void readRecords(DataInputStream in) throws IOException, ClassNotFoundException {
+        int n = 0;
+        while (true) {
+            int keyLength;
+            try {
+                keyLength = in.readInt();
+            }
+            catch (EOFException eof) {
+                records = n;
+                return;
+            }
+            try {
+                String key = new String(readBytes(in, keyLength), UTF8);
+                byte[] bytes = readBytes(in, in.readInt());
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                results.put(key, (CompressedBitSet)ois.readObject());
+                n++;
+            }
+            catch (EOFException eof) {
+                return;
+            }
+        }
+    }
+
+
+    /**
+    *   Return a saved result
+    *
+    *   @param query The custom query
+    *   @param bitSets The text search BitSets (bitSets[k] in the query)
+    *   @return A new CompressedBitSet with the rows passing the query, or null if this query has not been saved
+    */
+    public synchronized CompressedBitSet get(String query, CompressedBitSet[] bitSets) {
+        CompressedBitSet out = results.get(key(query, bitSets));
+        return (out == null) ? null : (CompressedBitSet)out.clone();
+    }
+
+
+    /**
+    *   Save a result, and add it to the cache file
+    *
+    *   @param query The custom query
+    *   @param bitSets The text search BitSets (bitSets[k] in the query)
+    *   @param rows The rows passing the query
+    */
+    public synchronized void put(String query, CompressedBitSet[] bitSets, CompressedBitSet rows) {
+        String key = key(query, bitSets);
+        CompressedBitSet saved = (CompressedBitSet)rows.clone();
+        results.put(key, saved);
+        try {
+            if (records >= 0 && records < MAX_RECORDS) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile, true)));
+                try {
+                    writeRecord(out, key, saved);
+                }
+                finally {
+                    out.close();
+                }
+                records++;
+            }
+            else {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)));
+                try {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    writeString(out, fingerprint);
+                    for (Map.Entry<String, CompressedBitSet> e : results.entrySet()) {
+                        writeRecord(out, e.getKey(), e.getValue());
+                    }
+                }
+                finally {
+                    out.close();
+                }
+                records = results.size();
+            }
+        }
+        catch (IOException ioe) {
+            System.out.println("Couldn't write query cache " + cacheFile + ": " + ioe.toString());
+            records = -1;
+        }
+    }
+
+
+    private static void writeRecord(DataOutputStream out, String key, CompressedBitSet rows) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(rows);
+        oos.close();
+        writeString(out, key);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+
+    private byte[] readBytes(DataInputStream in, int length) throws IOException {
+        if (length < 0 || length > cacheFile.length()) {
+            throw new IOException("Damaged record");
+        }
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return b;
+    }
+
+
+    /**
+    *   Return the cache key of a query: the normalised query, and a digest of each BitSet it uses
+    */
+    private static String key(String query, CompressedBitSet[] bitSets) {
+        StringBuilder key = new StringBuilder(CompileCustomQuery.normaliseQuery(query));
+        Matcher m = bitSetsPat.matcher(query);
+        while (m.find()) {
+            int k = Integer.parseInt(m.group(1));
+            key.append('\n').append(k).append('=');
+            if (bitSets != null && k < bitSets.length) {
+                MessageDigest md = newDigest();
+                for (int i = bitSets[k].nextSetBit(0); i >= 0; i = bitSets[k].nextSetBit(i+1)) {
+                    md.update(new byte[] { (byte)(i >>> 24), (byte)(i >>> 16), (byte)(i >>> 8), (byte)i });
+                }
+                key.append(toHex(md.digest()));
+            }
+        }
+        return key.toString();
+    }
+
+
+    /**
+    *   Open a data file for reading, adding everything read to a digest (so a loader's last pass over the
+    *   file also makes its fingerprint)
+    *
+    *   @param f The data file
+    *   @param md The digest, from newDigest()
+    *   @return A reader of the file
+    *   @throws IOException if the file can't be opened
+    */
+    static BufferedReader openDigested(String f, MessageDigest md) throws IOException {
+        return new BufferedReader(new InputStreamReader(new DigestInputStream(new FileInputStream(f), md)));
+    }
+
+
+    /**
+    *   Return the fingerprint of a file read through openDigested()
+    *
+    *   @param f The data file
+    *   @param md The digest, after reading the whole file
+    *   @return The file's fingerprint
+    */
+    static String fingerprint(String f, MessageDigest md) {
+        return new File(f).length() + ":" + toHex(md.digest());
+    }
+
+
+    /**
+    *   Return a digest of how a file was loaded: column and sample names, and each AbstractMapper's type and
+    *   values in index order
+    *
+    *   @param dataNames The annotation column names
+    *   @param sampleNames The sample column names
+    *   @param annotMapper The annotation AbstractMappers
+    *   @param sampleMapper The sample field AbstractMappers
+    *   @return The digest
+    */
+    static String layoutDigest(String[] dataNames, String[] sampleNames, AbstractMapper[] annotMapper,
+                               AbstractMapper[] sampleMapper) {
+        MessageDigest md = newDigest();
+        update(md, Integer.toString(dataNames.length));
+        for (String s : dataNames) {
+            update(md, s);
+        }
+        update(md, Integer.toString(sampleNames.length));
+        for (String s : sampleNames) {
+            update(md, s);
+        }
+        for (AbstractMapper[] mappers : new AbstractMapper[][] { annotMapper, sampleMapper }) {
+            for (AbstractMapper m : mappers) {
+                update(md, m.getDataType() + ":" + m.getLength());
+                for (int i=0; i < m.getLength(); i++) {
+                    if (m.getDataType() != VarData.MULTISTRING) {
+                        update(md, m.getString(i));
+                    }
+                    else if (i < 31) {
+                        update(md, m.getString(1 << i));
+                    }
+                }
+            }
+        }
+        return toHex(md.digest());
+    }
+
+
+    private static void update(MessageDigest md, String s) {
+        md.update(String.valueOf(s).getBytes(UTF8));
+        md.update((byte)0);
+    }
+
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException(nsae);   //Every Java platform has SHA-1
+        }
+    }
+
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+
+    private static Map<String, CompressedBitSet> newResultMap() {
+        return new LinkedHashMap<String, CompressedBitSet>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompressedBitSet> eldest) {
+                return size() > MAX_CACHED;
+            }
+        };
+    }
+}
@@ -0,0 +1,112 @@
+/**
+*   A selection of rows, with constant-time lookups both ways: select(n) gives the row of the nth selected
+*   row, and rank(row) / indexOf(row) the position of a row among those selected.  Selected rows are kept
+*   as a sorted vector, alongside a bitmap with a running count before each word (a rank directory of
+*   about 1.5 bits per row).
+*   Rows are numbered in a base selection, or in storage if there is none, so views of an AnnotationStore
+*   and a SampleStore made with the same RowSelection share it; the filtered output of a VarData object,
+*   or a child VarData of some of its rows, costs one int per selected row whatever the number of columns
+*   or samples, and copies no data.
+*/
+public class RowSelection {
+
+    private final RowSelection base;    //Selection the rows are numbered in, or null for storage rows
+    private final int baseSize;         //Number of rows in base (or storage)
+    private final int[] rows;           //Row of each selected row, ascending
+    private final long[] words;         //Bitmap of selected rows
+    private final int[] rankBefore;     //Selected rows before each word of the bitmap
+
+    /**
+    *   Private constructor - use select()
+    */
+    private RowSelection(RowSelection base, int baseSize, int[] rows) {
+        this.base = base;
+        this.baseSize = baseSize;
+        this.rows = rows;
+        words = new long[(baseSize + 63) >>> 6];
+        for (int row : rows) {
+            words[row >>> 6] |= 1L << row;
+        }
+        rankBefore = new int[words.length];
+        int count = 0;
+        for (int w=0; w < words.length; w++) {
+            rankBefore[w] = count;
+            count += Long.bitCount(words[w]);
+        }
+    }
+
+
+    /**
+    *   Select some rows of a selection, or of the whole storage
+    *
+    *   @param base The selection the rows are numbered in, or null to number them in the storage
+    *   @param selected The rows to select, numbered as in base
+    *   @return The selection
+    */
+    public static RowSelection select(RowSelection base, CompressedBitSet selected) {
+        int[] rows = selected.toArray();
+        int baseSize = (base != null) ? base.size() : selected.length();
+        return new RowSelection(base, baseSize, rows);
+    }
+
+
+    /**
+    *   Return the storage row of a selected row
+    *
+    *   @param n The selected row (0 to size() - 1)
+    *   @return The row in storage
+    */
+    public int get(int n) {
+        return (base == null) ? rows[n] : base.get(rows[n]);
+    }
+
+
+    /**
+    *   Return the row (numbered as in the base selection) of a selected row
+    *
+    *   @param n The selected row (0 to size() - 1)
+    *   @return The row
+    */
+    public int select(int n) {
+        return rows[n];
+    }
+
+
+    /**
+    *   Return the number of selected rows before a row
+    *
+    *   @param row A row, numbered as in the base selection
+    *   @return The number of selected rows less than row
+    */
+    public int rank(int row) {
+        if (row >= baseSize) {
+            return rows.length;
+        }
+        int w = row >>> 6;
+        return rankBefore[w] + Long.bitCount(words[w] & ((1L << row) - 1));
+    }
+
+
+    /**
+    *   Return the position of a row among the selected rows
+    *
+    *   @param row A row, numbered as in the base selection
+    *   @return n such that select(n) == row, or -1 if row is not selected
+    */
+    public int indexOf(int row) {
+        if (row < 0 || row >= baseSize || (words[row >>> 6] & (1L << row)) == 0) {
+            return -1;
+        }
+        return rank(row);
+    }
+
+
+    /**
+    *   Return the number of selected rows
+    *
+    *   @return The number of rows
+    */
+    public int size() {
+        return rows.length;
+    }
+}
@@ -31,7 +31,8 @@ public class SampleExporter {
     private String[] sampleValueName;
     private AbstractMapper[] annotMapper;
     private AbstractMapper[] sampleMapper;
-    private int[][] outData;
+    private AnnotationStore outData;
+    private int[][] genotypeCodes;  //[genotype class][row in outData], from VarData.returnOutGenotypeCodes()
     private int chrIndex;
     private int lfIndex;
     private int rfIndex;
@@ -54,7 +55,8 @@ public class SampleExporter {
         Map<String, Integer> dataTypeAt = vdat.returnDataTypeAt();
         annotMapper = vdat.returnAnnotMap();
         sampleMapper = vdat.returnSampleMap();
-        outData = vdat.returnOutData();
+        outData = vdat.returnOutAnnotationStore();
+        genotypeCodes = vdat.returnOutGenotypeCodes();
         chrIndex = dataTypeAt.get("Chr");
         lfIndex = dataTypeAt.get("LeftFlank");
         rfIndex = dataTypeAt.get("RightFlank");
@@ -142,7 +144,7 @@ public class SampleExporter {
     *   @return A tab-delim String with location, semi-colon delimited info for each sample.
     */
     public String getNextVariant() {
-        if (! toFilter || lastLine >= outData.length) {
+        if (! toFilter || lastLine >= outData.size()) {
             return null;
         }
 
@@ -161,31 +163,23 @@ public class SampleExporter {
             return null;
         }
 
-        String refAllele = annotMapper[refIndex].getString(outData[lastLine][refIndex]);
-        String varAllele = annotMapper[varIndex].getString(outData[lastLine][varIndex]);
-        int homRefGen;
-        int homVarGen;
-        int muttype = outData[lastLine][mutTypeIndex];
-        if (muttype == indelIndex || refAllele.length() > 1) {
-            homRefGen = sampleMapper[0].getIndexOf(refAllele + ":" + refAllele);
-            homVarGen = sampleMapper[0].getIndexOf(varAllele + ":" + varAllele);
-        }
-        else {
-            homRefGen = sampleMapper[0].getIndexOf(refAllele + refAllele);
-            homVarGen = sampleMapper[0].getIndexOf(varAllele + varAllele);
-        }
+        String refAllele = annotMapper[refIndex].getString(outData.get(lastLine, refIndex));
+        String varAllele = annotMapper[varIndex].getString(outData.get(lastLine, varIndex));
+        int homRefGen = genotypeCodes[VarData.HOM_REF_GEN][lastLine];
+        int homVarGen = genotypeCodes[VarData.HOM_NON_REF_GEN][lastLine];
+        int muttype = outData.get(lastLine, mutTypeIndex);
 
         StringBuilder outTemp = new StringBuilder();
         int[][] sampDataLine = vdat.returnSample(lastLine);
 
         if (annotCB.isSelected()) {
             for (int ind=0; ind < annotNames.length; ind++) {
-                outTemp.append(annotMapper[ind].getString(outData[lastLine][ind]) + "\t");
+                outTemp.append(annotMapper[ind].getString(outData.get(lastLine, ind)) + "\t");
             }
         }
         else {
             for (int ind : new int[]{chrIndex, lfIndex, rfIndex, refIndex, varIndex, mutTypeIndex}) {
-                outTemp.append(annotMapper[ind].getString(outData[lastLine][ind]) + "\t");
+                outTemp.append(annotMapper[ind].getString(outData.get(lastLine, ind)) + "\t");
             }
         }
 
@@ -0,0 +1,471 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+*   Sample data (genotype, score, coverage, ... for each sample of each row), stored flat: one int
+*   array per sample field, indexed by row * sampleCount + sample.  Arrays are split into chunks of
+*   whole rows so large files need neither one huge array nor an int[] object per sample call.
+*   Chunks are kept on the Java heap, in direct buffers, in a memory-mapped temporary file (so sample
+*   data can be larger than the heap, and is paged in by the OS), or as pages of a temporary file read
+*   into a PageCache of limited size (so it can be larger than memory), as chosen by setStorage().
+*   Rows split from one record (as VCF lines with several alt alleles are) can share a record: only the
+*   genotype is then stored per row, and the other fields once per record.
+*   A store can also be a view of selected rows of another, sharing its arrays.
+*   Once loaded, the genotype field can be packed into a GenotypeMatrix, freeing its int arrays.
+*/
+public class SampleStore {
+
+    final static int CHUNK_CELLS = 1 << 22;     //Target number of values in each chunk
+    final static int MAP_BYTES = 1 << 30;       //Largest mapping of packed genotypes
+
+    final static int HEAP = 0;      //Java int arrays
+    final static int DIRECT = 1;    //Direct buffers, outside the Java heap
+    final static int MAPPED = 2;    //A memory-mapped temporary file
+    final static int PAGED = 3;     //Pages of a temporary file, cached in a PageCache
+
+    private static int storage = HEAP;
+    private static File storageDir = null;
+    private static long cacheBytes = 256L << 20;   //Memory for PAGED chunks
+
+    private final int rowCount;
+    private final int sampleCount;
+    private final int fieldCount;
+    private final int rowShift;     //Rows per chunk is 1 << rowShift
+    private final int rowMask;
+    private final IntBuffer[][] chunks; //[field][chunk].get((row & rowMask) * sampleCount + sample)
+    private final PageCache pages;      //Chunk values, if PAGED (chunks then holds only nulls)
+    private final int[] firstPage;      //Page of each field's first chunk, if PAGED
+    private final int[] recordOf;       //Record of each row, for fields other than the genotype (null if one per row)
+    private final RowSelection selection;   //Rows of the shared arrays, if this is a view (else null)
+    private GenotypeMatrix genotypes = null;    //Field 0, if packed
+
+    /**
+    *   Create an empty store
+    *
+    *   @param rowCount The number of rows
+    *   @param sampleCount The number of samples
+    *   @param fieldCount The number of fields for each sample (S_FIELDS)
+    */
+    public SampleStore(int rowCount, int sampleCount, int fieldCount) {
+        this(rowCount, rowCount, sampleCount, fieldCount);
+    }
+
+
+    /**
+    *   Create an empty store whose rows share records: the genotype is stored for each row, the other fields
+    *   for each record.  Set each row's record with setRecord() before setting its values.
+    *
+    *   @param rowCount The number of rows
+    *   @param recordCount The number of records (at most rowCount)
+    *   @param sampleCount The number of samples
+    *   @param fieldCount The number of fields for each sample (S_FIELDS)
+    */
+    public SampleStore(int rowCount, int recordCount, int sampleCount, int fieldCount) {
+        this.rowCount = rowCount;
+        this.sampleCount = sampleCount;
+        this.fieldCount = fieldCount;
+        int shift = 0;
+        while (shift < 30 && ((long)sampleCount << (shift + 1)) <= CHUNK_CELLS) {
+            shift++;
+        }
+        rowShift = shift;
+        rowMask = (1 << shift) - 1;
+        selection = null;
+        recordOf = (recordCount < rowCount) ? new int[rowCount] : null;
+
+        chunks = new IntBuffer[fieldCount][];
+        firstPage = new int[fieldCount];
+        int pageCount = 0;
+        for (int k=0; k < fieldCount; k++) {
+            int n = (k == 0) ? rowCount : recordCount;
+            chunks[k] = new IntBuffer[(n + rowMask) >>> rowShift];
+            firstPage[k] = pageCount;
+            pageCount += chunks[k].length;
+        }
+        int[] cells = new int[pageCount];   //Values in each chunk, numbered as pages
+        for (int k=0; k < fieldCount; k++) {
+            int n = (k == 0) ? rowCount : recordCount;
+            for (int c=0; c < chunks[k].length; c++) {
+                cells[firstPage[k] + c] = Math.min(rowMask + 1, n - (c << rowShift)) * sampleCount;
+            }
+        }
+
+        PageCache pc = null;
+        if (storage == PAGED) {
+            try {
+                pc = new PageCache(cells, cacheBytes, fieldCount, storageDir);
+            }
+            catch (IOException ioe) {
+                System.out.println("Can't create a page file for sample data, keeping it on the heap: " + ioe.toString());
+            }
+        }
+        pages = pc;
+        if (pages == null) {
+            allocate(cells);
+        }
+    }
+
+
+    /**
+    *   Allocate the chunks on the heap, in direct buffers or in a memory-mapped file
+    */
+    private void allocate(int[] cells) {
+        FileChannel fc = null;
+        if (storage == MAPPED) {
+            try {
+                File f = File.createTempFile("VarSifter", ".samples", storageDir);
+                f.deleteOnExit();
+                fc = new RandomAccessFile(f, "rw").getChannel();
+            }
+            catch (IOException ioe) {
+                System.out.println("Can't create a file for sample data, keeping it on the heap: " + ioe.toString());
+            }
+        }
+
+        long offset = 0;
+        for (int k=0; k < fieldCount; k++) {
+            for (int c=0; c < chunks[k].length; c++) {
+                int n = cells[firstPage[k] + c];
+                if (fc != null) {
+                    try {
+                        chunks[k][c] = fc.map(FileChannel.MapMode.READ_WRITE, offset, n * 4L)
+                                         .order(ByteOrder.nativeOrder()).asIntBuffer();
+                        offset += n * 4L;
+                        continue;
+                    }
+                    catch (IOException ioe) {
+                        System.out.println("Can't map sample data file, keeping the rest on the heap: " + ioe.toString());
+                        fc = null;
+                    }
+                }
+                chunks[k][c] = (storage == DIRECT)
+                    ? ByteBuffer.allocateDirect(n * 4).order(ByteOrder.nativeOrder()).asIntBuffer()
+                    : IntBuffer.wrap(new int[n]);
+            }
+        }
+        if (fc != null) {
+            try {
+                fc.close();     //Mappings stay valid
+            }
+            catch (IOException ioe) {
+                System.out.println(ioe);
+            }
+        }
+    }
+
+
+    /**
+    *   Allocate arrays of longs where sample data is kept: on the heap, in direct buffers, or (for MAPPED
+    *   and PAGED) in a memory-mapped temporary file.  Used for packed genotypes.
+    *
+    *   @param count The number of arrays
+    *   @param length The number of longs in each
+    *   @return The arrays, zeroed
+    */
+    static LongBuffer[] allocateLongs(int count, int length) {
+        LongBuffer[] out = new LongBuffer[count];
+        FileChannel fc = null;
+        if ((storage == MAPPED || storage == PAGED) && length > 0) {
+            try {
+                File f = File.createTempFile("VarSifter", ".genotypes", storageDir);
+                f.deleteOnExit();
+                fc = new RandomAccessFile(f, "rw").getChannel();
+            }
+            catch (IOException ioe) {
+                System.out.println("Can't create a file for genotypes, keeping them on the heap: " + ioe.toString());
+            }
+        }
+
+        long offset = 0;
+        int i = 0;
+        while (i < count) {
+            if (fc != null) {
+                int bytes = length * 8;
+                int n = Math.min(count - i, Math.max(1, MAP_BYTES / bytes));
+                try {
+                    ByteBuffer map = fc.map(FileChannel.MapMode.READ_WRITE, offset, (long)n * bytes);
+                    for (int k=0; k < n; k++) {
+                        map.limit((k + 1) * bytes).position(k * bytes);
+                        out[i + k] = map.slice().order(ByteOrder.nativeOrder()).asLongBuffer();
+                        map.clear();
+                    }
+                    offset += (long)n * bytes;
+                    i += n;
+                    continue;
+                }
+                catch (IOException ioe) {
+                    System.out.println("Can't map genotype file, keeping the rest on the heap: " + ioe.toString());
+                    fc = null;
+                }
+            }
+            out[i] = (storage == DIRECT)
+                ? ByteBuffer.allocateDirect(length * 8).order(ByteOrder.nativeOrder()).asLongBuffer()
+                : LongBuffer.wrap(new long[length]);
+            i++;
+        }
+        if (fc != null) {
+            try {
+                fc.close();     //Mappings stay valid
+            }
+            catch (IOException ioe) {
+                System.out.println(ioe);
+            }
+        }
+        return out;
+    }
+
+
+    /**
+    *   Choose where stores created from now on keep their values (set from the Sample_Storage config option)
+    *
+    *   @param mode HEAP, DIRECT, MAPPED or PAGED
+    *   @param dir Directory for MAPPED and PAGED temporary files, or null for the system temporary directory
+    */
+    public static void setStorage(int mode, File dir) {
+        storage = mode;
+        storageDir = dir;
+    }
+
+
+    /**
+    *   Set the memory for the page cache of PAGED stores created from now on (the Sample_Cache_MB config option)
+    *
+    *   @param bytes Bytes of pages to keep in memory
+    */
+    public static void setCacheSize(long bytes) {
+        cacheBytes = bytes;
+    }
+
+
+    /**
+    *   Create a view of some rows of another store
+    */
+    private SampleStore(SampleStore parent, RowSelection selection) {
+        rowCount = selection.size();
+        sampleCount = parent.sampleCount;
+        fieldCount = parent.fieldCount;
+        rowShift = parent.rowShift;
+        rowMask = parent.rowMask;
+        chunks = parent.chunks;
+        pages = parent.pages;
+        firstPage = parent.firstPage;
+        recordOf = parent.recordOf;
+        genotypes = parent.genotypes;
+        this.selection = selection;
+    }
+
+
+    /**
+    *   Set the record a row shares its fields (other than the genotype) with
+    *
+    *   @param row The row
+    *   @param record The record
+    */
+    public void setRecord(int row, int record) {
+        if (recordOf != null) {
+            recordOf[row] = record;
+        }
+    }
+
+
+    /**
+    *   Return one value
+    *
+    *   @param row The row
+    *   @param sample The sample index
+    *   @param field The field (0 is the genotype)
+    *   @return The value (an index into the field's AbstractMapper, or an int)
+    */
+    public int get(int row, int sample, int field) {
+        if (selection != null) {
+            row = selection.get(row);
+        }
+        if (field != 0) {
+            if (recordOf != null) {
+                row = recordOf[row];
+            }
+        }
+        else if (genotypes != null) {
+            return genotypes.get(row, sample);
+        }
+        return chunk(field, row >>> rowShift).get((row & rowMask) * sampleCount + sample);
+    }
+
+
+    /**
+    *   Set one value.  Fields other than the genotype are set for all rows sharing the row's record.
+    *
+    *   @param row The row
+    *   @param sample The sample index
+    *   @param field The field (0 is the genotype)
+    *   @param value The value
+    *   @throws UnsupportedOperationException If setting a genotype after genotypes are packed
+    */
+    public void set(int row, int sample, int field, int value) {
+        if (selection != null) {
+            row = selection.get(row);
+        }
+        if (field != 0) {
+            if (recordOf != null) {
+                row = recordOf[row];
+            }
+        }
+        else if (genotypes != null) {
+            throw new UnsupportedOperationException("Genotypes can't be changed once packed");
+        }
+        if (pages != null) {
+            pages.put(firstPage[field] + (row >>> rowShift), (row & rowMask) * sampleCount + sample, value);
+        }
+        else {
+            chunks[field][row >>> rowShift].put((row & rowMask) * sampleCount + sample, value);
+        }
+    }
+
+
+    /**
+    *   Return a chunk to read
+    */
+    private IntBuffer chunk(int field, int c) {
+        return (pages != null) ? pages.get(firstPage[field] + c) : chunks[field][c];
+    }
+
+
+    /**
+    *   Return a copy of one row's values
+    *
+    *   @param row The row
+    *   @return The row's values: [sample][field]
+    */
+    public int[][] getRow(int row) {
+        int[][] out = new int[sampleCount][fieldCount];
+        if (selection != null) {
+            row = selection.get(row);
+        }
+        int record = (recordOf != null) ? recordOf[row] : row;
+        for (int k=0; k < fieldCount; k++) {
+            if (k == 0 && genotypes != null) {
+                for (int j=0; j < sampleCount; j++) {
+                    out[j][0] = genotypes.get(row, j);
+                }
+                continue;
+            }
+            int r = (k == 0) ? row : record;
+            int base = (r & rowMask) * sampleCount;
+            IntBuffer chunk = chunk(k, r >>> rowShift);
+            for (int j=0; j < sampleCount; j++) {
+                out[j][k] = chunk.get(base + j);
+            }
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return a copy of all values as nested arrays
+    *
+    *   @return The values: [row][sample][field]
+    */
+    public int[][][] toArray() {
+        int[][][] out = new int[rowCount][][];
+        for (int i=0; i < rowCount; i++) {
+            out[i] = getRow(i);
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return a view of some rows, sharing this store's arrays
+    *
+    *   @param rows The rows to include
+    *   @return A store whose row n is the nth set bit of rows
+    */
+    public SampleStore select(CompressedBitSet rows) {
+        return view(RowSelection.select(selection, rows));
+    }
+
+
+    /**
+    *   Return a view of selected storage rows, sharing this store's arrays (and, with other views made from
+    *   the same selection, the selection)
+    *
+    *   @param sel Rows of the underlying storage, as from RowSelection.select(getSelection(), rows)
+    *   @return A store whose row n is storage row sel.get(n)
+    */
+    public SampleStore view(RowSelection sel) {
+        return new SampleStore(this, sel);
+    }
+
+
+    /**
+    *   Return the rows of the underlying storage this store shows
+    *
+    *   @return The RowSelection, or null if this store is not a view
+    */
+    public RowSelection getSelection() {
+        return selection;
+    }
+
+
+    /**
+    *   Store genotypes (field 0) packed from now on, and free their int arrays (or pages).  Must be called before
+    *   any views are made.
+    *
+    *   @param gm The genotypes of this store, packed by GenotypeMatrix.pack()
+    */
+    public void packGenotypes(GenotypeMatrix gm) {
+        genotypes = gm;
+        for (int c=0; c < chunks[0].length; c++) {
+            chunks[0][c] = null;
+            if (pages != null) {
+                pages.discard(firstPage[0] + c);
+            }
+        }
+    }
+
+
+    /**
+    *   Return the packed genotypes, if row numbers match them
+    *
+    *   @return The GenotypeMatrix, or null if genotypes are not packed or this is a view
+    */
+    public GenotypeMatrix getGenotypeMatrix() {
+        return (selection == null) ? genotypes : null;
+    }
+
+
+    /**
+    *   Return the number of rows
+    *
+    *   @return The number of rows
+    */
+    public int size() {
+        return rowCount;
+    }
+
+
+    /**
+    *   Return the number of samples
+    *
+    *   @return The number of samples
+    */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+
+    /**
+    *   Return the number of fields for each sample
+    *
+    *   @return The number of fields
+    */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+}
@@ -0,0 +1,87 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import edu.uci.ics.jung.graph.DelegateForest;
+
+/**
+*   A query graph saved by CustomQueryView (or parsed by TextQuery): the name of the data file it was built
+*   for, the graph of CustomVertex boxes, and the BitSets used by its text searches (bitSets[k] in the query)
+*/
+public class SavedQuery {
+    final String dataName;
+    final DelegateForest<CustomVertex,Integer> graph;
+    final CompressedBitSet[] bitSets;    //null if the file has none (saved by VarSifter earlier than 1.5)
+
+    SavedQuery(String dataName, DelegateForest<CustomVertex,Integer> graph, CompressedBitSet[] bitSets) {
+        this.dataName = dataName;
+        this.graph = graph;
+        this.bitSets = bitSets;
+    }
+
+
+    /**
+    *   Read a query file written by CustomQueryView
+    *
+    *   @param queryFile The file to read
+    *   @return The saved query
+    */
+    public static SavedQuery read(File queryFile) throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(queryFile));
+        try {
+            String dataName = (String)ois.readObject();
+            @SuppressWarnings("unchecked")  //As written by CustomQueryView.writeGraph()
+            DelegateForest<CustomVertex,Integer> graph = (DelegateForest<CustomVertex,Integer>)ois.readObject();
+            CompressedBitSet[] bitSets = null;
+            try {
+                //Query files saved before CompressedBitSet hold java.util.BitSets
+                List<?> savedList = (List<?>)ois.readObject();
+                bitSets = new CompressedBitSet[savedList.size()];
+                for (int k=0; k < bitSets.length; k++) {
+                    Object o = savedList.get(k);
+                    bitSets[k] = (o instanceof BitSet) ? CompressedBitSet.valueOf((BitSet)o) : (CompressedBitSet)o;
+                }
+            }
+            catch (IOException ioe) {
+                System.err.println(ioe);
+            }
+            return new SavedQuery(dataName, graph, bitSets);
+        }
+        finally {
+            ois.close();
+        }
+    }
+
+
+    /**
+    *   Write a query file, as read by read()
+    *
+    *   @param queryFile The file to write
+    */
+    public void write(File queryFile) throws IOException {
+        ObjectOutputStream ow = new ObjectOutputStream(new FileOutputStream(queryFile));
+        try {
+            ow.writeObject(dataName);
+            ow.writeObject(graph);
+            if (bitSets != null) {
+                ow.writeObject(new ArrayList<CompressedBitSet>(Arrays.asList(bitSets)));
+            }
+        }
+        finally {
+            ow.close();
+        }
+    }
+
+
+    /**
+    *   Return true if this query was saved from a data file with the same name as a VarData object's file
+    *
+    *   @param vdat The VarData object
+    *   @return True if the names match
+    */
+    public boolean isFor(VarData vdat) {
+        return dataName.equals(vdat.returnDataFileName());
+    }
+}
@@ -0,0 +1,117 @@
+import java.util.Arrays;
+
+/**
+*   The calls that are not hom-ref (variant calls and no-calls), stored sparsely by row: for each row, the
+*   samples with such calls (sorted, with their genotype codes).  In large cohorts most calls are hom-ref,
+*   so finding the carriers in a row costs the number of carriers rather than the number of samples.
+*   (The rows of one sample in a genotype class are found with VarData.returnGenotypeClassRows() instead.)
+*/
+public class SparseGenotypes {
+
+    final static int MAX_FRACTION = 4;  //Not worth building if more than 1/4 of calls are not hom-ref
+
+    private final int[] rowStart;       //Entries of row i are rowStart[i] to rowStart[i+1] - 1
+    private final int[] entrySample;    //Sample of each entry
+    private final int[] entryCode;      //Genotype code of each entry
+
+    /**
+    *   Private constructor - use build()
+    */
+    private SparseGenotypes(int[] rowStart, int[] entrySample, int[] entryCode) {
+        this.rowStart = rowStart;
+        this.entrySample = entrySample;
+        this.entryCode = entryCode;
+    }
+
+
+    /**
+    *   Build from the genotype field of a SampleStore
+    *
+    *   @param samples The sample data (field 0 is the genotype)
+    *   @param homRef The hom-ref genotype code of each row
+    *   @return The sparse genotypes, or null if too many calls are not hom-ref for this to be worthwhile
+    */
+    public static SparseGenotypes build(SampleStore samples, int[] homRef) {
+        int rows = samples.size();
+        int sampleCount = samples.getSampleCount();
+        long maxEntries = (long)rows * sampleCount / MAX_FRACTION;
+        int[] rowStart = new int[rows + 1];
+        int[] entrySample = new int[16];
+        int[] entryCode = new int[16];
+        int n = 0;
+        for (int i=0; i < rows; i++) {
+            for (int j=0; j < sampleCount; j++) {
+                int g = samples.get(i, j, 0);
+                if (g != homRef[i]) {
+                    if (n == entrySample.length) {
+                        if (n >= maxEntries) {
+                            return null;
+                        }
+                        int size = (int)Math.min((long)n * 2, Math.max(maxEntries, 16));
+                        entrySample = Arrays.copyOf(entrySample, size);
+                        entryCode = Arrays.copyOf(entryCode, size);
+                    }
+                    entrySample[n] = j;
+                    entryCode[n] = g;
+                    n++;
+                }
+            }
+            rowStart[i + 1] = n;
+        }
+        return new SparseGenotypes(rowStart, Arrays.copyOf(entrySample, n), Arrays.copyOf(entryCode, n));
+    }
+
+
+    /**
+    *   Return the first entry of a row (entries of a row are sorted by sample)
+    *
+    *   @param row The row
+    *   @return Index of the row's first entry
+    */
+    public int getRowStart(int row) {
+        return rowStart[row];
+    }
+
+
+    /**
+    *   Return one past the last entry of a row
+    *
+    *   @param row The row
+    *   @return Index after the row's last entry
+    */
+    public int getRowEnd(int row) {
+        return rowStart[row + 1];
+    }
+
+
+    /**
+    *   Return the sample of an entry
+    *
+    *   @param entry The entry, from getRowStart() to getRowEnd() - 1
+    *   @return The sample index
+    */
+    public int getSample(int entry) {
+        return entrySample[entry];
+    }
+
+
+    /**
+    *   Return the genotype code of an entry
+    *
+    *   @param entry The entry, from getRowStart() to getRowEnd() - 1
+    *   @return The genotype code (index in sampleMapper[0])
+    */
+    public int getCode(int entry) {
+        return entryCode[entry];
+    }
+
+
+    /**
+    *   Return the number of entries (calls that are not hom-ref)
+    *
+    *   @return The number of entries
+    */
+    public int getEntryCount() {
+        return entrySample.length;
+    }
+}
@@ -12,7 +12,7 @@ import java.util.regex.*;
 */
 public class StringMapper implements AbstractMapper {
     private Map<String, Integer> dataMap;
-    private Map<Integer, String> indexMap;
+    private List<String> entries;  //Strings by index
     private final static int dataType = VarData.STRING;
     private int lastIndex = 0;
 
@@ -22,7 +22,7 @@ public class StringMapper implements AbstractMapper {
     */
     public StringMapper() {
         dataMap = new HashMap<String, Integer>(30000, 0.75f);
-        indexMap = new HashMap<Integer, String>(30000, 0.75f);
+        entries = new ArrayList<String>();
     }
 
     public BitSet filterWithPattern(Pattern pat) {
@@ -60,7 +60,7 @@ public class StringMapper implements AbstractMapper {
         int index = getIndexOf(inS);
         if (index == -1) {
             dataMap.put(inS, Integer.valueOf(lastIndex));
-            indexMap.put(Integer.valueOf(lastIndex), inS);
+            entries.add(inS);
             lastIndex++;
             return lastIndex - 1; //remove 1 to get index
         }
@@ -77,7 +77,7 @@ public class StringMapper implements AbstractMapper {
     *   @return The desired String
     */
     public String getString(int index) {
-        return indexMap.get(Integer.valueOf(index));
+        return (index >= 0 && index < lastIndex) ? entries.get(index) : null;
     }
 
 
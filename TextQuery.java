@@ -0,0 +1,485 @@
+import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import edu.uci.ics.jung.graph.DelegateForest;
+
+/**
+*   A text syntax for custom queries, so queries can be written, saved and run without CustomQueryView.
+*   A query is parsed into the same graph of CustomVertex boxes that CustomQueryView builds, with the
+*   same query in each box, so it runs the same way.
+*   <pre>
+*   query    := and-list { ("OR" | "||") and-list } ... also XOR / ^, which binds tighter than OR
+*   and-list := term { ("AND" | "&&") term }
+*   term     := "(" query ")" | @sample op (@sample | genotype) | annotation op value
+*   genotype := homref | homvar | hom | het | hemiref | hemivar | NA
+*   op       := == | !=           (samples; text annotations, matching a value exactly)
+*               ~ | !~            (text annotations, matching a regular expression, ignoring case)
+*               == | &gt; | &lt;        (numeric annotations)
+*   </pre>
+*   Sample and annotation names and values may be "quoted".  For example:
+*   <pre>
+*   (@child == het AND @mother == homref AND @father == homref) OR (@child == homvar AND type ~ "stop|splice")
+*   </pre>
+*/
+public class TextQuery {
+
+    final static String[] GENOTYPES = { "homref", "homvar", "hom", "het", "hemiref", "hemivar", "NA" };
+
+    private VarData vdat;
+    private String text;
+    private List<String> tokens = new ArrayList<String>();
+    private List<Integer> tokenStart = new ArrayList<Integer>();
+    private int pos = 0;
+
+    private Map<String, Integer> sampleIndexOf = new HashMap<String, Integer>();
+    private Map<String, Integer> annotIndexOf = new HashMap<String, Integer>();
+    private DelegateForest<CustomVertex,Integer> graph = new DelegateForest<CustomVertex,Integer>();
+    private List<CompressedBitSet> bitSetList = new ArrayList<CompressedBitSet>();
+    private int edgeCount = 0;
+
+
+    /**
+    *   Parse a text query into a query graph
+    *
+    *   @param text The query
+    *   @param vdat The VarData object the query is for (for sample and annotation names and values)
+    *   @return The query graph, as if built and saved with CustomQueryView
+    *   @throws ParseException if the query is not valid for this data
+    */
+    public static SavedQuery parse(String text, VarData vdat) throws ParseException {
+        TextQuery tq = new TextQuery(text, vdat);
+        CustomVertex root = tq.parseOr();
+        if (tq.pos < tq.tokens.size()) {
+            throw tq.error("Unexpected \"" + tq.peek() + "\"");
+        }
+        tq.graph.addVertex(root);
+        return new SavedQuery(vdat.returnDataFileName(), tq.graph,
+            tq.bitSetList.toArray(new CompressedBitSet[tq.bitSetList.size()]));
+    }
+
+
+    /**
+    *   Read a text query from a file.  Lines starting with # are ignored; other lines are joined.
+    *
+    *   @param queryFile The file
+    *   @param vdat The VarData object the query is for
+    *   @return The query graph
+    */
+    public static SavedQuery read(File queryFile, VarData vdat) throws IOException, ParseException {
+        StringBuilder sb = new StringBuilder();
+        BufferedReader br = new BufferedReader(new FileReader(queryFile));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.trim().startsWith("#")) {
+                    sb.append(line).append(' ');
+                }
+            }
+        }
+        finally {
+            br.close();
+        }
+        return parse(sb.toString(), vdat);
+    }
+
+
+    private TextQuery(String text, VarData vdat) throws ParseException {
+        this.text = text;
+        this.vdat = vdat;
+        String[] sampleNames = vdat.returnSampleNames();
+        for (int i=0; i < sampleNames.length; i++) {
+            sampleIndexOf.put(sampleNames[i], i);
+        }
+        String[] annotNames = vdat.returnDataNames();
+        for (int i=0; i < annotNames.length; i++) {
+            annotIndexOf.put(annotNames[i], i);
+        }
+        tokenize();
+    }
+
+
+    /* ********
+    *   Tokens
+    *  ********
+    */
+
+    private void tokenize() throws ParseException {
+        int i = 0;
+        while (i < text.length()) {
+            char ch = text.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            if (ch == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) {
+                    throw new ParseException("Unterminated quote", i);
+                }
+                i = end + 1;
+            }
+            else if (i + 1 < text.length() && isTwoCharOp(text.substring(i, i + 2))) {
+                i += 2;
+            }
+            else if ("()@=!~<>^".indexOf(ch) >= 0) {
+                i++;
+            }
+            else {
+                while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                       && "()@=!~<>^\"&|".indexOf(text.charAt(i)) < 0) {
+                    i++;
+                }
+                if (i == start) {
+                    throw new ParseException("Unexpected \"" + ch + "\"", i);
+                }
+            }
+            tokens.add(text.substring(start, i));
+            tokenStart.add(start);
+        }
+    }
+
+
+    private static boolean isTwoCharOp(String s) {
+        return s.equals("==") || s.equals("!=") || s.equals("!~") || s.equals("&&") || s.equals("||");
+    }
+
+
+    private String peek() {
+        return (pos < tokens.size()) ? tokens.get(pos) : "";
+    }
+
+
+    private String next() throws ParseException {
+        if (pos >= tokens.size()) {
+            throw error("Unexpected end of query");
+        }
+        return tokens.get(pos++);
+    }
+
+
+    private boolean acceptWord(String word, String symbol) {
+        if (peek().equalsIgnoreCase(word) || peek().equals(symbol)) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+
+    private ParseException error(String message) {
+        int offset = (pos < tokenStart.size()) ? tokenStart.get(pos) : text.length();
+        return new ParseException(message + " at position " + (offset + 1), offset);
+    }
+
+
+    /**
+    *   Return a name or value, without quotes
+    */
+    private String parseName() throws ParseException {
+        String t = next();
+        if (t.startsWith("\"")) {
+            return t.substring(1, t.length() - 1);
+        }
+        if (t.length() == 1 && "()@=!~<>^".indexOf(t.charAt(0)) >= 0 || isTwoCharOp(t)) {
+            pos--;
+            throw error("Expected a name or value but found \"" + t + "\"");
+        }
+        return t;
+    }
+
+
+    /* ********
+    *   Connectors: the same boxes as the AND / OR / XOR buttons
+    *  ********
+    */
+
+    private CustomVertex parseOr() throws ParseException {
+        List<CustomVertex> terms = new ArrayList<CustomVertex>();
+        terms.add(parseXor());
+        while (acceptWord("OR", "||")) {
+            terms.add(parseXor());
+        }
+        return link("OR", " || ", terms);
+    }
+
+
+    private CustomVertex parseXor() throws ParseException {
+        CustomVertex left = parseAnd();
+        while (acceptWord("XOR", "^")) {
+            //Chained XOR boxes don't work as expected (see CustomQueryView), so XOR is always pairwise
+            List<CustomVertex> pair = new ArrayList<CustomVertex>();
+            pair.add(left);
+            pair.add(parseAnd());
+            left = link("XOR", " ^ ", pair);
+        }
+        return left;
+    }
+
+
+    private CustomVertex parseAnd() throws ParseException {
+        List<CustomVertex> terms = new ArrayList<CustomVertex>();
+        terms.add(parseTerm());
+        while (acceptWord("AND", "&&")) {
+            terms.add(parseTerm());
+        }
+        return link("AND", " && ", terms);
+    }
+
+
+    private CustomVertex link(String label, String query, List<CustomVertex> children) {
+        if (children.size() == 1) {
+            return children.get(0);
+        }
+        CustomVertex cv = new CustomVertex(label, query);
+        graph.addVertex(cv);
+        for (CustomVertex child : children) {
+            graph.addVertex(child);
+            graph.addEdge(edgeCount++, cv, child);
+        }
+        return cv;
+    }
+
+
+    /* ********
+    *   Comparisons: the same boxes as CustomQueryView.buildQueryVertex() makes
+    *  ********
+    */
+
+    private CustomVertex parseTerm() throws ParseException {
+        if (peek().equals("(")) {
+            pos++;
+            CustomVertex cv = parseOr();
+            if (!peek().equals(")")) {
+                throw error("Expected \")\"");
+            }
+            pos++;
+            return cv;
+        }
+        else if (peek().equals("@")) {
+            return parseSampleTerm();
+        }
+        return parseAnnotTerm();
+    }
+
+
+    private CustomVertex parseSampleTerm() throws ParseException {
+        pos++;
+        int opPos;
+        String name = parseName();
+        int sample = sampleIndex(name);
+        String label = name.replaceFirst("\\.NA$", "");
+        String sampQuery = "sampData[i][" + sample + "][0]";
+
+        opPos = pos;
+        String op = next();
+        if (!op.equals("==") && !op.equals("!=")) {
+            pos = opPos;
+            throw error("Expected == or != after a sample");
+        }
+        String opLabel = op.equals("==") ? "equals" : "does not equal";
+
+        String valueLabel;
+        String query;
+        if (peek().equals("@")) {
+            pos++;
+            String other = parseName();
+            valueLabel = other.replaceFirst("\\.NA$", "");
+            query = sampQuery + op + "sampData[i][" + sampleIndex(other) + "][0]";
+        }
+        else {
+            String g = parseName();
+            int k = genotypeIndex(g);
+            valueLabel = CustomQueryView.fixedSamples[k];
+            switch (k) {
+                case 0: query = sampQuery + op + "homRefGen"; break;
+                case 1: query = sampQuery + op + "homNonRefGen"; break;
+                case 2: query = (op.equals("!=") ? "!" : "") + "isHom(" + sampQuery + ")"; break;
+                case 3: query = (op.equals("!=") ? "!" : "") + "isHet(" + sampQuery + ")"; break;
+                case 4: query = sampQuery + op + "hemiRefGen"; break;
+                case 5: query = sampQuery + op + "hemiVarGen"; break;
+                default: query = sampQuery + op + "NA_Allele"; break;
+            }
+        }
+        return leaf(label, opLabel, valueLabel, query);
+    }
+
+
+    private CustomVertex parseAnnotTerm() throws ParseException {
+        String name = parseName();
+        Integer col = annotIndexOf.get(name);
+        if (col == null) {
+            pos--;
+            throw error("No annotation named \"" + name + "\"");
+        }
+        AbstractMapper map = vdat.returnAnnotMap()[col];
+        String annotQuery = "allData[i][" + col + "]";
+
+        int opPos = pos;
+        String op = next();
+        String value = parseName();
+        switch (map.getDataType()) {
+            case VarData.STRING:
+            case VarData.MULTISTRING:
+                boolean isMulti = (map.getDataType() == VarData.MULTISTRING);
+                if (op.equals("==") || op.equals("!=")) {
+                    int index = map.getIndexOf(value);
+                    if (index < 0) {
+                        pos--;
+                        throw error("\"" + value + "\" is not a value of " + name);
+                    }
+                    String opLabel = op.equals("==") ? "equals" : "does not equal";
+                    if (isMulti) {
+                        String mask = "(int)Math.pow(2," + index + ")";
+                        return leaf(name, opLabel, value, multiStringQuery(annotQuery, op, mask, true));
+                    }
+                    return leaf(name, opLabel, value, annotQuery + op + index);
+                }
+                else if (op.equals("~") || op.equals("!~")) {
+                    BitSet matches;
+                    try {
+                        matches = map.filterWithPattern(Pattern.compile(value, Pattern.CASE_INSENSITIVE));
+                    }
+                    catch (PatternSyntaxException pse) {
+                        pos--;
+                        throw error("Bad search text \"" + value + "\"");
+                    }
+                    String opLabel = op.equals("~") ? "equals" : "does not equal";
+                    String eqOp = op.equals("~") ? "==" : "!=";
+                    if (isMulti) {
+                        int mask = 0;
+                        for (int k = matches.nextSetBit(0); k >= 0; k = matches.nextSetBit(k+1)) {
+                            mask += (int)Math.pow(2,k);
+                        }
+                        return leaf(name, opLabel, value, multiStringQuery(annotQuery, eqOp, Integer.toString(mask), false));
+                    }
+                    int index = bitSetList.size();
+                    bitSetList.add(CompressedBitSet.valueOf(matches));
+                    return leaf(name, opLabel, value, (eqOp.equals("!=") ? "!" : "") + "bitSets[" + index + "].get("
+                        + annotQuery + ")");
+                }
+                break;
+            case VarData.INTEGER:
+            case VarData.FLOAT:
+                String opLabel;
+                if (op.equals("==")) {
+                    opLabel = "equals";
+                }
+                else if (op.equals(">")) {
+                    opLabel = ">";
+                }
+                else if (op.equals("<")) {
+                    opLabel = "&lt";
+                }
+                else {
+                    break;
+                }
+                String number;
+                try {
+                    number = Integer.toString(Integer.parseInt(value));
+                    value = number;
+                }
+                catch (NumberFormatException nfe) {
+                    try {
+                        value = Float.toString(Float.parseFloat(value));
+                        number = value + "f";
+                    }
+                    catch (NumberFormatException n) {
+                        pos--;
+                        throw error("\"" + value + "\" is not a number");
+                    }
+                }
+                if (map.getDataType() == VarData.FLOAT) {
+                    annotQuery = "annotMapper[" + col + "].getFloat(" + annotQuery + ")";
+                }
+                return leaf(name, opLabel, value, annotQuery + op + number);
+        }
+        pos = opPos;
+        throw error("Can't use \"" + op + "\" with annotation " + name);
+    }
+
+
+    /**
+    *   Return the query CustomQueryView builds for a MULTISTRING annotation
+    *
+    *   @param op == or !=
+    *   @param mask The flag mask
+    *   @param isPow True if the mask is a single flag written as (int)Math.pow(2,k)
+    */
+    private static String multiStringQuery(String annotQuery, String op, String mask, boolean isPow) {
+        String inner = isPow ? mask.substring(0, mask.length() - 1) : mask;   //Math.pow's ")" is added below
+        if (op.equals("==")) {
+            return "(" + (isPow ? "" : "(") + annotQuery + " & " + inner + ")) > 0";
+        }
+        return "(" + (isPow ? "" : "(") + "~" + annotQuery + " & " + inner + "))==" + inner + (isPow ? ")" : "");
+    }
+
+
+    private CustomVertex leaf(String label, String opLabel, String valueLabel, String query) {
+        CustomVertex cv = new CustomVertex("<html>" + label + "<p>" + opLabel + "<p>" + valueLabel, "(" + query + ")");
+        graph.addVertex(cv);
+        return cv;
+    }
+
+
+    private int sampleIndex(String name) throws ParseException {
+        Integer s = sampleIndexOf.get(name);
+        if (s == null) {
+            s = sampleIndexOf.get(name + ".NA");
+        }
+        if (s == null) {
+            pos--;
+            throw error("No sample named \"" + name + "\"");
+        }
+        return s;
+    }
+
+
+    private int genotypeIndex(String g) throws ParseException {
+        for (int k=0; k < GENOTYPES.length; k++) {
+            if (GENOTYPES[k].equalsIgnoreCase(g)) {
+                return k;
+            }
+        }
+        pos--;
+        throw error("Expected a sample or genotype (homref, homvar, hom, het, hemiref, hemivar, NA) but found \""
+            + g + "\"");
+    }
+
+
+    /**
+    *   Run text queries from the command line, printing the number of variants passing each
+    *
+    *   @param args data file, then one or more query files
+    */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java -cp VarSifter.jar:jung/* TextQuery <data file> <query file> ...");
+            System.exit(1);
+        }
+        VarData vdat = args[0].endsWith(".vcf") ? new VCFVarData(args[0]) : new VarData(args[0]);
+        BatchQuery batch = new BatchQuery(vdat);
+        for (int i=1; i < args.length; i++) {
+            try {
+                batch.add(args[i], read(new File(args[i]), vdat));
+            }
+            catch (ParseException pe) {
+                System.out.println(args[i] + ": " + pe.getMessage());
+            }
+            catch (IOException ioe) {
+                System.out.println(args[i] + ": " + ioe.toString());
+            }
+        }
+        batch.run();
+        for (int q=0; q < batch.size(); q++) {
+            System.out.println(batch.getName(q) + "\t" + batch.getCount(q));
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/**
+*   One annotation column, or one field of one sample, read as its type: an int, a float, a dictionary
+*   String, or a set of multi-value flags.  The type is resolved once, when the column is made, so a loop
+*   over rows calls one accessor of one class instead of switching on the AbstractMapper's data type (and
+*   looking the value up) for every cell.
+*/
+public abstract class TypedColumn {
+
+    protected final AnnotationStore data;   //Annotation data, or null for a sample field
+    protected final int col;
+    protected final SampleStore samples;    //Sample data, or null for an annotation column
+    protected final int sample;
+    protected final int field;
+    protected final AbstractMapper mapper;
+
+    /**
+    *   Private constructor - use forAnnotation() or forSampleField()
+    */
+    private TypedColumn(AnnotationStore data, int col, SampleStore samples, int sample, int field,
+                        AbstractMapper mapper) {
+        this.data = data;
+        this.col = col;
+        this.samples = samples;
+        this.sample = sample;
+        this.field = field;
+        this.mapper = mapper;
+    }
+
+
+    /**
+    *   Make a typed view of an annotation column
+    *
+    *   @param data The annotation data
+    *   @param col The column
+    *   @param mapper The column's AbstractMapper
+    *   @return The TypedColumn
+    */
+    public static TypedColumn forAnnotation(AnnotationStore data, int col, AbstractMapper mapper) {
+        return create(data, col, null, 0, 0, mapper);
+    }
+
+
+    /**
+    *   Make a typed view of one field of one sample
+    *
+    *   @param samples The sample data
+    *   @param sample The sample index
+    *   @param field The field (0 is the genotype)
+    *   @param mapper The field's AbstractMapper
+    *   @return The TypedColumn
+    */
+    public static TypedColumn forSampleField(SampleStore samples, int sample, int field, AbstractMapper mapper) {
+        return create(null, 0, samples, sample, field, mapper);
+    }
+
+
+    private static TypedColumn create(AnnotationStore data, int col, SampleStore samples, int sample, int field,
+                                      AbstractMapper mapper) {
+        switch (mapper.getDataType()) {
+            case VarData.INTEGER:
+                return new IntColumn(data, col, samples, sample, field, mapper);
+            case VarData.FLOAT:
+                return new FloatColumn(data, col, samples, sample, field, mapper);
+            case VarData.MULTISTRING:
+                return new MultiStringColumn(data, col, samples, sample, field, mapper);
+            default:
+                return new StringColumn(data, col, samples, sample, field, mapper);
+        }
+    }
+
+
+    /**
+    *   Return the stored int of a row: the value of an INTEGER column, else an index into the AbstractMapper
+    *   (or the flags of a MULTISTRING column)
+    *
+    *   @param row The row
+    *   @return The stored int
+    */
+    public final int code(int row) {
+        return (data != null) ? data.get(row, col) : samples.get(row, sample, field);
+    }
+
+
+    /**
+    *   Return the number of rows
+    *
+    *   @return The number of rows
+    */
+    public final int size() {
+        return (data != null) ? data.size() : samples.size();
+    }
+
+
+    /**
+    *   Return the AbstractMapper
+    *
+    *   @return The AbstractMapper for this column
+    */
+    public final AbstractMapper getMapper() {
+        return mapper;
+    }
+
+
+    /**
+    *   Return the type of data
+    *
+    *   @return VarData.INTEGER, FLOAT, STRING or MULTISTRING
+    */
+    public abstract int getDataType();
+
+
+    /**
+    *   Return a row's value as an int
+    *
+    *   @param row The row
+    *   @return The value (the dictionary index, for STRING and MULTISTRING columns)
+    */
+    public int getInt(int row) {
+        return code(row);
+    }
+
+
+    /**
+    *   Return a row's value as a float
+    *
+    *   @param row The row
+    *   @return The value
+    *   @throws UnsupportedOperationException If the column is not INTEGER or FLOAT
+    */
+    public float getFloat(int row) {
+        throw new UnsupportedOperationException("Not a numeric column");
+    }
+
+
+    /**
+    *   Return a row's value as a String, as it was loaded
+    *
+    *   @param row The row
+    *   @return The String
+    */
+    public String getString(int row) {
+        return mapper.getString(code(row));
+    }
+
+
+    /**
+    *   Return a row's value as shown in the table: an Integer, Float or String
+    *
+    *   @param row The row
+    *   @return The value
+    */
+    public abstract Object getValue(int row);
+
+
+    /**
+    *   Test a numeric value against a minimum
+    *
+    *   @param row The row
+    *   @param min The minimum
+    *   @return True if the value is at least min; always false if the column is not INTEGER or FLOAT
+    */
+    public abstract boolean atLeast(int row, int min);
+
+
+    private final static class IntColumn extends TypedColumn {
+        IntColumn(AnnotationStore data, int col, SampleStore samples, int sample, int field, AbstractMapper mapper) {
+            super(data, col, samples, sample, field, mapper);
+        }
+
+        public int getDataType() {
+            return VarData.INTEGER;
+        }
+
+        public float getFloat(int row) {
+            return (float)code(row);
+        }
+
+        public String getString(int row) {
+            return String.valueOf(code(row));
+        }
+
+        public Object getValue(int row) {
+            return Integer.valueOf(code(row));
+        }
+
+        public boolean atLeast(int row, int min) {
+            return code(row) >= min;
+        }
+    }
+
+
+    private final static class FloatColumn extends TypedColumn {
+        private final FloatMapper floats;
+
+        FloatColumn(AnnotationStore data, int col, SampleStore samples, int sample, int field, AbstractMapper mapper) {
+            super(data, col, samples, sample, field, mapper);
+            floats = (FloatMapper)mapper;
+        }
+
+        public int getDataType() {
+            return VarData.FLOAT;
+        }
+
+        public float getFloat(int row) {
+            return floats.getFloat(code(row));
+        }
+
+        public Object getValue(int row) {
+            return Float.valueOf(getFloat(row));
+        }
+
+        public boolean atLeast(int row, int min) {
+            return getFloat(row) >= min;
+        }
+    }
+
+
+    private static class StringColumn extends TypedColumn {
+        StringColumn(AnnotationStore data, int col, SampleStore samples, int sample, int field, AbstractMapper mapper) {
+            super(data, col, samples, sample, field, mapper);
+        }
+
+        public int getDataType() {
+            return VarData.STRING;
+        }
+
+        public Object getValue(int row) {
+            return getString(row);
+        }
+
+        public boolean atLeast(int row, int min) {
+            return false;
+        }
+    }
+
+
+    private final static class MultiStringColumn extends StringColumn {
+        MultiStringColumn(AnnotationStore data, int col, SampleStore samples, int sample, int field,
+                          AbstractMapper mapper) {
+            super(data, col, samples, sample, field, mapper);
+        }
+
+        public int getDataType() {
+            return VarData.MULTISTRING;
+        }
+    }
+}
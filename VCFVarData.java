@@ -3,11 +3,11 @@ import java.net.URL;
 import javax.swing.*;
 import java.text.NumberFormat;
 import java.util.regex.*;
-import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.List;
+import java.security.MessageDigest;
 import java.util.Collections;
 
 /**
@@ -57,6 +57,8 @@ public class VCFVarData extends VarData {
             System.exit(1);
         }
 
+        reportMemory();
+        packGenotypes();
         resetOutput();
     }
 
@@ -124,6 +126,7 @@ public class VCFVarData extends VarData {
         boolean noSamples = false;
         boolean loadAll = false;
         int lineCount = 0;
+        int recordCount = 0;
         int infoCount = 0;
         int headCount = 0;
         int sampleCount = 0;
@@ -516,6 +519,7 @@ public class VCFVarData extends VarData {
 
 
                     //include multiple lines
+                    recordCount++;
                     String varAllele = tempLine[4];
                     if (varAllele.contains(",")) {
                         for (int i=0; i<varAllele.length(); i++) {
@@ -531,9 +535,9 @@ public class VCFVarData extends VarData {
                     System.out.print(".");
                 }
             }
-            data = new int[lineCount][];
-            samples = new int[lineCount][][];
-            dataIsIncluded = new BitSet(lineCount);
+            data = new AnnotationStore(lineCount, dataNames.length);
+            samples = new SampleStore(lineCount, recordCount, sampleNames.length, S_FIELDS);
+            dataIsIncluded = new CompressedBitSet(lineCount);
             br.close();
         
             //Ensure required columns are present (hopefully, as they are filled in by this class).
@@ -551,6 +555,7 @@ public class VCFVarData extends VarData {
 
             //System.out.println(lineCount); //TESTING
             lineCount = 0;
+            recordCount = 0;
             System.out.println();
             System.out.println("File parsing completed - loading file");
         }
@@ -562,7 +567,8 @@ public class VCFVarData extends VarData {
 
         //Open again - fill data
         try {
-            BufferedReader br = new BufferedReader(new FileReader(inFile));
+            MessageDigest fileDigest = QueryResultCache.newDigest();
+            BufferedReader br = QueryResultCache.openDigested(inFile, fileDigest);
             while ((line = br.readLine()) != null) {
                 if (! comment.matcher(line).find()) {
                     String tempLine[] = line.split("\t", 0);
@@ -603,44 +609,50 @@ public class VCFVarData extends VarData {
                         }
                     }
 
+                    //Sample fields are parsed once per record, and shared by its alt allele rows.  Only
+                    // the genotype is stored for each row (its code depends on the row's INDEL status)
+                    String[][] genoAlleles = null;   //Sorted alleles of each sample's genotype
+                    int[][] genoCodes = new int[2][];   //Genotype codes of each sample, for SNP and INDEL rows
+
                     //Run loop once for each alt allele
                     for (int altI = 0; altI < altAlleleCount; altI++) {
 
                         int tempLineCount = lineCount + altI;
-                        data[tempLineCount] = new int[dataNames.length];
+                        samples.setRecord(tempLineCount, recordCount);
+                        int[] annotRow = new int[dataNames.length];
 
 
                         //Chr
                         if ( !tempLine[0].contains("chr") ) {
                             tempLine[0] = "chr" + tempLine[0];
                         }
-                        data[tempLineCount][0] = annotMapper[0].addData(tempLine[0]);
+                        annotRow[0] = annotMapper[0].addData(tempLine[0]);
 
                         //LeftFlank / RightFlank
-                        data[tempLineCount][1] = Integer.parseInt(tempLine[1]) - 1;
-                        data[tempLineCount][2] = Integer.parseInt(tempLine[1]) + tempLine[3].length();
+                        annotRow[1] = Integer.parseInt(tempLine[1]) - 1;
+                        annotRow[2] = Integer.parseInt(tempLine[1]) + tempLine[3].length();
 
                         //Gene_name
                         if (ca != null) {
-                            data[tempLineCount][3] = annotMapper[3].addData(ca.getGeneName(altI));
+                            annotRow[3] = annotMapper[3].addData(ca.getGeneName(altI));
                         }
                         else if ( !geneNameKey.equals("") ) {
                             if ( infoHash.get(geneNameKey) != null ) {
-                                data[tempLineCount][3] = annotMapper[3].addData(
+                                annotRow[3] = annotMapper[3].addData(
                                     infoHash.get(geneNameKey));
                             }
                             else {
-                                data[tempLineCount][3] = annotMapper[3].addData("-");
+                                annotRow[3] = annotMapper[3].addData("-");
                             }
                         }
                         else {
-                            data[tempLineCount][3] = annotMapper[3].addData("-");
+                            annotRow[3] = annotMapper[3].addData("-");
                         }
 
                         //type
                         if (ca != null) {
                             // This is now split based on allele
-                            data[tempLineCount][4] = annotMapper[4].addData(ca.getType(altI));
+                            annotRow[4] = annotMapper[4].addData(ca.getType(altI));
                         }
                         else if ( !typeKey.equals("") ) {
                             if ( infoHash.get(typeKey) != null ) {
@@ -651,36 +663,36 @@ public class VCFVarData extends VarData {
                                     if (altI < multiValues.length) {
                                         s = multiValues[altI];
                                     }
-                                    data[tempLineCount][4] = annotMapper[4].addData(s);
+                                    annotRow[4] = annotMapper[4].addData(s);
                                 }
                                 else {                                        
                                     //Not multiallele, so add complete value
-                                    data[tempLineCount][4] = annotMapper[4].addData(
+                                    annotRow[4] = annotMapper[4].addData(
                                         infoHash.get(typeKey));
                                 }
 
                             }
                             else {
-                                data[tempLineCount][4] = annotMapper[4].addData("-");
+                                annotRow[4] = annotMapper[4].addData("-");
                             }
                         }
                         else {
-                            data[tempLineCount][4] = annotMapper[4].addData("-");
+                            annotRow[4] = annotMapper[4].addData("-");
                         }
 
                         //dbID
                         if (tempLine[2].equals(".")) {
                             tempLine[2] = "-";
                         }
-                        data[tempLineCount][6] = annotMapper[6].addData(tempLine[2]);
+                        annotRow[6] = annotMapper[6].addData(tempLine[2]);
 
                         //ref_allele
-                        data[tempLineCount][7] = annotMapper[7].addData(tempLine[3]);
+                        annotRow[7] = annotMapper[7].addData(tempLine[3]);
                         alleles.add(tempLine[3]);
 
                         //var_allele
                         String[] varTemp = tempLine[4].split(",", 0);
-                        data[tempLineCount][8] = annotMapper[8].addData(varTemp[altI]);
+                        annotRow[8] = annotMapper[8].addData(varTemp[altI]);
 
                         //muttype and assingment of INDEL (and further parsing of var_allele)
                         indel = (tempLine[3].length() != 1) ? true : false;
@@ -703,17 +715,17 @@ public class VCFVarData extends VarData {
                         else {
                             index = annotMapper[5].addData("SNP");
                         }
-                        data[tempLineCount][5] = index;
+                        annotRow[5] = index;
                         
 
                         //QUAL
                         if (tempLine[5].equals(".")) {
                             tempLine[5] = "NaN";
                         }
-                        data[tempLineCount][9] = annotMapper[9].addData(Float.parseFloat(tempLine[5]));
+                        annotRow[9] = annotMapper[9].addData(Float.parseFloat(tempLine[5]));
 
                         //FILTER
-                        data[tempLineCount][10] = annotMapper[10].addData(tempLine[6]);
+                        annotRow[10] = annotMapper[10].addData(tempLine[6]);
 
 
                         //INFO field
@@ -732,10 +744,10 @@ public class VCFVarData extends VarData {
                                 switch (classList[pos]) {
                                     case INTEGER:
                                         if (infoHash.containsKey(key) && altI < multiValues.length) {
-                                            data[tempLineCount][pos] = Integer.parseInt(multiValues[altI]);
+                                            annotRow[pos] = Integer.parseInt(multiValues[altI]);
                                         }
                                         else {
-                                            data[tempLineCount][pos] = 0;
+                                            annotRow[pos] = 0;
                                         }
                                         break;
                                     case FLOAT:
@@ -748,14 +760,14 @@ public class VCFVarData extends VarData {
                                                 f = Float.parseFloat(multiValues[altI]);
                                             }
                                         }
-                                        data[tempLineCount][pos] = annotMapper[pos].addData(f);
+                                        annotRow[pos] = annotMapper[pos].addData(f);
                                         break;
                                     case STRING:
                                         String s = "-";
                                         if (infoHash.containsKey(key) && altI < multiValues.length) {
                                             s = multiValues[altI];
                                         }
-                                        data[tempLineCount][pos] = annotMapper[pos].addData(s);
+                                        annotRow[pos] = annotMapper[pos].addData(s);
                                         break;
                                 }
                             }
@@ -764,10 +776,10 @@ public class VCFVarData extends VarData {
                                 switch (classList[pos]) {
                                     case INTEGER:
                                         if (infoHash.containsKey(key)) { 
-                                            data[tempLineCount][pos] = Integer.parseInt(infoHash.get(key));
+                                            annotRow[pos] = Integer.parseInt(infoHash.get(key));
                                         }
                                         else {
-                                            data[tempLineCount][pos] = 0;
+                                            annotRow[pos] = 0;
                                         }
                                         break;
                                     case FLOAT:
@@ -780,138 +792,124 @@ public class VCFVarData extends VarData {
                                                 f = Float.parseFloat(infoHash.get(key));
                                             }
                                         }
-                                        data[tempLineCount][pos] = annotMapper[pos].addData(f);
+                                        annotRow[pos] = annotMapper[pos].addData(f);
                                         break;
                                     case STRING:
                                         String s = "-";
                                         if (infoHash.containsKey(key)) {
                                             s = infoHash.get(key);
                                         }
-                                        data[tempLineCount][pos] = annotMapper[pos].addData(s);
+                                        annotRow[pos] = annotMapper[pos].addData(s);
                                         break;
                                 }
                             }
                         }
+                        data.addRow(annotRow);
 
 
                         // Handle Samples
-                        samples[tempLineCount] = new int[sampleNames.length][S_FIELDS];
-
                         if (noSamples) {
-                            samples[tempLineCount][0][0] = sampleMapper[0].getIndexOf("NA");
-                            samples[tempLineCount][0][1] = (sampleMapper[1].getDataType() == FLOAT) 
-                                ? sampleMapper[1].addData(Float.parseFloat("NaN")) : 0;
-                            samples[tempLineCount][0][2] = 0;
+                            samples.set(tempLineCount, 0, 0, sampleMapper[0].getIndexOf("NA"));
+                            if (altI == 0) {
+                                samples.set(tempLineCount, 0, 1, (sampleMapper[1].getDataType() == FLOAT) 
+                                    ? sampleMapper[1].addData(Float.parseFloat("NaN")) : 0);
+                                samples.set(tempLineCount, 0, 2, 0);
+                            }
                         }
                         else {
-                            String[] sampTemp = tempLine[8].split(":");
-                            Map<String, Integer> sampHash = new HashMap<String,Integer>(7);
-                            for (int i=0; i < sampTemp.length; i++) {
-                                sampHash.put(sampTemp[i], i);
-                            }
-
-                            if ( (tempLine.length - (annotCount+1)) != sampleNames.length) {
-                                System.out.println("INTERNAL ERROR: inconsistent sample counting at dataline " 
-                                    + tempLineCount);
-                                System.exit(1);
-                            }
+                            if (altI == 0) {
+                                String[] sampTemp = tempLine[8].split(":");
+                                Map<String, Integer> sampHash = new HashMap<String,Integer>(7);
+                                for (int i=0; i < sampTemp.length; i++) {
+                                    sampHash.put(sampTemp[i], i);
+                                }
 
-                            for (int i = annotCount + 1; i < tempLine.length; i++) {
-                                sampTemp = tempLine[i].split(":");
-                                String geno = sampTemp[sampHash.get("GT")];
-                                Matcher m = genoSep_pat.matcher(geno);
-                                
-                                // Genotype
-                                //   !!! Will need to fix this for "normalized" VCF (from vt)
-                                if (geno.contains(".")) {
-                                    geno = "NA";
+                                if ( (tempLine.length - (annotCount+1)) != sampleNames.length) {
+                                    System.out.println("INTERNAL ERROR: inconsistent sample counting at dataline " 
+                                        + tempLineCount);
+                                    System.exit(1);
                                 }
-                                else if (m.find()) {
-                                    String[] genoTemp = { alleles.get(Integer.parseInt(m.group(1))), 
-                                                          alleles.get(Integer.parseInt(m.group(2))) 
-                                                        };
-                                    java.util.Arrays.sort(genoTemp);
-
-                                    // DIV handling
-                                    if (indel) {
-                                        geno = genoTemp[0] + ":" + genoTemp[1];
-                                    }
-                                    else {
-                                        geno = genoTemp[0] + genoTemp[1];
+
+                                genoAlleles = new String[sampleNames.length][];
+                                for (int i = annotCount + 1; i < tempLine.length; i++) {
+                                    sampTemp = tempLine[i].split(":");
+                                    String geno = sampTemp[sampHash.get("GT")];
+                                    Matcher m = genoSep_pat.matcher(geno);
+
+                                    // Genotype
+                                    //   !!! Will need to fix this for "normalized" VCF (from vt)
+                                    if (geno.contains(".")) {
+                                        genoAlleles[i - (annotCount + 1)] = new String[]{ "NA" };
                                     }
-                                }
-                                else {
-                                    try {
-                                        geno = alleles.get(Integer.parseInt(geno));
+                                    else if (m.find()) {
+                                        String[] genoTemp = { alleles.get(Integer.parseInt(m.group(1))), 
+                                                              alleles.get(Integer.parseInt(m.group(2))) 
+                                                            };
+                                        java.util.Arrays.sort(genoTemp);
+                                        genoAlleles[i - (annotCount + 1)] = genoTemp;
                                     }
-                                    catch (NumberFormatException nfe) {
-                                        System.out.println("Malformed genotype on line " + (tempLineCount + 1) + ": " + geno );
+                                    else {
+                                        try {
+                                            geno = alleles.get(Integer.parseInt(geno));
+                                        }
+                                        catch (NumberFormatException nfe) {
+                                            System.out.println("Malformed genotype on line " + (tempLineCount + 1) + ": " + geno );
+                                        }
+                                        genoAlleles[i - (annotCount + 1)] = new String[]{ geno };
                                     }
-                                }
 
-                                samples[tempLineCount][i - (annotCount + 1)][0] = sampleMapper[0].addData(geno);
-
-                                //TODO:DONE - REMOVE - may not need separate "Qual score", "coverage" loaders
-                                // Qual score
-                                //if (sampHash.get("GQ") == null || sampTemp.length <= sampHash.get("GQ") || sampTemp[sampHash.get("GQ")].equals(".")) {
-                                //    samples[tempLineCount][i - (annotCount + 1)][1] 
-                                //    = (sampleMapper[1].getDataType() == FLOAT)
-                                //    ? sampleMapper[1].addData(Float.parseFloat("NaN"))
-                                //    : sampleMapper[1].addData(0);
-                                //}
-                                //else {
-                                //    samples[tempLineCount][i - (annotCount + 1)][1] 
-                                //        = (sampleMapper[1].getDataType() == FLOAT) 
-                                //        ? sampleMapper[1].addData(Float.parseFloat(sampTemp[sampHash.get("GQ")])) 
-                                //        : sampleMapper[1].addData(Integer.parseInt(sampTemp[sampHash.get("GQ")]));
-                                //}
-
-                                //// Read depth
-                                //if (sampHash.get("DP") == null || sampTemp.length <= sampHash.get("DP") || sampTemp[sampHash.get("DP")].equals(".")) {
-                                //    samples[tempLineCount][i - (annotCount + 1)][2] = 0;
-                                //}
-                                //else {
-                                //    samples[tempLineCount][i - (annotCount + 1)][2] 
-                                //        = Integer.parseInt(sampTemp[sampHash.get("DP")]);
-                                //}
-
-                                //TODO:DONE Load other sample fields
-                                // Start at index 1, as 0 is GT (handled above)
-                                for (int j = 1; j < S_FIELDS; j++) {
-                                    String tag = sampleValueName[j];
-                                    switch (sampleMapper[j].getDataType()) {
-                                        case INTEGER:
-                                            samples[tempLineCount][i - (annotCount + 1)][j]
-                                                = (sampHash.get(tag) != null 
-                                                    && sampTemp.length > sampHash.get(tag)
-                                                    && !sampTemp[sampHash.get(tag)].equals(".") ) 
-                                                ? sampleMapper[j].addData(Integer.parseInt(sampTemp[sampHash.get(tag)]))
-                                                : sampleMapper[j].addData(0);
-                                            break;
-                                        case FLOAT:
-                                            samples[tempLineCount][i - (annotCount + 1)][j]
-                                                = (sampHash.get(tag) != null 
-                                                    && sampTemp.length > sampHash.get(tag)
-                                                    && !sampTemp[sampHash.get(tag)].equals(".") )
-                                                ? sampleMapper[j].addData(Float.parseFloat(sampTemp[sampHash.get(tag)]))
-                                                : sampleMapper[j].addData(Float.parseFloat("NaN"));
-                                            break;
-                                        case STRING:
-                                            samples[tempLineCount][i - (annotCount + 1)][j]
-                                                = (sampHash.get(tag) != null 
-                                                    && sampTemp.length > sampHash.get(tag)
-                                                    && !sampTemp[sampHash.get(tag)].equals(".") )
-                                                ? sampleMapper[j].addData(sampTemp[sampHash.get(tag)])
-                                                : sampleMapper[j].addData(CustomAnnotation.EMPTY);
-                                            break;
+                                    //TODO:DONE Load other sample fields
+                                    // Start at index 1, as 0 is GT (handled below)
+                                    for (int j = 1; j < S_FIELDS; j++) {
+                                        String tag = sampleValueName[j];
+                                        switch (sampleMapper[j].getDataType()) {
+                                            case INTEGER:
+                                                samples.set(tempLineCount, i - (annotCount + 1), j,
+                                                      (sampHash.get(tag) != null 
+                                                        && sampTemp.length > sampHash.get(tag)
+                                                        && !sampTemp[sampHash.get(tag)].equals(".") ) 
+                                                    ? sampleMapper[j].addData(Integer.parseInt(sampTemp[sampHash.get(tag)]))
+                                                    : sampleMapper[j].addData(0));
+                                                break;
+                                            case FLOAT:
+                                                samples.set(tempLineCount, i - (annotCount + 1), j,
+                                                      (sampHash.get(tag) != null 
+                                                        && sampTemp.length > sampHash.get(tag)
+                                                        && !sampTemp[sampHash.get(tag)].equals(".") )
+                                                    ? sampleMapper[j].addData(Float.parseFloat(sampTemp[sampHash.get(tag)]))
+                                                    : sampleMapper[j].addData(Float.parseFloat("NaN")));
+                                                break;
+                                            case STRING:
+                                                samples.set(tempLineCount, i - (annotCount + 1), j,
+                                                      (sampHash.get(tag) != null 
+                                                        && sampTemp.length > sampHash.get(tag)
+                                                        && !sampTemp[sampHash.get(tag)].equals(".") )
+                                                    ? sampleMapper[j].addData(sampTemp[sampHash.get(tag)])
+                                                    : sampleMapper[j].addData(CustomAnnotation.EMPTY));
+                                                break;
+                                        }
                                     }
                                 }
+                            }
 
+                            // DIV handling
+                            int sep = (indel) ? 1 : 0;
+                            if (genoCodes[sep] == null) {
+                                genoCodes[sep] = new int[genoAlleles.length];
+                                for (int i=0; i < genoAlleles.length; i++) {
+                                    String[] g = genoAlleles[i];
+                                    String geno = (g.length == 1) ? g[0] : (indel) ? (g[0] + ":" + g[1]) : (g[0] + g[1]);
+                                    genoCodes[sep][i] = sampleMapper[0].addData(geno);
+                                }
+                            }
+                            for (int i=0; i < genoAlleles.length; i++) {
+                                samples.set(tempLineCount, i, 0, genoCodes[sep][i]);
                             }
                         }
                         
                     }
                     lineCount += altAlleleCount;
+                    recordCount++;
 
                 }
                 if (lineCount % 1000 == 0) {
@@ -919,6 +917,7 @@ public class VCFVarData extends VarData {
                 }
             }
             br.close();
+            dataDigest = QueryResultCache.fingerprint(inFile, fileDigest);
             System.out.println();
         }
         catch (IOException ioe) {
@@ -7,6 +7,8 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.WeakHashMap;
+import java.security.MessageDigest;
 
 
 /**
@@ -24,8 +26,6 @@ public class VarData {
     final int MIN_MPG = 3;
     final int MIN_MPG_COV = 4;
 
-    protected int genScoreThresh;
-    
     final String[] geneDataHeaders = {"Gene_name", "Var Count"};
     final String[] ALLELES = {"A", "C", "G", "T"};
     final String[] requiredHeaders = {"Chr",
@@ -43,6 +43,16 @@ public class VarData {
     final static int STRING = 2;
     final static int MULTISTRING = 3;
 
+    //Genotype classes, for returnGenotypeClassRows()
+    final static int HOM_REF_GEN = 0;
+    final static int HOM_NON_REF_GEN = 1;
+    final static int HEMI_REF_GEN = 2;
+    final static int HEMI_VAR_GEN = 3;
+    final static int NA_GEN = 4;
+    final static int HET_GEN = 5;
+    final static int HOM_GEN = 6;
+    final static int GENOTYPE_CLASSES = 7;
+
     protected String[] dataNamesOrig = {""};     // All data names, for writing purposes
     protected String[] dataNames = {""};
     protected String[] sampleNamesOrig = {""};   // All sample names, for writing purposes
@@ -50,10 +60,10 @@ public class VarData {
     protected String[] sampleValueName = {""};
 
     //data fields
-    protected int[][] data;           // Fields: [line][var_annotation col]
-    protected int[][] outData;        // Gets returned (can be filtered)
-    protected int[][][] samples;      // Fields: [line][sampleName][genotype:MPGscore:coverage]
-    protected int[][][] outSamples;   // Gets returned (can be filtered)
+    protected AnnotationStore data;    // Fields: [line][var_annotation col]
+    protected AnnotationStore outData; // Gets returned (can be filtered)
+    protected SampleStore samples;    // Fields: [line][sampleName][genotype:MPGscore:coverage]
+    protected SampleStore outSamples; // Gets returned (can be filtered)
     protected int[] classList = null;
     protected List<String> commentList = new ArrayList<String>(); //comment stored here for printing
     protected List<AbstractMapper> annotMapperBuilder = new ArrayList<AbstractMapper>();  //Build an array of AbstractMappers for annotations
@@ -70,11 +80,27 @@ public class VarData {
     protected final static Pattern comment = Pattern.compile("^#");
     protected final static Pattern floatNaN = Pattern.compile("^-?nan?$", Pattern.CASE_INSENSITIVE);
     protected final static Pattern colSuffixPat = Pattern.compile("_([a-z])$");
+    protected final static String NOVEL_DBID = "^0|-$";   //dbID values of variants not in dbSNP
 
-    protected BitSet dataIsIncluded;      // A mask used to filter data, samples
+    private static boolean memoryReport = false;    //Print the memory used by each annotation column after loading
+
+    protected CompressedBitSet dataIsIncluded;      // A mask used to filter data, samples
+    protected RowSelection outSelection = null;     // Rows in dataIsIncluded, with rank/select (null if all are)
     protected BitSet dataIsEditable = new BitSet();      // Which data elements can be edited
 
     protected BitSet colMask;   // A mask used to load (and thus display) annotation columns (load if true)
+
+    protected BitmapIndex[] annotIndex = null;           // Bitmap indices of annotation columns, built on demand
+    protected BitSet annotIndexBuilt = new BitSet();     // Which columns of annotIndex have been built
+    protected CompressedBitSet novelDbIdRows = null;     // Rows not in dbSNP, built on demand
+    protected CompressedBitSet[][] genotypeClassRows = null;  // [sample][genotype class], built on demand
+    protected int[][] genotypeCodes = null;              // [genotype class][row] allele genotype codes, built on demand
+    protected SparseGenotypes sparseGenotypes = null;    // Calls that aren't hom-ref, by row, built on demand
+    protected boolean sparseGenotypesBuilt = false;      // True once sparseGenotypes is built (it may be null)
+    protected long[][][] genotypeClassMasks = null;      // [genotype class][packed class][word] rows where the packed
+                                                         //  class's code is in the genotype class, built on demand
+    protected QueryResultCache queryResultCache = null;  // Saved custom query results, opened on demand
+    protected boolean isDataEdited = false;              // Data no longer matches dataFile, so don't use saved results
     
     protected Map<String, Integer> dataTypeAt = new HashMap<String, Integer>();
 
@@ -83,10 +109,13 @@ public class VarData {
     protected int[] caseAt = new int[0];
     protected int[] controlAt = new int[0];
     protected VarData parentVarData = null;
+    protected final Map<VarData, Boolean> childVarData = new WeakHashMap<VarData, Boolean>();  // Views made from this
+                                                                                              //  (dropped when unused)
     protected int numCols = 0;         // Number of columns.  Set from first line, used to check subseq. lines
     protected String customQuery = "";
-    protected BitSet[] bitSets;
+    protected CompressedBitSet[] bitSets;
     protected String dataFile;
+    protected String dataDigest = null;     // Fingerprint of dataFile's contents, made while loading it
 
     /**    
     *    Constructor reads in the file specified by full path in String inFile.
@@ -125,6 +154,8 @@ public class VarData {
         compHetFields[3] = (dataTypeAt.containsKey("CDPred_score")) ? dataTypeAt.get("CDPred_score") : -1; //cdPred
         compHetFields[4] = dataTypeAt.get("type"); //variant type
 
+        reportMemory();
+        packGenotypes();
         resetOutput();  //Initialize outData and outSamples
         
         //TESTING System.out.println("File Read finished: " + (System.currentTimeMillis() - time));
@@ -145,10 +176,10 @@ public class VarData {
     *   the factory method returnSubVarData
     *  
     */
-    private VarData(int[][] dataIn,
+    private VarData(AnnotationStore dataIn,
                     String[] dataNamesOrigIn,
                     String[] dataNamesIn,
-                    int[][][] samplesIn,
+                    SampleStore samplesIn,
                     String[] sampleNamesOrigIn,
                     String[] sampleNamesIn,
                     String[] sampleValueNameIn,
@@ -177,13 +208,18 @@ public class VarData {
         caseAt = caseAtIn;
         controlAt = controlAtIn;
         parentVarData = parentVarDataIn;
+        if (parentVarData != null) {
+            synchronized (parentVarData.childVarData) {
+                parentVarData.childVarData.put(this, Boolean.TRUE);
+            }
+        }
         annotMapper = annotMapperIn;
         sampleMapper = sampleMapperIn;
         commentList = commentListIn;
 
         S_FIELDS = sampleValueName.length;
 
-        dataIsIncluded = new BitSet(data.length);
+        dataIsIncluded = new CompressedBitSet(data.size());
 
         resetOutput();
 
@@ -210,6 +246,7 @@ public class VarData {
         boolean first = true;
         boolean noSamples = false;
         int sampleCount = 0;
+        int rowCount = 0;
         boolean loadAll = false;
         final Pattern samPat = Pattern.compile("\\.NA(?:\\.\\w+)?$");
         final Pattern samLeadPat = Pattern.compile("\\.NA$");
@@ -301,9 +338,8 @@ public class VarData {
                 }
 
             }
-            data = new int[lineCount - header_lines][];
-            samples = new int[lineCount - header_lines][][];
-            dataIsIncluded = new BitSet(lineCount - header_lines);
+            rowCount = lineCount - header_lines;
+            dataIsIncluded = new CompressedBitSet(lineCount - header_lines);
             System.out.println();
             System.out.println("File Parsing completed - loading file");
 
@@ -319,7 +355,8 @@ public class VarData {
         //TESTING System.out.println("Parse finished: " + (System.currentTimeMillis() - time));
 
         try {
-            BufferedReader br = new BufferedReader(new FileReader(inFile));
+            MessageDigest fileDigest = QueryResultCache.newDigest();
+            BufferedReader br = QueryResultCache.openDigested(inFile, fileDigest);
             
             while ((line = br.readLine()) != null) {
                 
@@ -625,7 +662,10 @@ public class VarData {
                         sampleValueName = sampleTempValueName.toArray(new String[sampleTempValueName.size()]);
                     }
                     
+                    samples = new SampleStore(rowCount, sampleNames.length, S_FIELDS);
+
                     dataNames = dataTemp.toArray(new String[dataTemp.size()]);
+                    data = new AnnotationStore(rowCount, dataNames.length);
                     dataNamesOrig = dataNames; //Will have to change this when not all data included
                     annotMapper = annotMapperBuilder.toArray(new AbstractMapper[annotMapperBuilder.size()]);
                     
@@ -681,36 +721,35 @@ public class VarData {
 
                 
                 //Fill data array (annotations)
-                data[lineCount] = new int[dataNames.length];
+                int[] annotRow = new int[dataNames.length];
                 for (int i=0; i < dataNames.length; i++) {
                     switch (classList[i]) {
                         case INTEGER:
-                            data[lineCount][i] = Integer.parseInt(temp[i]);
+                            annotRow[i] = Integer.parseInt(temp[i]);
                             break;
                         case FLOAT:
                             float f = Float.parseFloat(temp[i]);
-                            data[lineCount][i] = annotMapper[i].addData(f); 
+                            annotRow[i] = annotMapper[i].addData(f); 
                             break;
                         case STRING:
-                            data[lineCount][i] = annotMapper[i].addData(temp[i]);
+                            annotRow[i] = annotMapper[i].addData(temp[i]);
                             break;
                         case MULTISTRING:
-                            data[lineCount][i] = annotMapper[i].addData(temp[i]);
+                            annotRow[i] = annotMapper[i].addData(temp[i]);
                             break;
                     }
                 }
+                data.addRow(annotRow);
 
                 annotT = (System.currentTimeMillis() - startT);
 
                 
                 //Fill samples array (genotypes)
-                samples[lineCount] = new int[sampleNames.length][S_FIELDS];
-                
                 if (noSamples) {
                     //TODO:DONE may not have to handle this
-                    samples[lineCount][0][0] = sampleMapper[0].getIndexOf("NA");
-                    samples[lineCount][0][1] = -1;
-                    samples[lineCount][0][2] = -1;
+                    samples.set(lineCount, 0, 0, sampleMapper[0].getIndexOf("NA"));
+                    samples.set(lineCount, 0, 1, -1);
+                    samples.set(lineCount, 0, 2, -1);
                 }
                 else {
                     //TODO:DONE load sample info, based on included fields (no longer hard coded)
@@ -719,14 +758,14 @@ public class VarData {
                             int dataIndex = dataNames.length + (i * S_FIELDS) + j;
                             switch(classList[dataIndex]) {
                                 case INTEGER:
-                                    samples[lineCount][i][j] = Integer.parseInt(temp[dataIndex]);
+                                    samples.set(lineCount, i, j, Integer.parseInt(temp[dataIndex]));
                                     break;
                                 case FLOAT:
                                     float f = Float.parseFloat(temp[dataIndex]);
-                                    samples[lineCount][i][j] = sampleMapper[j].addData(f);
+                                    samples.set(lineCount, i, j, sampleMapper[j].addData(f));
                                     break;
                                 case STRING:
-                                    samples[lineCount][i][j] = sampleMapper[j].addData(temp[dataIndex]);
+                                    samples.set(lineCount, i, j, sampleMapper[j].addData(temp[dataIndex]));
                                     break;
                             }
                         }
@@ -742,6 +781,7 @@ public class VarData {
                 }
             }
             br.close();
+            dataDigest = QueryResultCache.fingerprint(inFile, fileDigest);
             System.out.println();
         }
         catch (IOException ioe) {
@@ -780,22 +820,19 @@ public class VarData {
     */
     public int[][] dataDump() {
         boolean first = true;
-        int[][] out = new int[data.length][dataNamesOrig.length + sampleNamesOrig.length];
+        int[][] out = new int[data.size()][dataNamesOrig.length + sampleNamesOrig.length];
         
-        for (int i=0; i < data.length; i++) {
-            System.arraycopy(data[i], 0, out[i], 0, dataNamesOrig.length);
+        for (int i=0; i < data.size(); i++) {
+            System.arraycopy(data.getRow(i), 0, out[i], 0, dataNamesOrig.length);
             for (int j=0; j < sampleNames.length; j++) {
-                System.arraycopy(samples[i][j], 0, out[i], (dataNamesOrig.length + (j * S_FIELDS)), S_FIELDS);
+                for (int k=0; k < S_FIELDS; k++) {
+                    out[i][dataNamesOrig.length + (j * S_FIELDS) + k] = samples.get(i, j, k);
+                }
             }
         }
         return out;
     }
     
-    /**
-    *   Filter the data
-    *
-    *   @param df DataFilter object with the filtering options
-    */
     /* 
     *   Filter mutation type
     *
@@ -806,10 +843,28 @@ public class VarData {
     *   -change this.mask indices (so that correct bit is being read - same order as cbox)
     *   -change this.filterSet indices (so that correct bitset is being used)
     *   -increment TOTAL_FILTERS
-    *   -add a test block with correct this.mask index
+    *   -add a test block with correct this.mask index (in evaluateFilter)
     *  
     */
+
+    /**
+    *   Filter the data
+    *
+    *   @param df DataFilter object with the filtering options
+    */
     public void filterData(DataFilter df) {
+        dataIsIncluded = evaluateFilter(df);
+        filterOutput();
+    }
+
+
+    /**
+    *   Evaluate a filter without changing the current filtered state of this object
+    *
+    *   @param df DataFilter object with the filtering options
+    *   @return CompressedBitSet where bits corresponding to rows (in VarData.data) passing the filter are set
+    */
+    public CompressedBitSet evaluateFilter(DataFilter df) {
         BitSet[] mask = df.getMask();
         String geneFile = df.getGeneFile();
         String bedFile = df.getBedFile();
@@ -817,21 +872,16 @@ public class VarData {
         String geneQuery = df.getGeneQuery();
         int minMPG = df.getMinMPG();
         float minMPGCovRatio = df.getMinMPGCovRatio();
-        genScoreThresh = df.getGenScoreThresh();
+        int genScoreThresh = df.getGenScoreThresh();
         String geneDelim = df.getGeneDelim();
 
-        dataIsIncluded.set(0,data.length);
+        CompressedBitSet isIncluded = new CompressedBitSet(data.size());
+        isIncluded.set(0,data.size());
         final int TOTAL_FILTERS = 11 + 1; //Number of non-type filters plus 1 (all type filters)
-        BitSet[] filterSet = new BitSet[TOTAL_FILTERS];
-        BitSet geneFilter = new BitSet(data.length);
-        geneFilter.set(0, data.length);
-        BitSet qualFilter = new BitSet(data.length);
-        qualFilter.set(0, data.length);
-        Pattern geneQueryPat = null;
+        CompressedBitSet[] filterSet = new CompressedBitSet[TOTAL_FILTERS];
+        GeneMatcher geneQueryMatcher = null;
         
         int typeIndex = dataTypeAt.get("type");
-        int refAlleleIndex = dataTypeAt.get("ref_allele");
-        int varAlleleIndex = dataTypeAt.get("var_allele");
         int dbSNPIndex = (dataTypeAt.containsKey("dbID")) ? dataTypeAt.get("dbID") : -1;
         int mendRecIndex = (dataTypeAt.containsKey("MendHomRec")) ? dataTypeAt.get("MendHomRec") : -1;
         int mendHetRecIndex = (dataTypeAt.containsKey("MendHetRec")) ? dataTypeAt.get("MendHetRec") : -1;
@@ -841,54 +891,76 @@ public class VarData {
         int chrIndex = dataTypeAt.get("Chr");
         int lfIndex = dataTypeAt.get("LeftFlank");
         int notMendHetRec = -1;
-        Set<String> geneSet = new HashSet<String>();
-        Map[] bedHash = null;   //<String, List<Integer>>
+        List<Map<String, List<Integer>>> bedHash = null;
 
         //Set up type filters (filterSet[0], as all types are folded into one filter)
-        filterSet[0] = new BitSet(data.length + 1);
+        filterSet[0] = new CompressedBitSet(data.size() + 1);
         for (int i=0; i < mask[0].size(); i++) {
             if (mask[0].get(i)) {
-                filterSet[0].set(data.length + 1);
+                filterSet[0].set(data.size() + 1);
                 break;
             }
         }
         
-        //Set up remaining filters (filterSet[x>0])
+        //Set up remaining filters (filterSet[x>0]).  filterSet[6-10] are tested row by row through
+        // the FilterPlanner instead, so are left null.
         for (int i=1; i < TOTAL_FILTERS; i++) {
-            filterSet[i] = new BitSet(data.length + 1);
+            if (i >= 6 && i <= 10) {
+                continue;
+            }
+            filterSet[i] = new CompressedBitSet(data.size() + 1);
             if (mask[1].get(i - 1)) {  //must have -1 since mask is 0-based
-                filterSet[i].set(data.length + 1);
+                filterSet[i].set(data.size() + 1);
             }
         }
         
         //Prepare certain tests
 
-        // Type filters
+        // Type filters - OR together the bitmaps of the selected types
         String[] typeNames = annotMapper[typeIndex].getSortedEntries();
-        int[] types = new int[typeNames.length];
+        BitSet typeKeys = new BitSet(typeNames.length);
         for (int i=0; i < typeNames.length; i++) {
-            types[i] = annotMapper[typeIndex].getIndexOf(typeNames[i]);
+            if (mask[0].get(i)) {
+                typeKeys.set(annotMapper[typeIndex].getIndexOf(typeNames[i]));
+            }
+        }
+        if (typeKeys.cardinality() > 0) {
+            filterSet[0].or(returnBitmapIndex(typeIndex).getRowsIn(typeKeys));
         }
 
         //dbSNP
-        int nodbSNP = -1;
-        if (dbSNPIndex > -1) {
-            nodbSNP = annotMapper[dbSNPIndex].getIndexOf("-");
+        if (dbSNPIndex > -1 && mask[1].get(0)) {
+            filterSet[1].or(returnNovelDbIdRows(dbSNPIndex));
         }
 
-        //menHetRec
-        if (mask[1].get(VarSifter.MENDHETREC)) {
-            notMendHetRec = annotMapper[mendHetRecIndex].getIndexOf("0,");
+        //Mendelian recessive (Hom recessive), Dominant, Inconsistant
+        if (mendRecIndex > -1 && mask[1].get(1)) {
+            filterSet[2].or(returnRowsEqualTo(mendRecIndex, 1));
+        }
+        if (mendDomIndex > -1 && mask[1].get(2)) {
+            filterSet[3].or(returnRowsEqualTo(mendDomIndex, 1));
+        }
+        if (mendBadIndex > -1 && mask[1].get(3)) {
+            filterSet[4].or(returnRowsEqualTo(mendBadIndex, 1));
         }
 
-        //aff/norm
-        int naInt = sampleMapper[0].getIndexOf("NA");
-
+        //Mendelian Compound Het (Het Recessive)
+        if (mendHetRecIndex > -1 && mask[1].get(VarSifter.MENDHETREC)) {
+            notMendHetRec = annotMapper[mendHetRecIndex].getIndexOf("0,");
+            CompressedBitSet mhr = returnRowsEqualTo(mendHetRecIndex, notMendHetRec);
+            mhr.flip(0, data.size());
+            filterSet[5].or(mhr);
+        }
 
         //filterFile
+        GeneMatcher geneSetMatcher = null;
+        BitSet inGeneSetAt = null;
         if (mask[1].get(7) || mask[1].get(8)) {
             if (geneFile != null) {
-                geneSet = returnGeneSet(geneFile);
+                geneSetMatcher = GeneMatcher.forGeneSet(returnGeneSet(geneFile), geneDelim);
+                if (isDictionary(geneIndex)) {
+                    inGeneSetAt = geneSetMatcher.filter(annotMapper[geneIndex]);
+                }
             }
             else {
                 VarSifter.showError("!!! geneFile not defined, so can't use it to filter !!!");
@@ -908,249 +980,358 @@ public class VarData {
         }
 
         //Gene name filter
+        BitSet geneQueryAt = null;
         if (geneQuery != null) {
-            geneQueryPat = Pattern.compile(geneQuery, Pattern.CASE_INSENSITIVE);
-            geneFilter.clear();
+            geneQueryMatcher = GeneMatcher.compile(geneQuery);
+            if (isDictionary(geneIndex)) {
+                geneQueryAt = geneQueryMatcher.filter(annotMapper[geneIndex]);
+            }
         }
         
+        //TODO: may need to adjust sample filtering
+        //Custom Query - outside data loop (it will loop by itself
 
-        //Start filtering!
-        
-        for (int i = 0; i < data.length; i++) {
-            String[] tempGeno = { annotMapper[refAlleleIndex].getString(data[i][refAlleleIndex]), 
-                                  annotMapper[varAlleleIndex].getString(data[i][varAlleleIndex]) 
-                                };
-            String homNonRefGen = (tempGeno[1] + tempGeno[1]);
-            java.util.Arrays.sort(tempGeno);
-            String hetNonRefGen = "";
-            for (String s : tempGeno) {
-                hetNonRefGen += s;
+        if (mask[1].get(10)) {
+            try {
+                QueryResultCache cache = returnQueryResultCache();
+                CompressedBitSet saved = (cache == null) ? null : cache.get(customQuery, bitSets);
+                CompileCustomQuery c = new CompileCustomQuery();
+                if (saved != null) {
+                    filterSet[11] = saved;
+                    filterSet[11].set(data.size() + 1);
+                }
+                else if ( c.compileCustom(customQuery) ) {
+                    filterSet[11] = c.run(this);
+                    if (cache != null) {
+                        cache.put(customQuery, bitSets, filterSet[11]);
+                    }
+                    filterSet[11].set(data.size() + 1);
+                }
+                else {
+                    VarSifter.showError("Error with custom query - not applied!!");
+                }
             }
-           
-           
-            // variant type
-            for (int j=0; j < types.length; j++) {
-                if (mask[0].get(j) && (data[i][typeIndex] & (int)Math.pow(2, types[j])) > 0 ) {
+            catch (NoClassDefFoundError e) {
+                VarSifter.showError("<html>Couldn't find a class needed for custom querying - most likely you are"
+                    + "<p>not running Java JDK 1.6 or greater.  See console for more details.");
+                System.out.println(e.toString());
+            }
+        }
 
-                    filterSet[0].set(i);
-                    break;
-                }
+        
+        //Apply all index and query based filters; intersection if that filter was used
+        for (CompressedBitSet fs : filterSet) {
+            if (fs != null && fs.get(data.size() + 1)) {
+                isIncluded.and(fs);
             }
+        }
 
-            //dbSNP
-            if ( dbSNPIndex > -1 
-                && mask[1].get(0) 
-                && ( annotMapper[dbSNPIndex].getString(data[i][dbSNPIndex]).matches("^0|-$") )
-                ) {
-                
-                filterSet[1].set(i);
+        //Start filtering!
+        //Row-by-row filters only test rows that survived the filters above.  The planner runs them
+        // cheapest and most selective first, so the sample-wide filters see the fewest rows.
+        FilterPlanner planner = new FilterPlanner();
+
+        //Gene Filter File (include, exclude)
+        if (mask[1].get(7)) {
+            planner.addStage(newGeneFileStage(true, geneIndex, inGeneSetAt, geneSetMatcher));
+        }
+        if (mask[1].get(8)) {
+            planner.addStage(newGeneFileStage(false, geneIndex, inGeneSetAt, geneSetMatcher));
+        }
+
+        //Bed Filter File (include)
+        if (mask[1].get(9)) {
+            planner.addStage(newBedStage(chrIndex, lfIndex, bedHash));
+        }
+
+        // Gene name Filter (TextArea)
+        if (geneQuery != null) {
+            planner.addStage(newGeneQueryStage(geneIndex, geneQueryMatcher, geneQueryAt));
+        }
+
+        //TODO: may need to adjust sample filtering
+        //Affected different from Normal
+        if (mask[1].get(5)) {
+            planner.addStage(newAffNormStage(spinnerData[AFF_NORM_PAIR], genScoreThresh));
+        }
+
+        //TODO: may need to adjust sample filtering
+        // Variant allele in >=x cases, <=y controls
+        if (mask[1].get(6)) {
+            planner.addStage(newCaseControlStage(spinnerData[CASE], spinnerData[CONTROL], genScoreThresh));
+        }
+
+        //TODO: may need to adjust sample filtering
+        // Qual filters
+        if (minMPG != 0 || minMPGCovRatio != 0) {
+            planner.addStage(newQualStage(minMPG, minMPGCovRatio, spinnerData[MIN_MPG], spinnerData[MIN_MPG_COV]));
+        }
+
+        return planner.apply(isIncluded);
+    }
+
+
+    /* ********
+    *   Row-by-row filter stages, used by evaluateFilter()
+    *  ********
+    */
+
+    /**
+    *   Gene file filter: keep rows whose gene is (include) or is not (exclude) in the gene set
+    *
+    *   @param include True to keep rows in the gene set, false to keep rows not in it
+    *   @param geneIndex The Gene_name column
+    *   @param inGeneSetAt Dictionary entries in the gene set, or null to test each row
+    *   @param geneSetMatcher The gene set, with its delimiter for multi-gene entries
+    *   @return The FilterStage
+    */
+    protected FilterStage newGeneFileStage(final boolean include, final int geneIndex, final BitSet inGeneSetAt,
+                                           final GeneMatcher geneSetMatcher) {
+        double inSet = FilterStage.UNKNOWN_SELECTIVITY;
+        if (inGeneSetAt != null && annotMapper[geneIndex].getLength() > 0) {
+            inSet = (double)inGeneSetAt.cardinality() / annotMapper[geneIndex].getLength();
+        }
+        return new FilterStage(include ? "gene file include" : "gene file exclude",
+                               (inGeneSetAt != null) ? 1 : 20,
+                               include ? inSet : (1 - inSet)) {
+            public boolean passes(int i) {
+                boolean foundDG = (inGeneSetAt != null)
+                    ? inGeneSetAt.get(data.get(i, geneIndex))
+                    : geneSetMatcher.matches(annotMapper[geneIndex].getString(data.get(i, geneIndex)));
+                return (foundDG == include);
             }
-            
-            //Mendelian recessive (Hom recessive)
-            if (mask[1].get(1) && data[i][mendRecIndex] == 1) {
-                filterSet[2].set(i);
+        };
+    }
+
+
+    /**
+    *   Bed file filter: keep rows whose position falls in a bed region
+    *
+    *   @param chrIndex The Chr column
+    *   @param lfIndex The LeftFlank column
+    *   @param bedHash Region starts and ends by chromosome, from returnBedHash(), or null if there is no bed file
+    *   @return The FilterStage
+    */
+    protected FilterStage newBedStage(final int chrIndex, final int lfIndex, List<Map<String, List<Integer>>> bedHash) {
+        //Unbox regions once, rather than for every row
+        final Map<String, int[][]> regions = new HashMap<String, int[][]>();
+        int regionCount = 0;
+        if (bedHash != null) {
+            for (String chr : bedHash.get(0).keySet()) {
+                List<Integer> starts = bedHash.get(0).get(chr);
+                List<Integer> ends = bedHash.get(1).get(chr);
+                int[][] r = new int[2][starts.size()];
+                for (int j=0; j < r[0].length; j++) {
+                    r[0][j] = starts.get(j);
+                    r[1][j] = ends.get(j);
+                }
+                regions.put(chr, r);
+                regionCount += r[0].length;
             }
-            
-            //Mendelian Dominant
-            if (mask[1].get(2) && data[i][mendDomIndex] == 1) {
-                filterSet[3].set(i);
+        }
+
+        //Selectivity from the chromosome index: rows on chromosomes with no region can't pass
+        double onChr = FilterStage.UNKNOWN_SELECTIVITY;
+        BitmapIndex bi = returnBitmapIndex(chrIndex);
+        if (bi != null && isDictionary(chrIndex) && data.size() > 0) {
+            int rowCount = 0;
+            for (String chr : regions.keySet()) {
+                int key = annotMapper[chrIndex].getIndexOf(chr);
+                if (key >= 0) {
+                    rowCount += bi.countRows(key);
+                }
             }
+            onChr = (double)rowCount / data.size();
+        }
+        else if (regions.isEmpty()) {
+            onChr = 0;
+        }
 
-            //Mendelian Inconsistant
-            if (mask[1].get(3) && data[i][mendBadIndex] == 1) {
-                filterSet[4].set(i);
+        return new FilterStage("bed file", 2 + (double)regionCount / Math.max(regions.size(), 1), onChr) {
+            public boolean passes(int i) {
+                int[][] r = regions.get(annotMapper[chrIndex].getString(data.get(i, chrIndex)));
+                if (r == null) {
+                    return false;
+                }
+                int pos = data.get(i, lfIndex) + 1;
+                for (int j=0; j < r[0].length; j++) {
+                    if (pos < r[0][j]) {
+                        continue;
+                    }
+                    if (pos <= r[1][j]) {
+                        return true;
+                    }
+                }
+                return false;
             }
-                
-            //Mendelian Compound Het (Het Recessive)
-            if (mask[1].get(VarSifter.MENDHETREC) && data[i][mendHetRecIndex] != notMendHetRec) {
-                filterSet[5].set(i);
+        };
+    }
+
+
+    /**
+    *   Gene name filter: keep rows whose gene matches a pattern
+    *
+    *   @param geneIndex The Gene_name column
+    *   @param geneQueryMatcher The compiled gene name query
+    *   @param geneQueryAt Dictionary entries matching the query, or null to test each row
+    *   @return The FilterStage
+    */
+    protected FilterStage newGeneQueryStage(final int geneIndex, final GeneMatcher geneQueryMatcher, final BitSet geneQueryAt) {
+        double sel = FilterStage.UNKNOWN_SELECTIVITY;
+        if (geneQueryAt != null && annotMapper[geneIndex].getLength() > 0) {
+            sel = (double)geneQueryAt.cardinality() / annotMapper[geneIndex].getLength();
+        }
+        return new FilterStage("gene name", (geneQueryAt != null) ? 1 : 50, sel) {
+            public boolean passes(int i) {
+                return (geneQueryAt != null)
+                    ? geneQueryAt.get(data.get(i, geneIndex))
+                    : geneQueryMatcher.matches(annotMapper[geneIndex].getString(data.get(i, geneIndex)));
             }
+        };
+    }
+
 
-            //TODO: may need to adjust sample filtering
-            //Affected different from Normal
-            if (mask[1].get(5)) {
+    /**
+    *   Affected/Normal filter: keep rows where enough pairs have different, well-scored genotypes
+    *
+    *   @param minPairs Minimum number of differing pairs
+    *   @param genScoreThresh Minimum genotype score
+    *   @return The FilterStage
+    */
+    protected FilterStage newAffNormStage(final int minPairs, final int genScoreThresh) {
+        final int naInt = sampleMapper[0].getIndexOf("NA");
+        final TypedColumn[] score = sampleFieldColumns(1);
+        return new FilterStage("aff/norm", 4 * affAt.length, FilterStage.UNKNOWN_SELECTIVITY) {
+            public boolean passes(int i) {
                 int count = 0;
                 for (int j=0; j < affAt.length; j++) {
-                    int affTemp = samples[i][affAt[j]][0];
-                    int normTemp = samples[i][normAt[j]][0];
+                    int affTemp = samples.get(i, affAt[j], 0);
+                    int normTemp = samples.get(i, normAt[j], 0);
                     if (affTemp != normTemp &&
                         affTemp != naInt &&
                         normTemp != naInt &&
-                        ((sampleMapper[1].getDataType() == INTEGER && 
-                          samples[i][affAt[j]][1] >= genScoreThresh &&
-                          samples[i][normAt[j]][1] >= genScoreThresh) ||
-                         (sampleMapper[1].getDataType() == FLOAT &&
-                          sampleMapper[1].getFloat(samples[i][affAt[j]][1]) >= genScoreThresh &&
-                          sampleMapper[1].getFloat(samples[i][normAt[j]][1]) >= genScoreThresh)
-                        )
+                        score[affAt[j]].atLeast(i, genScoreThresh) &&
+                        score[normAt[j]].atLeast(i, genScoreThresh)
                        ) {
 
                         count++;
                     }
                 }
-                if (count >= spinnerData[AFF_NORM_PAIR]) {
-                    filterSet[6].set(i);
-                }
+                return (count >= minPairs);
             }
+        };
+    }
 
-            //TODO: may need to adjust sample filtering
-            // Variant allele in >=x cases, <=y controls
-            if (mask[1].get(6)) {
-                int caseCount = 0;
-                int controlCount = 0;
-                for (int j=0; j < caseAt.length; j++) {
-                    String caseTemp = sampleMapper[0].getString(samples[i][caseAt[j]][0]).replaceAll(":", "");
-                    if ( (caseTemp.equals(hetNonRefGen) || caseTemp.equals(homNonRefGen)) &&
-                        ((sampleMapper[1].getDataType() == INTEGER &&
-                          samples[i][caseAt[j]][1] >= genScoreThresh) ||
-                         (sampleMapper[1].getDataType() == FLOAT &&
-                          sampleMapper[1].getFloat(samples[i][caseAt[j]][1]) >= genScoreThresh)
-                        )
-                       ) {
 
-                        caseCount++;
-                    }
-                }
-                for (int j=0; j < controlAt.length; j++) {
-                    String controlTemp = sampleMapper[0].getString(samples[i][controlAt[j]][0]).replaceAll(":","");
-                    if ( (controlTemp.equals(hetNonRefGen) || controlTemp.equals(homNonRefGen)) &&
-                        ((sampleMapper[1].getDataType() == INTEGER &&
-                          samples[i][controlAt[j]][1] >= genScoreThresh) ||
-                         (sampleMapper[1].getDataType() == FLOAT &&
-                          sampleMapper[1].getFloat(samples[i][controlAt[j]][1]) >= genScoreThresh)
-                        )
-                       ) {
-                        controlCount++;
-                    }
-                }
-                if (caseCount >= spinnerData[CASE] && controlCount <= spinnerData[CONTROL]) {
-                    filterSet[7].set(i);
-                }
-            }
+    /**
+    *   Case/Control filter: keep rows with the variant allele in enough cases and few enough controls
+    *
+    *   @param minCase Minimum number of cases with the variant
+    *   @param maxControl Maximum number of controls with the variant
+    *   @param genScoreThresh Minimum genotype score
+    *   @return The FilterStage
+    */
+    protected FilterStage newCaseControlStage(final int minCase, final int maxControl, final int genScoreThresh) {
+        final int refAlleleIndex = dataTypeAt.get("ref_allele");
+        final int varAlleleIndex = dataTypeAt.get("var_allele");
+
+        final TypedColumn[] score = sampleFieldColumns(1);
+
+        //With sparse genotypes, only samples that aren't hom-ref are looked at in each row
+        final SparseGenotypes sg = returnSparseGenotypes();
+        final int[] caseTimes = new int[sampleNames.length];       //Times each sample is listed as a case
+        final int[] controlTimes = new int[sampleNames.length];
+        for (int j : caseAt) {
+            caseTimes[j]++;
+        }
+        for (int j : controlAt) {
+            controlTimes[j]++;
+        }
+        int perRow = caseAt.length + controlAt.length;
+        if (sg != null && data.size() > 0) {
+            perRow = Math.min(perRow, sg.getEntryCount() / data.size());
+        }
 
-            //Gene Filter File (include, exclude)                        
-            if (mask[1].get(7)) {
-                String[] dataGenes = 
-                    annotMapper[geneIndex].getString(data[i][geneIndex]).toLowerCase().split(geneDelim);
-                
-                for (String dG : dataGenes) {
-                    if (geneSet.contains(dG)) {
-                        filterSet[8].set(i);
-                        break;
-                    }
+        return new FilterStage("case/control", 20 * (1 + perRow), FilterStage.UNKNOWN_SELECTIVITY) {
+            public boolean passes(int i) {
+                String[] tempGeno = { annotMapper[refAlleleIndex].getString(data.get(i, refAlleleIndex)), 
+                                      annotMapper[varAlleleIndex].getString(data.get(i, varAlleleIndex)) 
+                                    };
+                //If ref and var are the same, a hom-ref call counts as a variant, so all samples must be checked
+                boolean sparse = (sg != null && !tempGeno[0].equals(tempGeno[1]));
+                String homNonRefGen = (tempGeno[1] + tempGeno[1]);
+                java.util.Arrays.sort(tempGeno);
+                String hetNonRefGen = "";
+                for (String s : tempGeno) {
+                    hetNonRefGen += s;
                 }
-            }
-            
-            //Gene Filter File (exclude)
-            if (mask[1].get(8)) {
-                String[] dataGenes = 
-                    annotMapper[geneIndex].getString(data[i][geneIndex]).toLowerCase().split(geneDelim);
-                boolean foundDG = false;
-                for (String dG : dataGenes) {
-                    if (geneSet.contains(dG)) {
-                        foundDG = true;
-                        break;
+
+                int caseCount = 0;
+                int controlCount = 0;
+                if (sparse) {
+                    for (int k = sg.getRowStart(i); k < sg.getRowEnd(i); k++) {
+                        int j = sg.getSample(k);
+                        if ((caseTimes[j] > 0 || controlTimes[j] > 0)
+                            && hasVariant(i, j, sg.getCode(k), hetNonRefGen, homNonRefGen)) {
+                            caseCount += caseTimes[j];
+                            controlCount += controlTimes[j];
+                        }
                     }
                 }
-                if (!foundDG) {
-                    filterSet[9].set(i);
-                }
-            }
-            
-            //Bed Filter File (include)
-            if (mask[1].get(9)) {
-                String chrString = annotMapper[chrIndex].getString(data[i][chrIndex]);
-                if (bedHash[0].get(chrString) != null) {
-
-                    @SuppressWarnings("unchecked")
-                    Object[] starts = ((Map<String, List<Integer>>)bedHash[0]).get(chrString).toArray();
-                    @SuppressWarnings("unchecked")
-                    Object[] ends = ((Map<String, List<Integer>>)bedHash[1]).get(chrString).toArray();
-                    int pos = data[i][lfIndex] + 1;
-
-                    for (int j=0; j<starts.length;j++) {
-                        if (pos < (Integer)starts[j]) {
-                            continue;
+                else {
+                    for (int j=0; j < caseAt.length; j++) {
+                        if (hasVariant(i, caseAt[j], samples.get(i, caseAt[j], 0), hetNonRefGen, homNonRefGen)) {
+                            caseCount++;
                         }
-
-                        if (pos <= (Integer)ends[j]) {
-                            filterSet[10].set(i);
-                            break;
+                    }
+                    for (int j=0; j < controlAt.length; j++) {
+                        if (hasVariant(i, controlAt[j], samples.get(i, controlAt[j], 0), hetNonRefGen, homNonRefGen)) {
+                            controlCount++;
                         }
                     }
                 }
+                return (caseCount >= minCase && controlCount <= maxControl);
             }
 
-            // Gene name Filter (TextArea)
-            if (geneQuery != null) {
-                if ((geneQueryPat.matcher(annotMapper[geneIndex].getString(data[i][geneIndex]))).find()) {
-                    geneFilter.set(i);
-                }
+            private boolean hasVariant(int i, int sample, int geno, String hetNonRefGen, String homNonRefGen) {
+                String genoTemp = sampleMapper[0].getString(geno).replaceAll(":", "");
+                return ( (genoTemp.equals(hetNonRefGen) || genoTemp.equals(homNonRefGen)) &&
+                         score[sample].atLeast(i, genScoreThresh) );
             }
+        };
+    }
+
 
-            //TODO: may need to adjust sample filtering
-            // Qual filters
-            if (minMPG != 0 || minMPGCovRatio != 0) {
+    /**
+    *   Quality filter: keep rows where enough samples have a high enough genotype score and score/coverage ratio
+    *
+    *   @param minMPG Minimum genotype score
+    *   @param minMPGCovRatio Minimum genotype score / coverage ratio
+    *   @param minMPGSamples Minimum number of samples passing minMPG
+    *   @param minMPGCovSamples Minimum number of samples passing minMPGCovRatio
+    *   @return The FilterStage
+    */
+    protected FilterStage newQualStage(final int minMPG, final float minMPGCovRatio,
+                                       final int minMPGSamples, final int minMPGCovSamples) {
+        final TypedColumn[] score = sampleFieldColumns(1);
+        final boolean numericScore = (sampleMapper[1].getDataType() == INTEGER
+                                      || sampleMapper[1].getDataType() == FLOAT);
+        return new FilterStage("quality", 4 * sampleNames.length, FilterStage.UNKNOWN_SELECTIVITY) {
+            public boolean passes(int i) {
                 int minMPGCount = 0;
                 int minMPGCovCount = 0;
                 for (int j=0; j < sampleNames.length; j++) {
-                    if ((sampleMapper[1].getDataType() == INTEGER &&
-                          samples[i][j][1] >= minMPG) ||
-                        (sampleMapper[1].getDataType() == FLOAT &&
-                          sampleMapper[1].getFloat(samples[i][j][1]) >=minMPG)
-                       ) {
+                    if (score[j].atLeast(i, minMPG)) {
                         minMPGCount++;
                     }
-                    if ( samples[i][j][2] != 0 &&
-                         ((sampleMapper[1].getDataType() == INTEGER &&
-                           ((float)samples[i][j][1] / (float)samples[i][j][2]) >= minMPGCovRatio) ||
-                          (sampleMapper[1].getDataType() == FLOAT &&
-                           (sampleMapper[1].getFloat(samples[i][j][1]) / samples[i][j][2]) >= minMPGCovRatio)
-                         )
-                       ) {
+                    int cov = samples.get(i, j, 2);
+                    if (numericScore && cov != 0 && (score[j].getFloat(i) / cov) >= minMPGCovRatio) {
                         minMPGCovCount++;
                     }
                 }
-                if (minMPGCount < spinnerData[MIN_MPG] || minMPGCovCount < spinnerData[MIN_MPG_COV]) {
-                    qualFilter.clear(i);
-                }
-            }
-                
-                        
-        }
-
-        //TODO: may need to adjust sample filtering
-        //Custom Query - outside data loop (it will loop by itself
-
-        if (mask[1].get(10)) {
-            try {
-                CompileCustomQuery c = new CompileCustomQuery();
-                if ( c.compileCustom(customQuery) ) {
-                    filterSet[11] = c.run(this);
-                    filterSet[11].set(data.length + 1);
-                }
-                else {
-                    VarSifter.showError("Error with custom query - not applied!!");
-                }
-            }
-            catch (NoClassDefFoundError e) {
-                VarSifter.showError("<html>Couldn't find a class needed for custom querying - most likely you are"
-                    + "<p>not running Java JDK 1.6 or greater.  See console for more details.");
-                System.out.println(e.toString());
-            }
-        }
-
-        
-        //Apply all filters; intersection if that filter was used
-        for (BitSet fs : filterSet) {
-            if (fs.get(data.length + 1)) {
-                dataIsIncluded.and(fs);
+                return !(minMPGCount < minMPGSamples || minMPGCovCount < minMPGCovSamples);
             }
-        }
-
-        dataIsIncluded.and(geneFilter);
-        dataIsIncluded.and(qualFilter);
-        filterOutput();
+        };
     }
 
     /** 
@@ -1159,25 +1340,44 @@ public class VarData {
     */
     protected void filterOutput() {
          
-        if (dataIsIncluded.cardinality() == data.length) {
+        if (dataIsIncluded.cardinality() == data.size()) {
             outData = data;
             outSamples = samples;
+            outSelection = null;
         }
         else {
-            outData = new int[dataIsIncluded.cardinality()][];
-            outSamples = new int[dataIsIncluded.cardinality()][][];
-            int j = 0;
-            for (int i=0; i < data.length; i++) {
-                if (dataIsIncluded.get(i)) {
-                    outData[j] = data[i];
-                    outSamples[j] = samples[i];
-                    j++;
-                }
-            }
+            outSelection = RowSelection.select(data.getSelection(), dataIsIncluded);
+            outData = data.view(outSelection);
+            outSamples = samples.view(outSelection);
         }
     }
 
 
+    /**
+    *   Return the row in VarData.data of a filtered row
+    *
+    *   @param outRow A row of the filtered output (as returned by returnOutData())
+    *   @return The row in VarData.data
+    */
+    public int dataRowOf(int outRow) {
+        return (outSelection == null) ? outRow : outSelection.select(outRow);
+    }
+
+
+    /**
+    *   Return the filtered row of a row in VarData.data
+    *
+    *   @param dataRow A row in VarData.data
+    *   @return The row of the filtered output, or -1 if the row is filtered out
+    */
+    public int outRowOf(int dataRow) {
+        if (outSelection == null) {
+            return (dataRow >= 0 && dataRow < data.size()) ? dataRow : -1;
+        }
+        return outSelection.indexOf(dataRow);
+    }
+
+
     /** 
     *   Returns true if column is editable
     *  
@@ -1217,7 +1417,7 @@ public class VarData {
     *  
     */
     public void resetOutput() {
-        dataIsIncluded.set(0, data.length);
+        dataIsIncluded.set(0, data.size());
         filterOutput();
     }
 
@@ -1250,13 +1450,13 @@ public class VarData {
     *   Return a hash of Lists containing start positions in a bedfile
     *  
     *   @param inFile The Bedfile to load
-    *   @return An array of hashmaps.  Element 0: key=chrom, value = vector of starts.
-    *                                  Element 1: key=chrom, value = vector of ends.
+    *   @return A list of two hashmaps.  Element 0: key=chrom, value = list of starts.
+    *                                    Element 1: key=chrom, value = list of ends.
     */
-    protected Map[] returnBedHash(String inFile) {
+    protected List<Map<String, List<Integer>>> returnBedHash(String inFile) {
         Map<String, List<Integer>> outStart = new HashMap<String, List<Integer>>();
         Map<String, List<Integer>> outEnd   = new HashMap<String, List<Integer>>();
-        Map[] outHash = new Map[2];
+        List<Map<String, List<Integer>>> outHash = new ArrayList<Map<String, List<Integer>>>(2);
 
         try {
             String line = "";
@@ -1281,8 +1481,8 @@ public class VarData {
             System.exit(1);
         }
 
-        outHash[0] = outStart;
-        outHash[1] = outEnd;
+        outHash.add(outStart);
+        outHash.add(outEnd);
         return outHash;
     }
 
@@ -1307,40 +1507,100 @@ public class VarData {
         
 
     /** 
-    *   Return all annotation data
+    *   Return all annotation data.  This is a copy; use returnAnnotationStore() where possible.
     *  
     *   @return Returns all the annotaion data as a 2d array: [line][annotation column]
     */
     public int[][] returnData() {
+        return data.toArray();
+    }
+
+    /**
+    *   Return all annotation data, without copying
+    *
+    *   @return The AnnotationStore of all rows
+    */
+    public AnnotationStore returnAnnotationStore() {
         return data;
     }
 
     /**
-    *   Return filtered annotation data
+    *   Return annotation data for a subset of rows, without changing the filtered state
+    *
+    *   @param isInSubset CompressedBitSet where set bits determine which rows (in VarData.data) to include
+    *   @return Returns the annotation data for the selected rows. [line][annotation column]
+    */
+    public int[][] returnDataSubset(CompressedBitSet isInSubset) {
+        return data.select(isInSubset).toArray();
+    }
+
+    /**
+    *   Return filtered annotation data.  This is a copy; use returnOutAnnotationStore() where possible.
     *
     *   @return Returns on the annotation data for variants (rows) passing filter. [line][annotation column]
     */
     public int[][] returnOutData() {
+        return outData.toArray();
+    }
+
+    /**
+    *   Return filtered annotation data, without copying
+    *
+    *   @return The AnnotationStore of rows passing filter
+    */
+    public AnnotationStore returnOutAnnotationStore() {
         return outData;
     }
 
+    /**
+    *   Return the filtered annotation data as typed columns
+    *
+    *   @return One TypedColumn per annotation column, over the rows passing filter
+    */
+    public TypedColumn[] returnOutColumns() {
+        TypedColumn[] out = new TypedColumn[dataNames.length];
+        for (int k=0; k < out.length; k++) {
+            out[k] = TypedColumn.forAnnotation(outData, k, annotMapper[k]);
+        }
+        return out;
+    }
+
 
     /**
     *   Return all sample data
     *
-    *   @return Returns all sample data as a 3d array: [line][sample][gen:score:cov]
+    *   @return Returns all sample data: [line][sample][gen:score:cov]
     */
-    public int[][][] returnSamples() {
+    public SampleStore returnSampleStore() {
         return samples;
     }
 
     /**
     *   Return filtered sample data
     *
+    *   @return Returns filtered sample data: [line][sample][gen:score:cov]
+    */
+    public SampleStore returnOutSampleStore() {
+        return outSamples;
+    }
+
+
+    /**
+    *   Return all sample data as a 3d array.  This is a copy; use returnSampleStore() where possible.
+    *
+    *   @return Returns all sample data as a 3d array: [line][sample][gen:score:cov]
+    */
+    public int[][][] returnSamples() {
+        return samples.toArray();
+    }
+
+    /**
+    *   Return filtered sample data as a 3d array.  This is a copy; use returnOutSampleStore() where possible.
+    *
     *   @return Returns filtered sample data as 3d array: [line][sample][gen:score:cov]
     */
     public int[][][] returnOutSamples() {
-        return outSamples;
+        return outSamples.toArray();
     }
 
 
@@ -1391,7 +1651,7 @@ public class VarData {
     public String returnDataValueAt(int row, String colType) {
         if (dataTypeAt.containsKey(colType)) {
             int index = dataTypeAt.get(colType);
-            return annotMapper[index].getString(outData[row][index]);
+            return annotMapper[index].getString(outData.get(row, index));
         }
         else {
             return null;
@@ -1399,6 +1659,21 @@ public class VarData {
     }
 
     
+    /**
+    *   Return the name (without directory) of the file the data was loaded from; for a subset, the file
+    *   of the VarData it was taken from
+    *
+    *   @return The file name, or "" if there is none
+    */
+    public String returnDataFileName() {
+        VarData v = this;
+        while (v.dataFile == null && v.parentVarData != null && v.parentVarData != v) {
+            v = v.parentVarData;
+        }
+        return (v.dataFile == null) ? "" : new File(v.dataFile).getName();
+    }
+
+
     /** 
     *   Return the parent VarData or null if this is not a copy
     *  
@@ -1418,8 +1693,8 @@ public class VarData {
         int[][] tempGeneData;
         Map<Integer, Integer> tempGeneHash = new HashMap<Integer, Integer>();
 
-        for (int i=0; i<outData.length; i++) {
-            int geneName = outData[i][dataTypeAt.get("Gene_name")];
+        for (int i=0; i<outData.size(); i++) {
+            int geneName = outData.get(i, dataTypeAt.get("Gene_name"));
             if (tempGeneHash.containsKey(geneName)) {
                 tempGeneHash.put(geneName, tempGeneHash.get(geneName) + 1);
             }
@@ -1473,6 +1748,421 @@ public class VarData {
     }
 
     
+    /**
+    *   Return the saved custom query results of the data file, opening them on first use
+    *
+    *   @return The QueryResultCache, or null if results can't be saved (data edited, or not from a file)
+    */
+    protected QueryResultCache returnQueryResultCache() {
+        if (isDataEdited || parentVarData != null || dataFile == null || dataDigest == null) {
+            return null;
+        }
+        if (queryResultCache == null) {
+            queryResultCache = new QueryResultCache(dataFile, dataDigest + "/"
+                + QueryResultCache.layoutDigest(dataNames, sampleNames, annotMapper, sampleMapper));
+        }
+        return queryResultCache;
+    }
+
+
+    /**
+    *   Return the bitmap index of an annotation column, building it on first use
+    *
+    *   @param col The annotation column
+    *   @return The BitmapIndex for this column, or null if the column has too many values to index
+    */
+    public synchronized BitmapIndex returnBitmapIndex(int col) {
+        if (annotIndex == null) {
+            annotIndex = new BitmapIndex[annotMapper.length];
+        }
+        if (!annotIndexBuilt.get(col)) {
+            annotIndex[col] = BitmapIndex.build(data, col, annotMapper[col]);
+            annotIndexBuilt.set(col);
+        }
+        return annotIndex[col];
+    }
+
+
+    /**
+    *   Return rows where an annotation column holds a given value, using the bitmap index if there is one
+    *
+    *   @param col The annotation column
+    *   @param key The dictionary index (or integer value) to match
+    *   @return A new CompressedBitSet with matching rows set
+    */
+    public CompressedBitSet returnRowsEqualTo(int col, int key) {
+        BitmapIndex bi = returnBitmapIndex(col);
+        if (bi != null && bi.getDataType() != MULTISTRING) {
+            return bi.getRows(key);
+        }
+        CompressedBitSet out = new CompressedBitSet(data.size());
+        for (int i=0; i < data.size(); i++) {
+            if (data.get(i, col) == key) {
+                out.set(i);
+            }
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return rows whose dbID marks them as not in dbSNP, built on first use
+    *
+    *   @param col The dbID column
+    *   @return A new CompressedBitSet with the novel rows set
+    */
+    protected CompressedBitSet returnNovelDbIdRows(int col) {
+        if (novelDbIdRows == null) {
+            BitmapIndex bi = returnBitmapIndex(col);
+            if (isDictionary(col)) {
+                //Evaluate once per dictionary entry, not once per row
+                BitSet novelKeys = new BitSet(annotMapper[col].getLength());
+                for (int i=0; i < annotMapper[col].getLength(); i++) {
+                    if (annotMapper[col].getString(i).matches(NOVEL_DBID)) {
+                        novelKeys.set(i);
+                    }
+                }
+                if (bi != null) {
+                    novelDbIdRows = bi.getRowsIn(novelKeys);
+                }
+                else {
+                    novelDbIdRows = new CompressedBitSet(data.size());
+                    for (int i=0; i < data.size(); i++) {
+                        if (novelKeys.get(data.get(i, col))) {
+                            novelDbIdRows.set(i);
+                        }
+                    }
+                }
+            }
+            else {
+                novelDbIdRows = new CompressedBitSet(data.size());
+                for (int i=0; i < data.size(); i++) {
+                    if (annotMapper[col].getString(data.get(i, col)).matches(NOVEL_DBID)) {
+                        novelDbIdRows.set(i);
+                    }
+                }
+            }
+        }
+        return (CompressedBitSet)novelDbIdRows.clone();
+    }
+
+
+    /**
+    *   Returns true if an annotation column holds dictionary indices (one per distinct String).
+    *   Predicates on such a column can be evaluated once per dictionary entry instead of once per row.
+    *
+    *   @param col The annotation column
+    *   @return True if the column is backed by a StringMapper
+    */
+    protected boolean isDictionary(int col) {
+        return (annotMapper[col].getDataType() == STRING);
+    }
+
+
+    /**
+    *   Return the genotype codes (indices in sampleMapper[0]) of the reference and variant alleles of every row,
+    *   built on first use.  Allele strings are only looked up once per distinct allele, not once per row.
+    *
+    *   @return Codes as [genotype class][row (in VarData.data)], for genotype classes HOM_REF_GEN, HOM_NON_REF_GEN,
+    *           HEMI_REF_GEN and HEMI_VAR_GEN (-1 if not present).  Do not modify.
+    */
+    public synchronized int[][] returnGenotypeCodes() {
+        if (genotypeCodes == null) {
+            int refIndex = dataTypeAt.get("ref_allele");
+            int nonRefIndex = dataTypeAt.get("var_allele");
+            int mutTypeIndex = dataTypeAt.get("muttype");
+            int indel = annotMapper[mutTypeIndex].getIndexOf("INDEL");
+            int[][] refCodes = alleleGenotypeCodes(refIndex);
+            int[][] nonRefCodes = alleleGenotypeCodes(nonRefIndex);
+
+            int[][] codes = new int[4][data.size()];
+            for (int i=0; i < data.size(); i++) {
+                int ref = data.get(i, refIndex);
+                int nonRef = data.get(i, nonRefIndex);
+                int[] refAt = (refCodes == null) ? alleleGenotypeCodes(annotMapper[refIndex].getString(ref))
+                                                 : refCodes[ref];
+                int[] nonRefAt = (nonRefCodes == null) ? alleleGenotypeCodes(annotMapper[nonRefIndex].getString(nonRef))
+                                                       : nonRefCodes[nonRef];
+
+                //Indels and multi-base alleles use ":" between alleles
+                int hom = (data.get(i, mutTypeIndex) == indel || refAt[3] > 1) ? 2 : 1;
+                codes[HOM_REF_GEN][i] = refAt[hom];
+                codes[HOM_NON_REF_GEN][i] = nonRefAt[hom];
+                codes[HEMI_REF_GEN][i] = refAt[0];
+                codes[HEMI_VAR_GEN][i] = nonRefAt[0];
+            }
+            genotypeCodes = codes;
+        }
+        return genotypeCodes;
+    }
+
+
+    /**
+    *   Return the genotype codes of the filtered rows (as returned by returnOutData())
+    *
+    *   @return Codes as [genotype class][filtered row], as in returnGenotypeCodes()
+    */
+    public int[][] returnOutGenotypeCodes() {
+        int[][] codes = returnGenotypeCodes();
+        int[][] outCodes = new int[codes.length][outData.size()];
+        for (int j=0; j < outData.size(); j++) {
+            int i = dataRowOf(j);
+            for (int k=0; k < codes.length; k++) {
+                outCodes[k][j] = codes[k][i];
+            }
+        }
+        return outCodes;
+    }
+
+
+    /**
+    *   Return the genotype codes of each value of a dictionary allele column
+    *
+    *   @param col The allele column
+    *   @return Codes as [dictionary index][hemizygous, homozygous, homozygous with ":", allele length],
+    *           or null if the column is not a dictionary
+    */
+    private int[][] alleleGenotypeCodes(int col) {
+        if (!isDictionary(col)) {
+            return null;
+        }
+        int[][] out = new int[annotMapper[col].getLength()][];
+        for (int k=0; k < out.length; k++) {
+            out[k] = alleleGenotypeCodes(annotMapper[col].getString(k));
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return the genotype codes of an allele: { hemizygous, homozygous, homozygous with ":", allele length }
+    */
+    private int[] alleleGenotypeCodes(String allele) {
+        return new int[] { sampleMapper[0].getIndexOf(allele),
+                           sampleMapper[0].getIndexOf(allele + allele),
+                           sampleMapper[0].getIndexOf(allele + ":" + allele),
+                           allele.length() };
+    }
+
+
+    /**
+    *   Return the rows where a sample's genotype is in a genotype class, as used by custom queries
+    *   (eg. sampData[i][sample][0]==homRefGen, or isHet(sampData[i][sample][0])).
+    *   With packed genotypes, each sample and class is worked out a word of rows at a time when first asked
+    *   for; otherwise classes for all samples are built together on first use.
+    *
+    *   @param sample The sample index
+    *   @param genClass HOM_REF_GEN, HOM_NON_REF_GEN, HEMI_REF_GEN, HEMI_VAR_GEN, NA_GEN, HET_GEN or HOM_GEN
+    *   @return A new CompressedBitSet with the matching rows set
+    */
+    public synchronized CompressedBitSet returnGenotypeClassRows(int sample, int genClass) {
+        GenotypeMatrix gm = samples.getGenotypeMatrix();
+        if (gm != null) {
+            if (genotypeClassRows == null) {
+                genotypeClassRows = new CompressedBitSet[samples.getSampleCount()][GENOTYPE_CLASSES];
+            }
+            if (genotypeClassRows[sample][genClass] == null) {
+                genotypeClassRows[sample][genClass] = packedGenotypeClassRows(gm, sample, genClass);
+            }
+        }
+        else if (genotypeClassRows == null) {
+            int numSamples = (data.size() > 0) ? samples.getSampleCount() : 0;
+            genotypeClassRows = new CompressedBitSet[numSamples][GENOTYPE_CLASSES];
+            for (int j=0; j < numSamples; j++) {
+                for (int k=0; k < GENOTYPE_CLASSES; k++) {
+                    genotypeClassRows[j][k] = new CompressedBitSet(data.size());
+                }
+            }
+
+            GenotypeClassTest t = new GenotypeClassTest();
+            for (int i=0; i < data.size(); i++) {
+                for (int j=0; j < numSamples; j++) {
+                    int g = samples.get(i, j, 0);
+                    for (int k=0; k < GENOTYPE_CLASSES; k++) {
+                        if (t.contains(i, g, k)) {
+                            genotypeClassRows[j][k].set(i);
+                        }
+                    }
+                }
+            }
+            for (CompressedBitSet[] classRows : genotypeClassRows) {
+                for (CompressedBitSet cbs : classRows) {
+                    cbs.runOptimize();
+                }
+            }
+        }
+        return (CompressedBitSet)genotypeClassRows[sample][genClass].clone();
+    }
+
+
+    /**
+    *   Work out the rows of one sample in a genotype class from packed genotypes: for each packed class
+    *   (hom-ref, het, hom-var, no-call), AND the sample's calls in that class with the rows where that
+    *   class's code is in the genotype class, then correct the sample's exceptions one by one.
+    */
+    private CompressedBitSet packedGenotypeClassRows(GenotypeMatrix gm, int sample, int genClass) {
+        GenotypeClassTest t = new GenotypeClassTest();
+        if (genotypeClassMasks == null) {
+            genotypeClassMasks = new long[GENOTYPE_CLASSES][][];
+        }
+        if (genotypeClassMasks[genClass] == null) {
+            long[][] masks = new long[GenotypeMatrix.CLASSES][(data.size() + 63) >>> 6];
+            for (int c=0; c < GenotypeMatrix.CLASSES; c++) {
+                for (int i=0; i < data.size(); i++) {
+                    if (t.contains(i, gm.getClassCode(c, i), genClass)) {
+                        masks[c][i >>> 6] |= (1L << i);
+                    }
+                }
+            }
+            genotypeClassMasks[genClass] = masks;
+        }
+
+        long[][] masks = genotypeClassMasks[genClass];
+        long[] words = new long[(data.size() + 63) >>> 6];
+        for (int c=0; c < GenotypeMatrix.CLASSES; c++) {
+            long[] classWords = gm.getClassWords(sample, c);
+            long[] mask = masks[c];
+            for (int w=0; w < words.length; w++) {
+                words[w] |= (classWords[w] & mask[w]);
+            }
+        }
+        for (int i : gm.getExceptionRows(sample)) {
+            if (t.contains(i, gm.get(i, sample), genClass)) {
+                words[i >>> 6] |= (1L << i);
+            }
+            else {
+                words[i >>> 6] &= ~(1L << i);
+            }
+        }
+        return CompressedBitSet.valueOf(words);
+    }
+
+
+    /**
+    *   Return typed views of one field of every sample
+    *
+    *   @param field The sample field (0 is the genotype)
+    *   @return One TypedColumn per sample, over all rows
+    */
+    protected TypedColumn[] sampleFieldColumns(int field) {
+        TypedColumn[] out = new TypedColumn[sampleNames.length];
+        for (int j=0; j < out.length; j++) {
+            out[j] = TypedColumn.forSampleField(samples, j, field, sampleMapper[field]);
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return the calls that are not hom-ref, listed by row, built on first use
+    *
+    *   @return The SparseGenotypes, or null if too many calls are not hom-ref for a sparse listing to help
+    */
+    public synchronized SparseGenotypes returnSparseGenotypes() {
+        if (!sparseGenotypesBuilt) {
+            sparseGenotypes = SparseGenotypes.build(samples, returnGenotypeCodes()[HOM_REF_GEN]);
+            sparseGenotypesBuilt = true;
+        }
+        return sparseGenotypes;
+    }
+
+
+    /**
+    *   Choose whether to print the memory used by each annotation column once a file is loaded (set from
+    *   the Memory_Report config option)
+    *
+    *   @param on True to print the report
+    */
+    public static void setMemoryReport(boolean on) {
+        memoryReport = on;
+    }
+
+
+    /**
+    *   Print the memory used by each annotation column (bits per row, and bytes against one int per row),
+    *   if asked for by setMemoryReport().  Called once loading is done.
+    */
+    protected void reportMemory() {
+        if (memoryReport) {
+            System.out.print(data.memoryReport(dataNames));
+        }
+    }
+
+
+    /**
+    *   Pack the loaded genotypes at 2 bits per call (see GenotypeMatrix), unless too many calls are
+    *   neither hom-ref, het, hom-var nor no-call.  Called once loading is done.
+    */
+    protected void packGenotypes() {
+        if (samples == null || samples.size() == 0) {
+            return;
+        }
+        int refIndex = dataTypeAt.get("ref_allele");
+        int nonRefIndex = dataTypeAt.get("var_allele");
+        int mutTypeIndex = dataTypeAt.get("muttype");
+        int indel = annotMapper[mutTypeIndex].getIndexOf("INDEL");
+
+        //Het code of each row: alleles in sorted order, with ":" between them for indels and multi-base alleles
+        int[] het = new int[data.size()];
+        for (int i=0; i < data.size(); i++) {
+            String[] alleles = { annotMapper[refIndex].getString(data.get(i, refIndex)),
+                                 annotMapper[nonRefIndex].getString(data.get(i, nonRefIndex)) };
+            boolean colon = (data.get(i, mutTypeIndex) == indel || alleles[0].length() > 1);
+            java.util.Arrays.sort(alleles);
+            het[i] = sampleMapper[0].getIndexOf(colon ? (alleles[0] + ":" + alleles[1]) : (alleles[0] + alleles[1]));
+        }
+
+        int[][] codes = returnGenotypeCodes();
+        GenotypeMatrix gm = GenotypeMatrix.pack(samples, codes[HOM_REF_GEN], het, codes[HOM_NON_REF_GEN],
+                                                sampleMapper[0].getIndexOf("NA"));
+        if (gm != null) {
+            samples.packGenotypes(gm);
+        }
+        else {
+            System.out.println("Genotypes not packed: too many multi-allelic or unusual genotypes");
+        }
+    }
+
+
+    /**
+    *   Tests whether a genotype code is in a genotype class (HOM_REF_GEN ... HOM_GEN) in a given row
+    */
+    private class GenotypeClassTest {
+        final int[][] codes = returnGenotypeCodes();
+        final BitSet hetBS = sampleMapper[0].filterWithPattern(QueryContext.HET_PAT);
+        final BitSet homBS = sampleMapper[0].filterWithPattern(QueryContext.HOM_PAT);
+        final boolean[] hasColon = new boolean[sampleMapper[0].getLength()];
+        final int mutTypeIndex = dataTypeAt.get("muttype");
+        final int indel = annotMapper[mutTypeIndex].getIndexOf("INDEL");
+        final int naAllele = sampleMapper[0].getIndexOf("NA");
+
+        GenotypeClassTest() {
+            for (int g=0; g < hasColon.length; g++) {
+                hasColon[g] = sampleMapper[0].getString(g).contains(":");
+            }
+        }
+
+        boolean contains(int row, int g, int genClass) {
+            if (g < 0) {
+                return false;
+            }
+            switch (genClass) {
+                case NA_GEN:
+                    return (g == naAllele);
+                case HET_GEN:
+                case HOM_GEN:
+                    //Het and Hom are a property of the genotype code (and of whether the row is an indel)
+                    if (data.get(row, mutTypeIndex) == indel && !hasColon[g]) {
+                        return false;
+                    }
+                    return (genClass == HET_GEN) ? hetBS.get(g) : homBS.get(g);
+                default:
+                    return (g == codes[genClass][row]);
+            }
+        }
+    }
+
+
     /** 
     *   Return pairs of positions based on index
     *  
@@ -1503,9 +2193,9 @@ public class VarData {
 
         // store matches in outData (not necessarily inPair.length!)
         // ensure inPair[0] is in rowSet[0]!! Later, will return 0 1, 0 2, 0 3 etc pairs
-        for (int i=0; i<outData.length; i++) {
-            if (inSet.contains(outData[i][indexIndex])) {
-                if (outData[i][indexIndex] == firstInPair) {
+        for (int i=0; i<outData.size(); i++) {
+            if (inSet.contains(outData.get(i, indexIndex))) {
+                if (outData.get(i, indexIndex) == firstInPair) {
                     rowSet.add(0, i);   //Add rowIndex for line with mendhetrec Index inPair[0]
                 }
                 else {
@@ -1524,9 +2214,9 @@ public class VarData {
                 eachPair[pairCount] = new int[compHetFields.length + (sampleNames.length * S_FIELDS)];
                 for (int j = compHetFields.length; j < eachPair[pairCount].length; j+=S_FIELDS) {
                     int sampleIndex = (j - compHetFields.length) / S_FIELDS;
-                    eachPair[pairCount][j]   = outSamples[i][sampleIndex][0];
-                    eachPair[pairCount][j+1] = outSamples[i][sampleIndex][1];
-                    eachPair[pairCount][j+2] = outSamples[i][sampleIndex][2];
+                    eachPair[pairCount][j]   = outSamples.get(i, sampleIndex, 0);
+                    eachPair[pairCount][j+1] = outSamples.get(i, sampleIndex, 1);
+                    eachPair[pairCount][j+2] = outSamples.get(i, sampleIndex, 2);
                 }
             }
             else {
@@ -1537,7 +2227,7 @@ public class VarData {
                     eachPair[pairCount][j] = -1; //Hold place, show "-" in CompHetTableModel
                 }
                 else {
-                    eachPair[pairCount][j] = outData[i][compHetFields[j]];
+                    eachPair[pairCount][j] = outData.get(i, compHetFields[j]);
                 }
             }
 
@@ -1564,7 +2254,7 @@ public class VarData {
     public int[][] returnSample(int i) {
         int[][] tempOutSamples;
         
-        if (outSamples.length == 0) {
+        if (outSamples.size() == 0) {
             tempOutSamples = new int[0][];
         }
         else {
@@ -1572,7 +2262,7 @@ public class VarData {
             tempOutSamples = new int[sampleNames.length][S_FIELDS+1];
             for (int j = 0; j < sampleNames.length; j++) {
                 for (int k = 0; k < S_FIELDS; k++) {
-                    tempOutSamples[j][k+1] = outSamples[i][j][k];
+                    tempOutSamples[j][k+1] = outSamples.get(i, j, k);
                 }
                 tempOutSamples[j][0] = j;
             }
@@ -1610,23 +2300,17 @@ public class VarData {
     *   Returns a new Object with a subset of the data
     *  
     *   @param vdatIn The VarData object to use as a basis for a Sub VarData object
-    *   @param isInSubset BitSet where set bits determine which rows to include
+    *   @param isInSubset CompressedBitSet where set bits determine which rows to include
     *   @return A child VarData object (usually with a subset of data) that knows its parent
     */
-    public VarData returnSubVarData(VarData vdatIn, BitSet isInSubset) {
+    public VarData returnSubVarData(VarData vdatIn, CompressedBitSet isInSubset) {
         if (isInSubset == null) {
             isInSubset = dataIsIncluded;
         }
-        int[][] subsetData = new int[isInSubset.cardinality()][data[0].length];
-        int[][][] subsetSamples = new int[subsetData.length][][];
-        int lastPos = 0;
-        for (int i=0; i < data.length; i++) {
-            if (isInSubset.get(i)) {
-                System.arraycopy(data[i], 0, subsetData[lastPos], 0, data[i].length);
-                subsetSamples[lastPos] = samples[i];
-                lastPos++;
-            }
-        }
+        //The child views this object's storage, so no data is copied
+        RowSelection sel = RowSelection.select(data.getSelection(), isInSubset);
+        AnnotationStore subsetData = data.view(sel);
+        SampleStore subsetSamples = samples.view(sel);
         return new VarData(subsetData,
                            dataNamesOrig,
                            dataNames,
@@ -1648,13 +2332,13 @@ public class VarData {
     }
 
     /**
-    *   Set the array of BitSets to use for a custom query
+    *   Set the array of CompressedBitSets to use for a custom query
     *
-    *   @param inBS An array of BitSets to be used in custom querying
+    *   @param inBS An array of CompressedBitSets to be used in custom querying
     */
-    public void setCustomBitSet(BitSet[] inBS) {
+    public void setCustomBitSet(CompressedBitSet[] inBS) {
         if (inBS == null) {
-            bitSets = new BitSet[0];
+            bitSets = new CompressedBitSet[0];
         }
         else {
             bitSets = inBS;
@@ -1663,11 +2347,11 @@ public class VarData {
 
 
     /**
-    *   returns the array of BitSets to use for a custom query
+    *   returns the array of CompressedBitSets to use for a custom query
     *
-    *   @return An array of BitSets to interrogate for custom querying
+    *   @return An array of CompressedBitSets to interrogate for custom querying
     */
-    public BitSet[] getCustomBitSet() {
+    public CompressedBitSet[] getCustomBitSet() {
         return bitSets;
     }
 
@@ -1690,11 +2374,47 @@ public class VarData {
     *   @param newData The data to supplant to old data
     */
     public void setData(int row, int col, String newData) {
-        int lastIndex = 0;
-        for (int i = 0; i <= row; i++) {
-            lastIndex = ( dataIsIncluded.nextSetBit(lastIndex) + 1 );
+        data.set(dataRowOf(row), col, annotMapper[col].addData(newData));
+        annotationEdited(col);
+    }
+
+
+    /**
+    *   Drop what was built from an edited column.  Storage is shared with the parent and children, so
+    *   everything made from the same top-level VarData is told too.
+    *
+    *   @param col The column (in VarData.data) that was edited
+    */
+    protected void annotationEdited(int col) {
+        VarData root = this;
+        while (root.parentVarData != null && root.parentVarData != root) {
+            root = root.parentVarData;
+        }
+        root.dropIndexes(col);
+    }
+
+
+    /**
+    *   Drop what was built from a column, here and in all child views
+    */
+    private void dropIndexes(int col) {
+        annotIndexBuilt.clear(col);
+        novelDbIdRows = null;
+        genotypeCodes = null;
+        genotypeClassRows = null;
+        genotypeClassMasks = null;
+        sparseGenotypes = null;
+        sparseGenotypesBuilt = false;
+        isDataEdited = true;
+        List<VarData> children;
+        synchronized (childVarData) {
+            children = new ArrayList<VarData>(childVarData.keySet());
+        }
+        for (VarData child : children) {
+            if (child != this) {
+                child.dropIndexes(col);
+            }
         }
-        data[lastIndex - 1][col] = annotMapper[col].addData(newData);
     }
 
 
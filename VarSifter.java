@@ -95,6 +95,7 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
     private JMenuItem compHetViewItem;
     private JMenuItem customQueryViewItem;
     private JMenuItem sampleExportItem;
+    private JMenuItem batchQueryItem;
     private JMenuItem aboutItem;
     private JMenuItem docItem;
     private JMenuItem troubleItem;
@@ -330,12 +331,9 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
                 }
             }
 
-            vdat.filterData(new DataFilter(emptyBS, null, null, spinnerData, geneRegex, minMPG, minMPGCovRatio, genScoreThresh, geneDelim));
-            VarData tempVdat = vdat.returnSubVarData(vdat, null);
+            CompressedBitSet geneRows = vdat.evaluateFilter(new DataFilter(emptyBS, null, null, spinnerData, geneRegex, minMPG, minMPGCovRatio, genScoreThresh, geneDelim));
+            VarData tempVdat = vdat.returnSubVarData(vdat, geneRows);
             VarSifter vs = new VarSifter(tempVdat);
-            
-            //Must return the filtered state to what it was, to avoid data mapping errors!
-            vdat.filterData(df);
         }
 
         else if (es == openItem) {
@@ -443,11 +441,8 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
             }
             BitSet[] tempBS = { mask[0], (BitSet)(mask[1].clone()) };
             tempBS[1].set(MENDHETREC);
-            vdat.filterData(new DataFilter(tempBS, geneFile, bedFile, spinnerData, geneRegex, minMPG, minMPGCovRatio, genScoreThresh, geneDelim));
-            int temp[][] = vdat.returnOutData();
-
-            //Must return the filtered state to what it was, to avoid data mapping errors!
-            vdat.filterData(df);
+            CompressedBitSet compHetRows = vdat.evaluateFilter(new DataFilter(tempBS, geneFile, bedFile, spinnerData, geneRegex, minMPG, minMPGCovRatio, genScoreThresh, geneDelim));
+            int temp[][] = vdat.returnDataSubset(compHetRows);
 
             if (temp.length > 0) {
                 String[] index = new String[temp.length];
@@ -487,11 +482,8 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
             String geneRegex = (getRegex() == null) ? "." : getRegex();
             BitSet[] tempBS = { mask[0], (BitSet)(mask[1].clone()) };
             tempBS[1].set(MENDHETREC);
-            vdat.filterData(new DataFilter(tempBS, geneFile, bedFile, spinnerData, geneRegex, minMPG, minMPGCovRatio, genScoreThresh, geneDelim));
-            int temp[][] = vdat.returnOutData();
-
-            //Must return the filtered state to what it was, to avoid data mapping errors!
-            vdat.filterData(df);
+            CompressedBitSet compHetRows = vdat.evaluateFilter(new DataFilter(tempBS, geneFile, bedFile, spinnerData, geneRegex, minMPG, minMPGCovRatio, genScoreThresh, geneDelim));
+            int temp[][] = vdat.returnDataSubset(compHetRows);
 
             if (temp.length > 0) {
                 String[] index = new String[temp.length];
@@ -506,6 +498,10 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
             }
         }
 
+        else if (es == batchQueryItem) {
+            runSavedQueries();
+        }
+
         else if (es == sampleExportItem) {
             SampleExporter se = new SampleExporter(vdat);
 
@@ -769,6 +765,7 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
         compHetViewItem = new JMenuItem("Viewing Compound Hets");
         customQueryViewItem = new JMenuItem("Custom Query");
         sampleExportItem = new JMenuItem("Export Samples");
+        batchQueryItem = new JMenuItem("Run Saved Queries");
         aboutItem = new JMenuItem("About VarSifter");
         docItem = new JMenuItem("VarSifter Documentation");
         troubleItem = new JMenuItem("TroubleShooting");
@@ -781,6 +778,7 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
         viewMenu.add(compHetViewItem);
         viewMenu.add(customQueryViewItem);
         toolMenu.add(sampleExportItem);
+        toolMenu.add(batchQueryItem);
         helpMenu.add(aboutItem);
         helpMenu.add(docItem);
         helpMenu.add(troubleItem);
@@ -1083,6 +1081,7 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
         listenerList.add(compHetViewItem);
         listenerList.add(customQueryViewItem);
         listenerList.add(sampleExportItem);
+        listenerList.add(batchQueryItem);
         listenerList.add(exitItem);
         listenerList.add(aboutItem);
         listenerList.add(docItem);
@@ -1265,9 +1264,8 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
         }
         int geneNameIndex = ((Integer)typeMap.get("Gene_name")).intValue();
         if (isShowVar) {
-            sorter = new TableSorter( new VarTableModel(vdat.returnOutData(),
+            sorter = new TableSorter( new VarTableModel(vdat.returnOutColumns(),
                                           vdat.returnDataNames(), 
-                                          annotMapper,
                                           vdat ));
         }
         else {
@@ -1309,6 +1307,7 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
             showError("<html>Required JUNG files are not in the same directory as the VarSifter.jar file."
                 + "<p>Disabling custom querying.");
             customQueryViewItem.setEnabled(false);
+            batchQueryItem.setEnabled(false);
             customQuery.setEnabled(false);
             e.printStackTrace();
         }
@@ -1514,6 +1513,96 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
     }
 
 
+    /**
+    *   Evaluate several saved custom queries (saved by CustomQueryView, or text queries) at once,
+    *   and show how many variants pass each
+    */
+    private void runSavedQueries() {
+        JFileChooser fc = new JFileChooser(System.getProperty("user.dir"));
+        fc.setDialogTitle("Choose Saved Queries to Run");
+        fc.setMultiSelectionEnabled(true);
+        if (fc.showOpenDialog(VarSifter.this) != JFileChooser.APPROVE_OPTION) {
+            System.out.println("No file selected");
+            return;
+        }
+
+        BatchQuery batch = new BatchQuery(vdat);
+        StringBuilder skipped = new StringBuilder();
+        for (File queryFile : fc.getSelectedFiles()) {
+            try {
+                SavedQuery saved;
+                try {
+                    saved = SavedQuery.read(queryFile);
+                }
+                catch (StreamCorruptedException sce) {
+                    saved = TextQuery.read(queryFile, vdat);    //Not saved by CustomQueryView: a text query
+                }
+                if (saved.isFor(vdat)) {
+                    batch.add(queryFile.getName(), saved);
+                }
+                else {
+                    skipped.append("<p>" + queryFile.getName() + ": saved from a different data file (" 
+                        + saved.dataName + ")");
+                }
+            }
+            catch (java.text.ParseException pe) {
+                skipped.append("<p>" + queryFile.getName() + ": " + pe.getMessage());
+            }
+            catch (IOException ioe) {
+                skipped.append("<p>" + queryFile.getName() + ": " + ioe.toString());
+            }
+            catch (ClassNotFoundException cnfe) {
+                skipped.append("<p>" + queryFile.getName() + ": " + cnfe.toString());
+            }
+        }
+        if (skipped.length() > 0) {
+            showError("<html>These queries were not run:" + skipped);
+        }
+        if (batch.size() == 0) {
+            return;
+        }
+
+        //Run off the event dispatch thread, then show the counts
+        final BatchQuery toRun = batch;
+        batchQueryItem.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        new SwingWorker<Object, Object>() {
+            protected Object doInBackground() {
+                toRun.run();
+                return null;
+            }
+
+            protected void done() {
+                batchQueryItem.setEnabled(true);
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    get();
+                }
+                catch (InterruptedException ie) {
+                    System.out.println(ie.toString());
+                    return;
+                }
+                catch (java.util.concurrent.ExecutionException ee) {
+                    showError("Error running saved queries: " + ee.getCause());
+                    return;
+                }
+                String[][] counts = new String[toRun.size()][2];
+                for (int q=0; q < toRun.size(); q++) {
+                    counts[q][0] = toRun.getName(q);
+                    counts[q][1] = Integer.toString(toRun.getCount(q));
+                }
+                JTable countTable = new JTable(counts, new String[] {"Query", "Variants"});
+                countTable.setEnabled(false);
+                JScrollPane countPane = new JScrollPane(countTable);
+                countPane.setPreferredSize(new Dimension(400, 
+                    Math.min(400, countTable.getRowHeight() * (toRun.size() + 2))));
+                JOptionPane.showMessageDialog(VarSifter.this, countPane, "Saved Query Results", 
+                    JOptionPane.INFORMATION_MESSAGE);
+            }
+        }.execute();
+    }
+
+
     /**
     *   Add or remove Action Listeners
     *   @param inList A Set of AbstractButtons to add/remove
@@ -1663,11 +1752,6 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
         if (ovwResult == JOptionPane.YES_OPTION) {
             try {
 
-                if (saveAll) {
-                    // Remove all filters so all data included. MUST reset filter after writing!!
-                    vdat.filterData(new DataFilter(emptyBS, null, null, emptySpinnerData, null, 0, 0, 0, geneDelim));
-                }
-                
                 PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(fcFile)));
                 String[] dataNames = vdat.returnDataNames();
                 String[] sampleNamesOrig = vdat.returnSampleNamesOrig();
@@ -1691,20 +1775,21 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
                 outString.deleteCharAt(outString.length() - 1 );
                 pw.println(outString.toString());
 
-                int[][] outData = vdat.returnOutData();
-                for (int i=0; i < outData.length; i++) {
+                // Write all data, or only the filtered data, without changing the filtered state
+                AnnotationStore outData = (saveAll) ? vdat.returnAnnotationStore() : vdat.returnOutAnnotationStore();
+                SampleStore outSamples = (saveAll) ? vdat.returnSampleStore() : vdat.returnOutSampleStore();
+                for (int i=0; i < outData.size(); i++) {
                     outString = new StringBuilder(100);
 
                     // append Annotatations to outString
                     for (int j=0; j < dataNames.length; j++) {
-                        outString.append(annotMapper[j].getString(outData[i][j]) + "\t");
+                        outString.append(annotMapper[j].getString(outData.get(i, j)) + "\t");
                     }
 
                     // append sample info to outString
-                    int[][] outSamples = vdat.returnSample(i);
                     for (int j=0; j < sampleNames.length; j++) {
                         for (int k=0; k < sampleValueName.length; k++) {
-                            outString.append(sampleMapper[k].getString(outSamples[j][k+1]) + "\t");
+                            outString.append(sampleMapper[k].getString(outSamples.get(i, j, k)) + "\t");
                         }
                     }
                     outString.deleteCharAt(outString.length() - 1);
@@ -1712,11 +1797,6 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
                     pw.println(outString.toString());
                 }
 
-                if (saveAll) {
-                    //Must return the filtered state to what it was, to avoid data mapping errors!
-                    vdat.filterData(df);
-                }
-
                 pw.close();
                 if (pw.checkError()) {
                     showError("Error Detected writing file! File NOT saved!");
@@ -1794,6 +1874,37 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
             geneDelim = cTemp.get("Gene_Delim");
         }
 
+        if (cTemp.exists("Sample_Storage")) {
+            String storage = cTemp.get("Sample_Storage");
+            File storageDir = (cTemp.exists("Sample_Storage_Dir")) ? new File(cTemp.get("Sample_Storage_Dir")) : null;
+            if (storage.equalsIgnoreCase("heap")) {
+                SampleStore.setStorage(SampleStore.HEAP, storageDir);
+            }
+            else if (storage.equalsIgnoreCase("direct")) {
+                SampleStore.setStorage(SampleStore.DIRECT, storageDir);
+            }
+            else if (storage.equalsIgnoreCase("mapped")) {
+                SampleStore.setStorage(SampleStore.MAPPED, storageDir);
+            }
+            else if (storage.equalsIgnoreCase("paged")) {
+                SampleStore.setStorage(SampleStore.PAGED, storageDir);
+            }
+            else {
+                System.err.println("Unknown Sample_Storage \"" + storage + "\" (use heap, direct, mapped or paged).");
+            }
+        }
+
+        if (cTemp.exists("Sample_Cache_MB")) {
+            Integer i = cTemp.getInteger("Sample_Cache_MB");
+            if (i != null) {
+                SampleStore.setCacheSize(i * (1L << 20));
+            }
+        }
+
+        if (cTemp.exists("Memory_Report")) {
+            VarData.setMemoryReport(cTemp.get("Memory_Report").equalsIgnoreCase("true"));
+        }
+
         return cTemp;
 
     }
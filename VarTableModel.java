@@ -45,6 +45,69 @@ public class VarTableModel extends AbstractTableModel {
     }
 
 
+    /**
+    *   Constructor from typed columns (no int[][] copy of the data is made)
+    *
+    *   @param columns The columns to show, all with the same number of rows
+    *   @param colN An array of column names
+    *   @param v A VarData object holding all of the data
+    */
+    public VarTableModel(TypedColumn[] columns, String[] colN, VarData v) {
+        vdat = v;
+        mapper = new AbstractMapper[columns.length];
+        for (int j=0; j < columns.length; j++) {
+            mapper[j] = columns[j].getMapper();
+        }
+        int rows = (columns.length > 0) ? columns[0].size() : 0;
+        if (rows == 0) {
+            initModel(new int[0][], colN, 0);
+            return;
+        }
+
+        columnNames = colN;
+        data = new Object[rows][columns.length];
+        largestInColumn = new Object[columns.length];
+        for (int j=0; j < columns.length; j++) {
+            TypedColumn c = columns[j];
+            switch (c.getDataType()) {
+                case VarData.INTEGER:
+                    int maxInt = 0;
+                    for (int i=0; i < rows; i++) {
+                        int n = c.getInt(i);
+                        data[i][j] = Integer.valueOf(n);
+                        if (i == 0 || n > maxInt) {
+                            maxInt = n;
+                            largestInColumn[j] = data[i][j];
+                        }
+                    }
+                    break;
+                case VarData.FLOAT:
+                    float maxFloat = 0f;
+                    for (int i=0; i < rows; i++) {
+                        float f = c.getFloat(i);
+                        data[i][j] = Float.valueOf(f);
+                        if (i == 0 || f > maxFloat) {
+                            maxFloat = f;
+                            largestInColumn[j] = data[i][j];
+                        }
+                    }
+                    break;
+                default:
+                    int maxLength = 0;
+                    for (int i=0; i < rows; i++) {
+                        String str = c.getString(i);
+                        data[i][j] = str;
+                        if (i == 0 || str.length() > maxLength) {
+                            maxLength = str.length();
+                            largestInColumn[j] = str;
+                        }
+                    }
+                    break;
+            }
+        }
+    }
+
+
     /**
     *   Common constructor
     *   @param offset This determine where to start sample handling - use 1 to ignore sample name (1st column)
@@ -58,35 +121,38 @@ public class VarTableModel extends AbstractTableModel {
         }
         else {
             columnNames = colN;
-            boolean first = true;
-                        
-            for ( int i = 0; i < inData.length; i++) {
-                for (int j = offset; j < inData[i].length; j++) {
-                    int mapIndex = j - offset; //Must do this to ensure we get the right sampleMapper index!
-                    
-                    switch (mapper[mapIndex].getDataType()) {
-                        case VarData.INTEGER:
+
+            //Resolve each column's type once, then fill the column
+            for (int j = offset; j < inData[0].length; j++) {
+                AbstractMapper m = mapper[j - offset]; //Must do this to ensure we get the right sampleMapper index!
+
+                switch (m.getDataType()) {
+                    case VarData.INTEGER:
+                        for (int i = 0; i < inData.length; i++) {
                             data[i][j] = Integer.valueOf(inData[i][j]);
-                            if (first || (Integer)data[i][j] > (Integer)largestInColumn[j]) {
+                            if (i == 0 || (Integer)data[i][j] > (Integer)largestInColumn[j]) {
                                 largestInColumn[j] = data[i][j];
                             }
-                            break;
-                        case VarData.FLOAT:
-                            data[i][j] = new Float(mapper[mapIndex].getFloat(inData[i][j]));
-                            if (first || (Float)data[i][j] > (Float)largestInColumn[j]) {
+                        }
+                        break;
+                    case VarData.FLOAT:
+                        for (int i = 0; i < inData.length; i++) {
+                            data[i][j] = Float.valueOf(m.getFloat(inData[i][j]));
+                            if (i == 0 || (Float)data[i][j] > (Float)largestInColumn[j]) {
                                 largestInColumn[j] = data[i][j];
                             }
-                            break;
-                        case VarData.STRING:
-                        case VarData.MULTISTRING:
-                            data[i][j] = mapper[mapIndex].getString(inData[i][j]);
-                            if (first || ((String)data[i][j]).length() > largestInColumn[j].toString().length()) {
+                        }
+                        break;
+                    case VarData.STRING:
+                    case VarData.MULTISTRING:
+                        for (int i = 0; i < inData.length; i++) {
+                            data[i][j] = m.getString(inData[i][j]);
+                            if (i == 0 || ((String)data[i][j]).length() > largestInColumn[j].toString().length()) {
                                 largestInColumn[j] = data[i][j];
                             }
-                            break;
-                    }
+                        }
+                        break;
                 }
-                first = false;
             }
         }
     }
@@ -0,0 +1,72 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+*   Checks that a text query parses into a SavedQuery that is the same once written and read back, and
+*   that a subset of the data (which has no file of its own) parses it the same way.
+*   Run with "make test"; exits with status 1 if a check fails.
+*/
+public class SavedQueryTest {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        File dataFile = File.createTempFile("emptyVS_", ".tmp");  //Named so VarData doesn't ask which columns to load
+        dataFile.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(dataFile)));
+        pw.println(VarSifter.emptyHeader + "\tkid.NA\tkid.NA.score\tkid.NA.cov\tmom.NA\tmom.NA.score\tmom.NA.cov");
+        pw.println("chr1\t100\t101\tGENE1\tStop\tSNP\tA\tC\tAC\t50\t30\tAA\t50\t30");
+        pw.println("chr1\t200\t201\tGENE1\tSynonymous\tSNP\tG\tT\tGG\t50\t30\tGT\t50\t30");
+        pw.println("chr2\t300\t301\tGENE2\tNonsynonymous\tSNP\tC\tG\tCG\t50\t30\tCC\t50\t30");
+        pw.close();
+        VarData vdat = new VarData(dataFile.getPath());
+        String text = "(@\"kid.NA\" == het AND @\"mom.NA\" == homref) OR type ~ \"stop|splice\"";
+
+        SavedQuery parsed = TextQuery.parse(text, vdat);
+        check("data name", dataFile.getName(), parsed.dataName);
+        check("is for its data", true, parsed.isFor(vdat));
+        check("boxes", 5, parsed.graph.getVertexCount());
+
+        File queryFile = File.createTempFile("SavedQueryTest", ".vsq");
+        queryFile.deleteOnExit();
+        parsed.write(queryFile);
+        SavedQuery read = SavedQuery.read(queryFile);
+        check("read data name", parsed.dataName, read.dataName);
+        check("read boxes", boxes(parsed, true), boxes(read, true));
+        check("read links", parsed.graph.getEdgeCount(), read.graph.getEdgeCount());
+        check("read BitSets", Arrays.asList(parsed.bitSets), Arrays.asList(read.bitSets));
+
+        VarData sub = vdat.returnSubVarData(vdat, null);
+        SavedQuery fromSub = TextQuery.parse(text, sub);
+        check("subset data name", dataFile.getName(), fromSub.dataName);
+        check("subset boxes", boxes(parsed, false), boxes(fromSub, false));
+        check("is for the subset", true, read.isFor(sub));
+
+        System.out.println((failures == 0) ? "SavedQueryTest passed" : "SavedQueryTest: " + failures + " check(s) failed");
+        System.exit((failures == 0) ? 0 : 1);
+    }
+
+
+    /**
+    *   Return the query of each box (and its id, if asked), sorted
+    */
+    private static List<String> boxes(SavedQuery q, boolean withIds) {
+        List<String> out = new ArrayList<String>();
+        for (CustomVertex v : q.graph.getVertices()) {
+            out.add((withIds ? v.toString() + " " : "") + v.getQuery());
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+
+    private static void check(String what, Object expected, Object got) {
+        if (!expected.equals(got)) {
+            failures++;
+            System.out.println("FAILED " + what + ": expected " + expected + ", got " + got);
+        }
+    }
+}